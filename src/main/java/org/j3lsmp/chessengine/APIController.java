@@ -1,20 +1,33 @@
 package org.j3lsmp.chessengine;
 
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import jakarta.servlet.http.HttpServletRequest;
 
 /**
- * Rest Controller for api - handles front-end interactions with {@link ChessEngineApplication#board}
+ * Rest Controller for api - handles front-end interactions with {@link ChessEngineApplication#board}. Requests may come
+ * in on many threads at once, so every endpoint that reads or changes the board holds its lock while it does. The
+ * computer's move searches a copy without the lock, so the board can still be read meanwhile, and only plays its move
+ * if the board hasn't changed since the copy was taken
  * 
  * @author Jaden
  * @since 0.0.1
@@ -23,21 +36,87 @@ import org.springframework.web.bind.annotation.RestController;
 @RequestMapping("/api")
 public class APIController {
 	
+	/**
+	 * Time given to each position of an analysis or batch analysis when the request sets no limits, in milliseconds
+	 */
+	private static final long DEFAULT_ANALYSIS_TIME_MS = 1000;
+	
+	/**
+	 * Legal moves of {@link ChessEngineApplication#board}, for `/getMoves/{square}`
+	 */
+	private static final LegalMoveCache legalMoves = new LegalMoveCache();
+	
+	/**
+	 * Held for the whole of the computer's move, so only one search runs at a time and the search statistics returned
+	 * are its own
+	 */
+	private static final Object searchLock = new Object();
+	
+	/**
+	 * Pushes board updates to WebSocket clients
+	 */
+	private final BoardSocketHandler boardSocket;
+	
+	/**
+	 * Created by Spring
+	 * @param boardSocket pushes board updates to WebSocket clients
+	 */
+	APIController(BoardSocketHandler boardSocket) {
+		this.boardSocket = boardSocket;
+	}
+	
+	/**
+	 * An entity tag for responses that depend only on the current board, so clients can revalidate them cheaply. The
+	 * zobrist hash of the board stands in for the position, including whose turn it is. Call while holding the board's
+	 * lock
+	 * @return the quoted tag
+	 */
+	private static String positionTag() {
+		return "\"" + Long.toHexString(ChessEngineApplication.board.computeZobristHash()) + "\"";
+	}
+	
+	/**
+	 * The current board as FEN, for endpoints that search or read a copy of it without holding its lock
+	 * @return the FEN
+	 */
+	private static String currentFen() {
+		synchronized (ChessEngineApplication.board) {
+			return ChessEngineApplication.board.toFen();
+		}
+	}
+	
+	/**
+	 * A response for a client that already has the current version of a resource
+	 * @param <T> the type the response would otherwise have had
+	 * @param tag the resource's entity tag
+	 * @return a 304 response
+	 */
+	private static <T> ResponseEntity<T> notModified(String tag) {
+		return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(tag).build();
+	}
+	
 	/**
 	 * Accepts get requests to `/getMoves/{square}` where square is an integer between 0 and 63. Returns a set of all legal moves that can be made with the piece on that square
 	 * @param square an integer between 0 and 63
-	 * @return the moves that can be made
+	 * @param ifNoneMatch the entity tag of the client's copy, if it has one
+	 * @return the moves that can be made, or 304 if the board hasn't changed since the client's copy
 	 */
 	@GetMapping("/getMoves/{square}")
-	public ResponseEntity<HashSet<Integer>> getMoves(@PathVariable String square) {
+	public ResponseEntity<HashSet<Integer>> getMoves(@PathVariable String square,
+			@RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
 		try {
-			HashSet<Move> moves = ChessEngineApplication.board.generateMoves();
+			String tag;
+			long destinations;
+			synchronized (ChessEngineApplication.board) {
+				tag = positionTag();
+				if (tag.equals(ifNoneMatch))
+					return notModified(tag);
+				destinations = legalMoves.destinations(ChessEngineApplication.board)[Integer.parseInt(square)];
+			}
 			HashSet<Integer> ret = new HashSet<>();
-			long bitboard = ChessUtilities.squareToBitboard(Integer.parseInt(square));
-			for (Move move : moves)
-				if (move.from() == bitboard)
-					ret.add(ChessUtilities.bitboardtoSquare(move.to()));
-			return ResponseEntity.ok(ret);
+			for (; destinations != 0; destinations &= destinations - 1)
+				ret.add(Long.numberOfTrailingZeros(destinations));
+			return ResponseEntity.ok().eTag(tag).cacheControl(CacheControl.noCache()).body(ret);
 		} catch (Exception e) {
 			return ResponseEntity.badRequest().build();
 		}
@@ -45,12 +124,21 @@ public class APIController {
 	
 	/**
 	 * Accepts get requests to `/getBoard`. Returns the current board in array form (specifically a List of Lists of Bytes)
-	 * @return the board as a list of byte lists
+	 * @param ifNoneMatch the entity tag of the client's copy, if it has one
+	 * @return the board as a list of byte lists, or 304 if it hasn't changed since the client's copy
 	 */
 	@GetMapping("/getBoard")
-	public ResponseEntity<List<List<Byte>>> getBoard() {
+	public ResponseEntity<List<List<Byte>>> getBoard(
+			@RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
 		try {
-			byte[][] byteboard = ChessEngineApplication.board.boardAsArray();
+			String tag;
+			byte[][] byteboard;
+			synchronized (ChessEngineApplication.board) {
+				tag = positionTag();
+				if (tag.equals(ifNoneMatch))
+					return notModified(tag);
+				byteboard = ChessEngineApplication.board.boardAsArray();
+			}
 			List<List<Byte>> response = new ArrayList<>();
 			
 			for (int i = 7; i >= 0; i--) {
@@ -60,7 +148,7 @@ public class APIController {
 				response.add(row);
 			}
 			
-			return ResponseEntity.ok(response);
+			return ResponseEntity.ok().eTag(tag).cacheControl(CacheControl.noCache()).body(response);
 		} catch (Exception e) {
 			return ResponseEntity.badRequest().build();
 		}
@@ -74,21 +162,64 @@ public class APIController {
 	@PostMapping("/makeMove")
 	public ResponseEntity<String> makeMove(@RequestBody MoveRequest moveRequest) {
 		try {
-			ChessEngineApplication.board.performMove(new Move(ChessUtilities.squareToBitboard(moveRequest.from()), ChessUtilities.squareToBitboard(moveRequest.to()), (byte) moveRequest.piece()));
+			synchronized (ChessEngineApplication.board) {
+				ChessEngineApplication.board.performMove(new Move(ChessUtilities.squareToBitboard(moveRequest.from()), ChessUtilities.squareToBitboard(moveRequest.to()), (byte) moveRequest.piece()));
+				legalMoves.invalidate();
+				MoveSearcher.ponderer.opponentMoved(ChessEngineApplication.board);
+				boardSocket.broadcastPosition();
+			}
 			return ResponseEntity.ok("Move executed");
 		} catch (Exception e) {
 			return ResponseEntity.badRequest().body("Something went wrong");
 		}
 	}
 	
+	/**
+	 * Accepts post requests to `/newGame`. Sets the board back to the starting position
+	 * @return ok once the board is reset
+	 */
+	@PostMapping("/newGame")
+	public ResponseEntity<String> newGame() {
+		synchronized (ChessEngineApplication.board) {
+			MoveSearcher.ponderer.cancel();
+			ChessEngineApplication.board.resetBoard();
+			legalMoves.invalidate();
+			boardSocket.broadcastPosition();
+		}
+		return ResponseEntity.ok("New game started");
+	}
+	
+	/**
+	 * Accepts get requests to `/position`. Returns the current board in the compact binary form of {@link PositionCodec}
+	 * @param ifNoneMatch the entity tag of the client's copy, if it has one
+	 * @return the board's bytes, or 304 if it hasn't changed since the client's copy
+	 */
+	@GetMapping(value = "/position", produces = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+	public ResponseEntity<byte[]> position(
+			@RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+		synchronized (ChessEngineApplication.board) {
+			String tag = positionTag();
+			if (tag.equals(ifNoneMatch))
+				return notModified(tag);
+			return ResponseEntity.ok().eTag(tag).cacheControl(CacheControl.noCache()).body(PositionCodec.encode(ChessEngineApplication.board));
+		}
+	}
+	
 	/**
 	 * Accepts get requests to `/isComputerTurn`
-	 * @return true if it's the computer's turn
+	 * @param ifNoneMatch the entity tag of the client's copy, if it has one
+	 * @return true if it's the computer's turn, or 304 if the board hasn't changed since the client's copy
 	 */
 	@GetMapping("/isComputerTurn")
-	public ResponseEntity<Boolean> isComputerTurn() {
+	public ResponseEntity<Boolean> isComputerTurn(
+			@RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
 		try {
-			return ResponseEntity.ok(!ChessEngineApplication.board.isWhiteTurn);
+			synchronized (ChessEngineApplication.board) {
+				String tag = positionTag();
+				if (tag.equals(ifNoneMatch))
+					return notModified(tag);
+				return ResponseEntity.ok().eTag(tag).cacheControl(CacheControl.noCache()).body(!ChessEngineApplication.board.isWhiteTurn);
+			}
 		} catch(Exception e) {
 			return ResponseEntity.badRequest().build();
 		}
@@ -97,20 +228,214 @@ public class APIController {
 	/**
 	 * Accepts post requests to `/computerMove` with a body detailing how long to give the computer
 	 * @param computerTime the time for the computer in milliseconds
-	 * @return data about the computer's move search
+	 * @param engine which search to use, `alphabeta` or `mcts`
+	 * @return data about the computer's move search, or 409 if the board changed while the computer was searching
 	 */
 	@PostMapping("/computerMove")
-	public ResponseEntity<HashMap<String, Integer>> computerMove(@RequestBody Integer computerTime) {
+	public ResponseEntity<HashMap<String, Number>> computerMove(@RequestBody Integer computerTime,
+			@RequestParam(defaultValue = "alphabeta") String engine) {
 		try {
-			ChessEngineApplication.board.performMove(MoveSearcher.findBestMove(ChessEngineApplication.board, (long) computerTime));
-			HashMap<String, Integer> ret = new HashMap<>();
-			ret.put("boardsEvaluated", MoveSearcher.boardsEvaluated);
-			ret.put("futuresConsidered", MoveSearcher.futuresConsidered);
-			ret.put("movesAhead", MoveSearcher.movesAhead);
+			boolean monteCarlo;
+			switch (engine) {
+			case "alphabeta":
+				monteCarlo = false;
+				break;
+			case "mcts":
+				monteCarlo = true;
+				break;
+			default:
+				return ResponseEntity.badRequest().build();
+			}
+			HashMap<String, Number> ret = new HashMap<>();
+			synchronized (searchLock) {
+				ChessBoard position;
+				long key;
+				synchronized (ChessEngineApplication.board) {
+					position = new ChessBoard(ChessEngineApplication.board.toFen());
+					key = ChessEngineApplication.board.computeZobristHash();
+				}
+				Move move = monteCarlo ? MoveSearcher.findBestMoveMonteCarlo(position, (long) computerTime)
+						: MoveSearcher.findBestMove(position, (long) computerTime);
+				synchronized (ChessEngineApplication.board) {
+					if (ChessEngineApplication.board.computeZobristHash() != key)
+						return ResponseEntity.status(HttpStatus.CONFLICT).build();
+					ChessEngineApplication.board.performMove(move);
+					legalMoves.invalidate();
+					boardSocket.broadcastPosition();
+					// Pondering fills the alpha-beta transposition table, which the tree search doesn't use
+					if (!monteCarlo)
+						MoveSearcher.ponderer.start(ChessEngineApplication.board, (long) computerTime);
+				}
+				ret.put("boardsEvaluated", MoveSearcher.boardsEvaluated);
+				ret.put("futuresConsidered", MoveSearcher.futuresConsidered);
+				ret.put("movesAhead", MoveSearcher.movesAhead);
+				ret.put("evaluationCacheHitRate", MoveSearcher.evaluationCacheHitRate);
+			}
 			return ResponseEntity.ok(ret);
 		} catch (Exception e) {
 			e.printStackTrace();
 			return ResponseEntity.internalServerError().build();
 		}
 	}
+	
+	/**
+	 * Accepts get requests to `/analysis`. Searches a position for its best few lines and returns them at every depth
+	 * searched, each with its score and principal variation
+	 * @param fen the position, or the current board if not given
+	 * @param lines how many lines to find
+	 * @param depth the deepest iteration to search, 0 for no limit
+	 * @param timeMs the time to search for in milliseconds, 0 for no limit
+	 * @return the lines found at each depth, best first, along with the nodes searched and time taken
+	 * @see MoveSearcher#searchMultiPv(ChessBoard, SearchLimits, int)
+	 */
+	@GetMapping("/analysis")
+	public ResponseEntity<HashMap<String, Object>> analysis(@RequestParam(required = false) String fen,
+			@RequestParam(defaultValue = "3") int lines, @RequestParam(defaultValue = "0") int depth,
+			@RequestParam(defaultValue = "0") long timeMs) {
+		try {
+			if (lines < 1)
+				return ResponseEntity.badRequest().build();
+			ChessBoard position = fen == null ? new ChessBoard(currentFen()) : new ChessBoard(fen);
+			SearchLimits limits = depth == 0 && timeMs == 0 ? SearchLimits.ofTime(DEFAULT_ANALYSIS_TIME_MS)
+					: new SearchLimits(depth, timeMs, 0);
+			MultiPvResult result = MoveSearcher.engine.searchMultiPv(position, limits, lines);
+			
+			List<HashMap<String, Object>> depths = new ArrayList<>();
+			for (int i = 0; i < result.depths().size(); i++) {
+				List<HashMap<String, Object>> depthLines = new ArrayList<>();
+				for (PvLine line : result.depths().get(i)) {
+					List<String> pv = new ArrayList<>(), pvSan = new ArrayList<>();
+					ChessBoard lineBoard = position;
+					for (Move move : line.pv()) {
+						pv.add(ChessUtilities.moveToUci(move));
+						pvSan.add(Notation.toSan(lineBoard, move));
+						lineBoard = new ChessBoard(lineBoard, move);
+					}
+					HashMap<String, Object> entry = new HashMap<>();
+					entry.put("move", pv.get(0));
+					entry.put("score", line.score());
+					entry.put("pv", pv);
+					entry.put("pvSan", pvSan);
+					depthLines.add(entry);
+				}
+				HashMap<String, Object> entry = new HashMap<>();
+				entry.put("depth", i + 1);
+				entry.put("lines", depthLines);
+				depths.add(entry);
+			}
+			HashMap<String, Object> ret = new HashMap<>();
+			ret.put("depths", depths);
+			ret.put("nodes", result.nodes());
+			ret.put("timeMs", result.timeMs());
+			return ResponseEntity.ok(ret);
+		} catch (IllegalArgumentException e) {
+			return ResponseEntity.badRequest().build();
+		} catch (Exception e) {
+			e.printStackTrace();
+			return ResponseEntity.internalServerError().build();
+		}
+	}
+	
+	/**
+	 * Accepts get requests to `/mate`. Looks for the shortest forced mate for the side to move with proof-number search,
+	 * which finds mates far deeper in the same time than `/analysis` does
+	 * @param fen the position, or the current board if not given
+	 * @param maxMoves the longest mate to look for, in moves of the side to move
+	 * @param timeMs the time to search for in milliseconds
+	 * @return the mate and its length in moves, or a mate length of 0 if none was found, with whether shorter mates were
+	 * ruled out and the nodes searched and time taken
+	 * @see MateSolver
+	 */
+	@GetMapping("/mate")
+	public ResponseEntity<HashMap<String, Object>> mate(@RequestParam(required = false) String fen,
+			@RequestParam(defaultValue = "" + MateSolver.DEFAULT_MAX_MOVES) int maxMoves,
+			@RequestParam(defaultValue = "10000") long timeMs) {
+		try {
+			if (maxMoves < 1 || maxMoves > MateSolver.MAX_MOVES || timeMs < 1)
+				return ResponseEntity.badRequest().build();
+			ChessBoard position = fen == null ? new ChessBoard(currentFen()) : new ChessBoard(fen);
+			MateSolver.MateResult result = MoveSearcher.solveMate(position, maxMoves, SearchLimits.ofTime(timeMs));
+			
+			List<String> line = new ArrayList<>(), lineSan = new ArrayList<>();
+			ChessBoard lineBoard = position;
+			for (Move move : result.line()) {
+				line.add(ChessUtilities.moveToUci(move));
+				lineSan.add(Notation.toSan(lineBoard, move));
+				lineBoard = new ChessBoard(lineBoard, move);
+			}
+			HashMap<String, Object> ret = new HashMap<>();
+			ret.put("mateIn", result.mateIn());
+			ret.put("line", line);
+			ret.put("lineSan", lineSan);
+			ret.put("proven", result.proven());
+			ret.put("nodes", result.nodes());
+			ret.put("timeMs", result.timeMs());
+			return ResponseEntity.ok(ret);
+		} catch (IllegalArgumentException e) {
+			return ResponseEntity.badRequest().build();
+		} catch (Exception e) {
+			e.printStackTrace();
+			return ResponseEntity.internalServerError().build();
+		}
+	}
+	
+	/**
+	 * Accepts get requests to `/explorer`. Returns how often each move from a position was played in the games of the
+	 * opening explorer index, and how those games ended
+	 * @param fen the position, or the current board if not given
+	 * @return one entry per move, most played first, or 404 if no index is loaded
+	 * @see PgnIndexer
+	 */
+	@GetMapping("/explorer")
+	public ResponseEntity<List<HashMap<String, Object>>> explorer(@RequestParam(required = false) String fen) {
+		try {
+			OpeningIndex index = MoveSearcher.openingIndex;
+			if (index == null)
+				return ResponseEntity.notFound().build();
+			ChessBoard position = new ChessBoard(fen == null ? currentFen() : fen);
+			List<HashMap<String, Object>> ret = new ArrayList<>();
+			for (OpeningIndex.MoveStats moveStats : index.moves(position)) {
+				HashMap<String, Object> entry = new HashMap<>();
+				entry.put("move", ChessUtilities.moveToUci(moveStats.move()));
+				entry.put("san", Notation.toSan(position, moveStats.move()));
+				entry.put("whiteWins", moveStats.stats().whiteWins());
+				entry.put("draws", moveStats.stats().draws());
+				entry.put("blackWins", moveStats.stats().blackWins());
+				ret.add(entry);
+			}
+			return ResponseEntity.ok(ret);
+		} catch (IllegalArgumentException e) {
+			return ResponseEntity.badRequest().build();
+		} catch (Exception e) {
+			e.printStackTrace();
+			return ResponseEntity.internalServerError().build();
+		}
+	}
+	
+	/**
+	 * Accepts post requests to `/analyse` with a body of positions, one per line, each either a FEN or a JSON object
+	 * with a `fen` and optional `id`, `depth`, `timeMs` and `nodes`. Streams back one line of JSON per position as its
+	 * analysis finishes
+	 * @param request the request, read as a stream so batches of any size fit in memory
+	 * @param depth default depth limit for positions that don't give one, 0 for none
+	 * @param timeMs default time limit in milliseconds for positions that don't give one, 0 for none
+	 * @param nodes default node limit for positions that don't give one, 0 for none
+	 * @return newline-delimited JSON results
+	 * @see BatchAnalyser
+	 */
+	@PostMapping(value = "/analyse", produces = "application/x-ndjson")
+	public ResponseEntity<StreamingResponseBody> analyse(HttpServletRequest request,
+			@RequestParam(defaultValue = "0") int depth, @RequestParam(defaultValue = "0") long timeMs,
+			@RequestParam(defaultValue = "0") long nodes) {
+		try {
+			SearchLimits defaults = depth == 0 && timeMs == 0 && nodes == 0 ? SearchLimits.ofTime(DEFAULT_ANALYSIS_TIME_MS)
+					: new SearchLimits(depth, timeMs, nodes);
+			BatchAnalyser analyser = new BatchAnalyser(defaults);
+			InputStream in = request.getInputStream();
+			return ResponseEntity.ok().contentType(MediaType.parseMediaType("application/x-ndjson"))
+					.body(out -> analyser.analyse(in, out));
+		} catch (Exception e) {
+			return ResponseEntity.badRequest().build();
+		}
+	}
 }
\ No newline at end of file
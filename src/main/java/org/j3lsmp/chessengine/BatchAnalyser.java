@@ -0,0 +1,154 @@
+package org.j3lsmp.chessengine;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Analyses a stream of positions on {@link MoveSearcher#threadPool}, writing each result as a line of JSON as soon as
+ * its search finishes. Only a bounded number of positions are read ahead of the searches, so a batch of any size is
+ * analysed in constant memory
+ * 
+ * <p>Each input line is either a bare FEN or a JSON object like
+ * <code>{"id": "game 12, move 30", "fen": "...", "depth": 8, "timeMs": 500, "nodes": 100000}</code>, where every field
+ * but the FEN is optional. Results come out in the order they finish, not the order they went in, so use the id to
+ * match them up
+ * 
+ * @author Jaden
+ * @since 0.0.1
+ */
+class BatchAnalyser {
+	/**
+	 * Reads and writes the JSON lines
+	 */
+	private static final ObjectMapper MAPPER = new ObjectMapper();
+	
+	/**
+	 * One position to analyse
+	 * @param id optional identifier, echoed in the result
+	 * @param fen the position
+	 * @param depth optional depth limit, overriding the batch default
+	 * @param timeMs optional time limit in milliseconds, overriding the batch default
+	 * @param nodes optional node limit, overriding the batch default
+	 */
+	record AnalysisRequest(String id, String fen, Integer depth, Long timeMs, Long nodes) {}
+	
+	/**
+	 * The analysis of one position
+	 * @param id the identifier of the request, if it had one
+	 * @param fen the position
+	 * @param bestMove the best move found, in UCI notation
+	 * @param score the evaluation, positive favors white
+	 * @param depth the deepest iteration completed
+	 * @param nodes the number of boards visited
+	 * @param timeMs the time the search took
+	 * @param error why the position couldn't be analysed, if it couldn't
+	 */
+	@JsonInclude(JsonInclude.Include.NON_NULL)
+	record AnalysisResult(String id, String fen, String bestMove, Integer score, Integer depth, Long nodes,
+			Long timeMs, String error) {}
+	
+	/**
+	 * Limits for positions that don't specify their own
+	 */
+	private final SearchLimits defaults;
+	
+	/**
+	 * How many positions may be queued or searching at once
+	 */
+	private final int maxInFlight;
+	
+	/**
+	 * Creates an analyser
+	 * @param defaults limits for positions that don't specify their own
+	 */
+	BatchAnalyser(SearchLimits defaults) {
+		this.defaults = defaults;
+		this.maxInFlight = MoveSearcher.threadPool.getParallelism() * 2;
+	}
+	
+	/**
+	 * Analyse every position in the input, writing a line to the output for each one. Returns once every result has
+	 * been written
+	 * @param in positions, one per line
+	 * @param out where results are written, one per line
+	 * @throws IOException if reading the input or writing a result fails
+	 */
+	void analyse(InputStream in, OutputStream out) throws IOException {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+		Semaphore inFlight = new Semaphore(maxInFlight);
+		AtomicReference<IOException> failure = new AtomicReference<>();
+		
+		try {
+			String line;
+			while ((line = reader.readLine()) != null && failure.get() == null) {
+				if (line.isBlank())
+					continue;
+				String request = line;
+				inFlight.acquire();
+				MoveSearcher.threadPool.execute(() -> {
+					try {
+						byte[] result = analyseLine(request);
+						synchronized (out) {
+							out.write(result);
+							out.flush();
+						}
+					} catch (IOException e) {
+						failure.compareAndSet(null, e);
+					} finally {
+						inFlight.release();
+					}
+				});
+			}
+			inFlight.acquire(maxInFlight); // Wait for the last searches to finish
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Batch analysis interrupted");
+		}
+		
+		if (failure.get() != null)
+			throw failure.get();
+	}
+	
+	/**
+	 * Analyse the position described by one line of input
+	 * @param line a FEN or JSON request
+	 * @return the result as a line of JSON
+	 * @throws IOException if the result can't be written as JSON
+	 */
+	private byte[] analyseLine(String line) throws IOException {
+		AnalysisResult result;
+		String id = null, fen = line.trim();
+		try {
+			SearchLimits limits = defaults;
+			if (fen.startsWith("{")) {
+				AnalysisRequest request = MAPPER.readValue(fen, AnalysisRequest.class);
+				id = request.id();
+				fen = request.fen();
+				if (request.depth() != null || request.timeMs() != null || request.nodes() != null)
+					limits = new SearchLimits(request.depth() != null ? request.depth() : 0,
+							request.timeMs() != null ? request.timeMs() : 0, request.nodes() != null ? request.nodes() : 0);
+			}
+			SearchResult search = MoveSearcher.engine.search(new ChessBoard(fen), limits);
+			result = new AnalysisResult(id, fen,
+					search.bestMove() == null ? null : ChessUtilities.moveToUci(search.bestMove()), search.score(),
+					search.depth(), search.nodes(), search.timeMs(), null);
+		} catch (RuntimeException | IOException e) {
+			result = new AnalysisResult(id, fen, null, null, null, null, null, String.valueOf(e.getMessage()));
+		}
+		byte[] json = MAPPER.writeValueAsBytes(result);
+		byte[] withNewline = new byte[json.length + 1];
+		System.arraycopy(json, 0, withNewline, 0, json.length);
+		withNewline[json.length] = '\n';
+		return withNewline;
+	}
+}
@@ -0,0 +1,264 @@
+package org.j3lsmp.chessengine;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+/**
+ * End to end benchmark of the search, for checking a build for regressions. Searches each of a fixed list of positions
+ * to a fixed depth with a fresh {@link MoveSearcher}, once single-threaded and once across {@link MoveSearcher#threadPool},
+ * and prints the nodes, time and nodes per second of each and in total. Then it sweeps every board a few plies below
+ * each position through {@link ChessBoard#calculateBoardValue()}, timing the evaluation alone
+ *
+ * <p>The single-threaded total of nodes is the bench signature. Fixed-depth single-threaded searches from empty tables
+ * always visit the same boards, so the signature is the same on every machine and only changes when a change alters
+ * what the search does, like its move ordering, pruning or evaluation. A change meant only to be faster should leave it
+ * alone. Parallel searches split their work differently from run to run, so their node counts aren't a signature, only
+ * a measure of how much faster the threads search. The sweep's total of evaluations is a signature of the evaluation
+ * alone in the same way
+ *
+ * <p>Run without Spring, for example
+ * <code>java -cp target/classes org.j3lsmp.chessengine.Bench --depth 6 --json bench.json</code>
+ *
+ * <p>Options, all optional:
+ * <ul>
+ * <li><code>--depth</code> the depth every position is searched to. Default {@link #DEFAULT_DEPTH}</li>
+ * <li><code>--mode</code> <code>single</code>, <code>parallel</code> or <code>both</code>. Default both</li>
+ * <li><code>--sweepDepth</code> the plies below each position the evaluation sweep goes, 0 for no sweep. Default
+ * {@link #DEFAULT_SWEEP_DEPTH}</li>
+ * <li><code>--json</code> file the results are also written to as JSON, for tracking them over time</li>
+ * </ul>
+ *
+ * @author Jaden
+ * @since 0.0.1
+ */
+public class Bench {
+	/**
+	 * Depth searched when the options don't give one
+	 */
+	static final int DEFAULT_DEPTH = 5;
+
+	/**
+	 * Depth every position is searched to first, untimed, so the timed runs aren't slowed by code still being compiled
+	 */
+	private static final int WARMUP_DEPTH = 3;
+
+	/**
+	 * Plies below each position the evaluation sweep goes when the options don't say
+	 */
+	static final int DEFAULT_SWEEP_DEPTH = 3;
+
+	/**
+	 * Boards the sweep collects before evaluating them, so generating them isn't timed with the evaluation
+	 */
+	private static final int SWEEP_BATCH = 4096;
+
+	/**
+	 * The positions searched: openings, middlegames with tactics, and endgames, with and without queens
+	 */
+	static final String[] POSITIONS = {
+			"rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1",
+			"r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1",
+			"8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - 0 1",
+			"r3k2r/Pppp1ppp/1b3nbN/nP6/BBP1P3/q4N2/Pp1P2PP/R2Q1RK1 w kq - 0 1",
+			"rnbq1k1r/pp1Pbppp/2p5/8/2B5/8/PPP1NnPP/RNBQK2R w KQ - 1 8",
+			"r4rk1/1pp1qppp/p1np1n2/2b1p1B1/2B1P1b1/P1NP1N2/1PP1QPPP/R4RK1 w - - 0 10",
+			"r1bqkb1r/pppp1ppp/2n2n2/4p3/2B1P3/5N2/PPPP1PPP/RNBQK2R w KQkq - 4 4",
+			"rnbqkb1r/pp3ppp/4pn2/2pp4/2PP4/2N1PN2/PP3PPP/R1BQKB1R b KQkq - 0 5",
+			"r2q1rk1/pp2bppp/2n1bn2/3p4/3P4/2NBBN2/PP3PPP/R2Q1RK1 w - - 6 11",
+			"2r3k1/pp3ppp/2n1b3/3p4/3P4/2PB1N2/P4PPP/4R1K1 w - - 0 22",
+			"6k1/5ppp/8/8/8/8/5PPP/3R2K1 w - - 0 1",
+			"8/8/4k3/3p4/3P4/4K3/8/8 w - - 0 1",
+			"8/5pk1/6p1/7p/7P/6P1/5PK1/3R4 w - - 0 40",
+			"4r1k1/1q3ppp/p2p4/1p1Pp3/1P2P1b1/P2Q1N2/5PPP/2R3K1 b - - 3 26",
+			"r1b2rk1/2q1bppp/p2ppn2/1p6/3BPP2/2N2B2/PPPQ2PP/2KR3R w - - 2 14",
+			"3r2k1/p4ppp/1p6/2p5/2P1n3/1P2P1P1/P4P1P/3R2K1 b - - 0 25",
+	};
+
+	/**
+	 * The totals of one run over every position
+	 * @param nodes boards visited
+	 * @param timeMs time spent searching, in milliseconds
+	 */
+	record BenchResult(long nodes, long timeMs) {
+		/**
+		 * Boards visited per second of searching
+		 * @return the speed
+		 */
+		long nodesPerSecond() {
+			return nodes * 1000 / Math.max(1, timeMs);
+		}
+	}
+
+	/**
+	 * An evaluation sweep
+	 * @param boards boards evaluated
+	 * @param checksum the total of their evaluations
+	 * @param nanos time spent evaluating, not counting generating the boards, in nanoseconds
+	 */
+	record SweepResult(long boards, long checksum, long nanos) {
+		/**
+		 * Time spent on each board
+		 * @return nanoseconds per board
+		 */
+		double nanosPerBoard() {
+			return (double) nanos / Math.max(1, boards);
+		}
+	}
+
+	/**
+	 * Entry method for benchmarking
+	 * @param args options, see {@link Bench}
+	 * @throws IOException if the JSON can't be written
+	 */
+	public static void main(String[] args) throws IOException {
+		HashMap<String, String> options = SelfPlayMatch.parseOptions(args);
+		int depth = Integer.parseInt(options.getOrDefault("depth", "" + DEFAULT_DEPTH));
+		String mode = options.getOrDefault("mode", "both");
+		int sweepDepth = Integer.parseInt(options.getOrDefault("sweepDepth", "" + DEFAULT_SWEEP_DEPTH));
+		if (!List.of("single", "parallel", "both").contains(mode))
+			throw new IllegalArgumentException("Expected a mode of single, parallel or both, got " + mode);
+
+		LinkedHashMap<String, Object> json = new LinkedHashMap<>();
+		json.put("timestamp", Instant.now().toString());
+		json.put("java", System.getProperty("java.version"));
+		json.put("os", System.getProperty("os.name") + " " + System.getProperty("os.arch"));
+		json.put("cores", Runtime.getRuntime().availableProcessors());
+		json.put("depth", depth);
+		json.put("positions", POSITIONS.length);
+		for (String position : POSITIONS)
+			new MoveSearcher(false).search(new ChessBoard(position), new SearchLimits(Math.min(depth, WARMUP_DEPTH), 0, 0));
+		if (!mode.equals("parallel")) {
+			System.out.printf("Single-threaded, depth %d%n", depth);
+			BenchResult result = run(depth, false);
+			json.put("signature", result.nodes());
+			json.put("single", toJson(result));
+		}
+		if (!mode.equals("single")) {
+			System.out.printf("%nParallel on %d threads, depth %d%n", MoveSearcher.threadPool.getParallelism(), depth);
+			BenchResult result = run(depth, true);
+			LinkedHashMap<String, Object> parallel = toJson(result);
+			parallel.put("threads", MoveSearcher.threadPool.getParallelism());
+			json.put("parallel", parallel);
+		}
+		if (sweepDepth > 0) {
+			System.out.printf("%nEvaluation sweep, %d plies below each position%n", sweepDepth);
+			sweep(sweepDepth); // So the evaluation is compiled before it's timed
+			SweepResult sweep = sweep(sweepDepth);
+			System.out.printf("%d boards %.1f ns/board  checksum %d%n", sweep.boards(), sweep.nanosPerBoard(), sweep.checksum());
+			LinkedHashMap<String, Object> fields = new LinkedHashMap<>();
+			fields.put("depth", sweepDepth);
+			fields.put("boards", sweep.boards());
+			fields.put("checksum", sweep.checksum());
+			fields.put("nsPerBoard", Math.round(sweep.nanosPerBoard() * 10) / 10.0);
+			json.put("sweep", fields);
+		}
+		if (json.containsKey("signature"))
+			System.out.printf("%nSignature: %d%n", (long) json.get("signature"));
+
+		if (options.containsKey("json"))
+			new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writeValue(Path.of(options.get("json")).toFile(), json);
+		System.exit(0);
+	}
+
+	/**
+	 * Search every position and print how each went, then the totals
+	 * @param depth the depth to search to
+	 * @param parallel whether the searches use every thread of {@link MoveSearcher#threadPool}
+	 * @return the totals
+	 */
+	static BenchResult run(int depth, boolean parallel) {
+		List<SearchResult> results = new ArrayList<>();
+		long totalNanos = 0;
+		for (int i = 0; i < POSITIONS.length; i++) {
+			// Shared tables are emptied too, so nothing carries over from the last position or the last run
+			MoveSearcher.pawnHashTable.clear();
+			MoveSearcher.evaluationCache.clear();
+			MoveSearcher searcher = new MoveSearcher(parallel);
+			long start = System.nanoTime();
+			SearchResult result = searcher.search(new ChessBoard(POSITIONS[i]), new SearchLimits(depth, 0, 0));
+			long nanos = System.nanoTime() - start;
+			totalNanos += nanos;
+			results.add(result);
+			System.out.printf("%2d  %-5s %10d nodes %7d ms %10d nps  %s%n", i + 1, ChessUtilities.moveToUci(result.bestMove()),
+					result.nodes(), nanos / 1_000_000, result.nodes() * 1_000_000_000 / Math.max(1, nanos), POSITIONS[i]);
+		}
+		BenchResult total = new BenchResult(results.stream().mapToLong(SearchResult::nodes).sum(), totalNanos / 1_000_000);
+		System.out.printf("Nodes searched: %d%nTime: %d ms%nNodes/second: %d%n", total.nodes(), total.timeMs(),
+				total.nodesPerSecond());
+		return total;
+	}
+
+	/**
+	 * Evaluate every board some plies below each position, in batches
+	 * @param depth the plies below each position
+	 * @return the boards, their total evaluation, and the time spent evaluating
+	 */
+	static SweepResult sweep(int depth) {
+		Sweep sweep = new Sweep();
+		for (String position : POSITIONS)
+			sweep.collect(new ChessBoard(position), depth);
+		sweep.flush();
+		return new SweepResult(sweep.boards, sweep.checksum, sweep.nanos);
+	}
+
+	/**
+	 * An evaluation sweep in progress, which evaluates boards a batch at a time
+	 */
+	private static class Sweep {
+		final ChessBoard[] batch = new ChessBoard[SWEEP_BATCH];
+		final int[] values = new int[SWEEP_BATCH];
+		int count;
+		long boards, checksum, nanos;
+
+		/**
+		 * Add every board some plies below a board to the batch, evaluating it whenever it fills
+		 * @param board the board
+		 * @param depth the plies below it
+		 */
+		void collect(ChessBoard board, int depth) {
+			if (depth == 0) {
+				batch[count++] = board;
+				if (count == SWEEP_BATCH)
+					flush();
+				return;
+			}
+			for (Move move : board.generateMoves())
+				collect(new ChessBoard(board, move), depth - 1);
+		}
+
+		/**
+		 * Evaluate the boards in the batch and empty it
+		 */
+		void flush() {
+			long start = System.nanoTime();
+			for (int i = 0; i < count; i++)
+				values[i] = batch[i].calculateBoardValue();
+			nanos += System.nanoTime() - start;
+			for (int i = 0; i < count; i++)
+				checksum += values[i];
+			boards += count;
+			count = 0;
+		}
+	}
+
+	/**
+	 * The totals of a run, as a JSON object
+	 * @param result the totals
+	 * @return the object's fields
+	 */
+	private static LinkedHashMap<String, Object> toJson(BenchResult result) {
+		LinkedHashMap<String, Object> json = new LinkedHashMap<>();
+		json.put("nodes", result.nodes());
+		json.put("timeMs", result.timeMs());
+		json.put("nps", result.nodesPerSecond());
+		return json;
+	}
+}
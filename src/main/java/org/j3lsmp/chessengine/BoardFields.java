@@ -10,7 +10,8 @@ interface BoardFields {
 	/**
 	 * Various bitboard masks
 	 */
-	long RANK2 = 0x000000000000FF00l, RANK7 = 0x00FF000000000000l, FILEA = 0x0101010101010101l,
+	long RANK1 = 0x00000000000000FFl, RANK2 = 0x000000000000FF00l, RANK7 = 0x00FF000000000000l,
+			RANK8 = 0xFF00000000000000l, FILEA = 0x0101010101010101l,
 			FILEAB = 0x0303030303030303l, FILEGH = 0xC0C0C0C0C0C0C0C0l, FILEH = 0x8080808080808080l;
 
 	/**
@@ -30,6 +31,21 @@ interface BoardFields {
 	 * Bitboards of where a king could move from each board square
 	 */
 	long[] KING_MOVES = new long[64];
+
+	/**
+	 * Bitboards of the squares a pawn attacks from each board square, [0] for white pawns and [1] for black pawns
+	 */
+	long[][] PAWN_ATTACKS = new long[2][64];
+
+	/**
+	 * Bitboards of the squares strictly between two squares sharing a rank, file or diagonal, empty otherwise
+	 */
+	long[][] SQUARES_BETWEEN = new long[64][64];
+
+	/**
+	 * Bitboards of the whole line through two squares sharing a rank, file or diagonal, empty otherwise
+	 */
+	long[][] LINES = new long[64][64];
 	
 	/**
 	 * Values of each piece, used for board evaluation
@@ -149,7 +165,29 @@ interface BoardFields {
 		-30, -20, -10,   0,   0, -10, -20, -30,
 		-50, -40, -30, -20, -20, -30, -40, -50
 	};
-	
+
+	/**
+	 * Bonus for a passed pawn, indexed by how many ranks it has advanced from its own back rank (so index 6 is one step from promoting), used for board evaluation
+	 * @see <a href="https://www.chessprogramming.org/Passed_Pawn">Reference</a>
+	 */
+	int[] PASSED_PAWN_BONUS = {0, 5, 10, 20, 35, 60, 100, 0};
+
+	/**
+	 * Penalties for weak pawns, used for board evaluation. Indexed by {@link #ISOLATED_PAWN}, {@link #DOUBLED_PAWN} and {@link #BACKWARD_PAWN}
+	 * @see <a href="https://www.chessprogramming.org/Pawn_Structure">Reference</a>
+	 */
+	int[] PAWN_STRUCTURE_PENALTIES = {15, 10, 8};
+
+	/**
+	 * Indices into {@link #PAWN_STRUCTURE_PENALTIES}
+	 */
+	int ISOLATED_PAWN = 0, DOUBLED_PAWN = 1, BACKWARD_PAWN = 2;
+
+	/**
+	 * Letters for each piece type in Forsyth-Edwards Notation, in order of piece value 1-6. Upper case is used for white
+	 */
+	String FEN_PIECES = "pnbrqk";
+
 	//Hashes for zobrist hashing method
 	/**
 	 * Hashes for various aspects of the board for zobrist hashing method
@@ -0,0 +1,136 @@
+package org.j3lsmp.chessengine;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.BinaryWebSocketHandler;
+import org.springframework.web.socket.handler.ConcurrentWebSocketSessionDecorator;
+import org.springframework.web.socket.handler.SessionLimitExceededException;
+
+/**
+ * Pushes the game to clients over a WebSocket at `/ws/board`, so they needn't poll the api after every action. Every
+ * message is binary and starts with a type byte:
+ * 
+ * <ul>
+ * <li>{@link #POSITION}, followed by the board in {@link PositionCodec} form. Sent on connecting and whenever a move
+ * is made</li>
+ * <li>{@link #PROGRESS}, sent as the computer's search on the current board completes each depth: the depth as one
+ * byte, the score as an int, nodes searched as a long, milliseconds elapsed as an int, then the best move's origin and
+ * destination squares (0-63) as a byte each</li>
+ * </ul>
+ * 
+ * Multi-byte numbers are big-endian
+ * 
+ * @author Jaden
+ * @since 0.0.1
+ */
+@Component
+class BoardSocketHandler extends BinaryWebSocketHandler {
+	/**
+	 * Message types
+	 */
+	static final byte POSITION = 1, PROGRESS = 2;
+
+	/**
+	 * How long a send to a slow client may block, and how much may queue for it, before it is disconnected
+	 */
+	private static final int SEND_TIME_LIMIT_MS = 5000, SEND_BUFFER_BYTES = 64 * 1024;
+
+	/**
+	 * Connected clients, wrapped so messages from the api and the search threads can be sent to them at once
+	 */
+	private final Set<WebSocketSession> sessions = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * Creates the handler and starts forwarding the api engine's search progress
+	 */
+	BoardSocketHandler() {
+		MoveSearcher.engine.depthListener = this::searchProgress;
+	}
+
+	/**
+	 * Send a new client the current position
+	 * @param session the client
+	 */
+	@Override
+	public void afterConnectionEstablished(WebSocketSession session) {
+		WebSocketSession concurrentSession = new ConcurrentWebSocketSessionDecorator(session, SEND_TIME_LIMIT_MS, SEND_BUFFER_BYTES);
+		sessions.add(concurrentSession);
+		send(concurrentSession, positionMessage());
+	}
+
+	/**
+	 * Forget a disconnected client
+	 * @param session the client
+	 * @param status why it disconnected
+	 */
+	@Override
+	public void afterConnectionClosed(WebSocketSession session, CloseStatus status) {
+		sessions.removeIf(s -> s.getId().equals(session.getId()));
+	}
+
+	/**
+	 * Send every client the current position, after a move is made
+	 */
+	void broadcastPosition() {
+		if (!sessions.isEmpty())
+			broadcast(positionMessage());
+	}
+
+	/**
+	 * Send every client a search's progress, if it is searching the current board rather than pondering
+	 * @param board the board being searched
+	 * @param progress the search's result so far
+	 */
+	private void searchProgress(ChessBoard board, SearchResult progress) {
+		// Without the board's lock: ponder searches report here too, and whoever holds the lock may be waiting for one to stop
+		if (sessions.isEmpty() || board.computeZobristHash() != ChessEngineApplication.board.computeZobristHash())
+			return;
+		ByteBuffer buffer = ByteBuffer.allocate(1 + 1 + 4 + 8 + 4 + 2);
+		buffer.put(PROGRESS).put((byte) progress.depth()).putInt(progress.score()).putLong(progress.nodes())
+				.putInt((int) progress.timeMs()).put((byte) Long.numberOfTrailingZeros(progress.bestMove().from()))
+				.put((byte) Long.numberOfTrailingZeros(progress.bestMove().to()));
+		broadcast(new BinaryMessage(buffer.flip()));
+	}
+
+	/**
+	 * Build a position message for the current board
+	 * @return the message
+	 */
+	private static BinaryMessage positionMessage() {
+		ByteBuffer buffer = ByteBuffer.allocate(1 + PositionCodec.MAX_BYTES);
+		buffer.put(POSITION);
+		synchronized (ChessEngineApplication.board) {
+			PositionCodec.encode(ChessEngineApplication.board, buffer);
+		}
+		return new BinaryMessage(buffer.flip());
+	}
+
+	/**
+	 * Send a message to every client
+	 * @param message the message
+	 */
+	private void broadcast(BinaryMessage message) {
+		for (WebSocketSession session : sessions)
+			send(session, message);
+	}
+
+	/**
+	 * Send a message to one client, dropping the client if it can't be reached
+	 * @param session the client
+	 * @param message the message
+	 */
+	private void send(WebSocketSession session, BinaryMessage message) {
+		try {
+			session.sendMessage(message);
+		} catch (IOException | IllegalStateException | SessionLimitExceededException e) {
+			sessions.remove(session);
+		}
+	}
+}
@@ -1,5 +1,7 @@
 package org.j3lsmp.chessengine;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashSet;
 import java.util.Random;
 
@@ -18,24 +20,36 @@ public class ChessBoard implements BoardFields {
 	boolean isWhiteTurn;
 
 	/**
-	 * Bitboards for each piece type. Bits 0-63 represent each square of the board,
-	 * 0=a1, 7=h1, 56=a8, 63=h8
+	 * Bitboards for each piece type, of both colours. Bits 0-63 represent each
+	 * square of the board, 0=a1, 7=h1, 56=a8, 63=h8
 	 */
-	long whitePawns, blackPawns, whiteKnights, blackKnights, whiteBishops, blackBishops, whiteRooks, blackRooks,
-			whiteQueens, blackQueens, whiteKing, blackKing, whitePieces, blackPieces;
+	long pawns, knights, bishops, rooks, queens, kings;
+
+	/**
+	 * Bitboards of each player's pieces, which split the piece type bitboards by
+	 * colour, e.g. white's knights are knights &amp; whitePieces
+	 */
+	long whitePieces, blackPieces;
 
 	/**
 	 * 4-bit integer detailing who is allowed to castle and how 1st bit is white
 	 * kingside 2nd bit is white queenside 3rd bit is black kingside 4th bit is
 	 * black queenside
 	 */
-	int castlingRights; // TODO implement castling
+	int castlingRights;
 
 	/**
 	 * where, if anywhere, the current player can capture en passant. 0-7 to specify
 	 * file, otherwise -1
 	 */
-	int enPassantFile; // TODO implement en passant
+	int enPassantFile;
+
+	/**
+	 * The neural network evaluation's accumulators for this board, or null to use the hand-written evaluation. Set on
+	 * a search's root board by {@link MoveSearcher#attachNetwork(ChessBoard)}, and carried on to every board made from
+	 * it
+	 */
+	NnueAccumulator accumulator;
 
 	/**
 	 * Initialize various fields from {@link BoardFields}
@@ -53,7 +67,12 @@ public class ChessBoard implements BoardFields {
 			RAYS_SOUTHEAST[i] = computeRaySouthEast(i);
 			RAYS_SOUTHWEST[i] = computeRaySouthWest(i);
 			KING_MOVES[i] = computeKingMoves(pos);
+			PAWN_ATTACKS[0][i] = ((pos & ~FILEA) << 7) | ((pos & ~FILEH) << 9);
+			PAWN_ATTACKS[1][i] = ((pos & ~FILEA) >>> 9) | ((pos & ~FILEH) >>> 7);
 		}
+		for (int from = 0; from < 64; from++)
+			for (int to = 0; to < 64; to++)
+				computeLine(from, to);
 
 		Random random = new Random(199923);
 		for (int piece = 0; piece < 12; piece++)
@@ -223,6 +242,27 @@ public class ChessBoard implements BoardFields {
 		return ray;
 	}
 
+	/**
+	 * Fills in {@link BoardFields#SQUARES_BETWEEN} and {@link BoardFields#LINES}
+	 * for a pair of squares, if they share a rank, file or diagonal
+	 * 
+	 * @param from the first square, an integer 0-63
+	 * @param to   the second square, an integer 0-63
+	 */
+	private static void computeLine(int from, int to) {
+		long toBit = 1l << to;
+		long[][][] directions = { { RAYS_NORTH, RAYS_SOUTH }, { RAYS_EAST, RAYS_WEST },
+				{ RAYS_NORTHEAST, RAYS_SOUTHWEST }, { RAYS_NORTHWEST, RAYS_SOUTHEAST } };
+		for (long[][] axis : directions) {
+			for (int side = 0; side < 2; side++) {
+				if ((axis[side][from] & toBit) != 0) {
+					SQUARES_BETWEEN[from][to] = axis[side][from] & axis[1 - side][to];
+					LINES[from][to] = axis[0][from] | axis[1][from] | (1l << from);
+				}
+			}
+		}
+	}
+
 	/**
 	 * Creates a bitboard mask of where a king could move from the given location
 	 * 
@@ -248,23 +288,20 @@ public class ChessBoard implements BoardFields {
 	void resetBoard() {
 		isWhiteTurn = true;
 
-		whitePawns = 0x000000000000FF00l;
-		blackPawns = 0x00FF000000000000l;
-		whiteKnights = 0x0000000000000042l;
-		blackKnights = 0x4200000000000000l;
-		whiteBishops = 0x0000000000000024l;
-		blackBishops = 0x2400000000000000l;
-		whiteRooks = 0x0000000000000081l;
-		blackRooks = 0x8100000000000000l;
-		whiteQueens = 0x0000000000000008l;
-		blackQueens = 0x0800000000000000l;
-		whiteKing = 0x0000000000000010l;
-		blackKing = 0x1000000000000000l;
+		pawns = 0x00FF00000000FF00l;
+		knights = 0x4200000000000042l;
+		bishops = 0x2400000000000024l;
+		rooks = 0x8100000000000081l;
+		queens = 0x0800000000000008l;
+		kings = 0x1000000000000010l;
 		whitePieces = 0x000000000000FFFFl;
 		blackPieces = 0xFFFF000000000000l;
 
 		castlingRights = 15; // binary 1111
 		enPassantFile = -1; // no en passant
+
+		if (accumulator != null)
+			accumulator = new NnueAccumulator(accumulator.network, this);
 	}
 
 	/**
@@ -274,18 +311,12 @@ public class ChessBoard implements BoardFields {
 	 * @param move     the move to perform on the copy
 	 */
 	ChessBoard(ChessBoard oldBoard, Move move) {
-		this.whitePawns = oldBoard.whitePawns;
-		this.blackPawns = oldBoard.blackPawns;
-		this.whiteKnights = oldBoard.whiteKnights;
-		this.blackKnights = oldBoard.blackKnights;
-		this.whiteBishops = oldBoard.whiteBishops;
-		this.blackBishops = oldBoard.blackBishops;
-		this.whiteRooks = oldBoard.whiteRooks;
-		this.blackRooks = oldBoard.blackRooks;
-		this.whiteQueens = oldBoard.whiteQueens;
-		this.blackQueens = oldBoard.blackQueens;
-		this.whiteKing = oldBoard.whiteKing;
-		this.blackKing = oldBoard.blackKing;
+		this.pawns = oldBoard.pawns;
+		this.knights = oldBoard.knights;
+		this.bishops = oldBoard.bishops;
+		this.rooks = oldBoard.rooks;
+		this.queens = oldBoard.queens;
+		this.kings = oldBoard.kings;
 		this.whitePieces = oldBoard.whitePieces;
 		this.blackPieces = oldBoard.blackPieces;
 
@@ -294,6 +325,8 @@ public class ChessBoard implements BoardFields {
 		this.isWhiteTurn = oldBoard.isWhiteTurn;
 
 		this.performMove(move);
+		if (oldBoard.accumulator != null)
+			this.accumulator = new NnueAccumulator(oldBoard.accumulator, oldBoard, this);
 	}
 
 	/**
@@ -304,321 +337,439 @@ public class ChessBoard implements BoardFields {
 	}
 
 	/**
-	 * Generates a HashSet of all moves that can be taken from the current board
-	 * state
+	 * Creates a board from a position in Forsyth-Edwards Notation. The halfmove
+	 * clock and move number, if present, are ignored
 	 * 
-	 * @return a HashSet of all legal moves
+	 * @param fen the position, like
+	 *            "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1"
+	 * @throws IllegalArgumentException if the position can't be read
+	 * @see <a href="https://www.chessprogramming.org/Forsyth-Edwards_Notation">Reference</a>
 	 */
-	public HashSet<Move> generateMoves() {
-		HashSet<Move> moves = new HashSet<>();
-
-		long opponentPieces = isWhiteTurn ? blackPieces : whitePieces;
-		long emptySquares = ~(whitePieces | blackPieces);
-
-		long pawns = isWhiteTurn ? whitePawns : blackPawns;
-		generatePawnMoves(moves, pawns, emptySquares, opponentPieces, isWhiteTurn);
-
-		long knights = isWhiteTurn ? whiteKnights : blackKnights;
-		generateKnightMoves(moves, knights, emptySquares, opponentPieces, isWhiteTurn);
+	ChessBoard(String fen) {
+		this();
+		String[] fields = fen.trim().split("\\s+");
+		if (fields.length < 2)
+			throw new IllegalArgumentException("Not a FEN position: " + fen);
+
+		int rank = 7, file = 0;
+		for (char c : fields[0].toCharArray()) {
+			if (c == '/') {
+				rank--;
+				file = 0;
+			} else if (Character.isDigit(c)) {
+				file += c - '0';
+			} else {
+				int type = FEN_PIECES.indexOf(Character.toLowerCase(c)) + 1;
+				if (type == 0 || rank < 0 || file > 7)
+					throw new IllegalArgumentException("Not a FEN position: " + fen);
+				togglePiece((byte) (Character.isUpperCase(c) ? type : -type), 1l << (rank * 8 + file));
+				file++;
+			}
+		}
 
-		long bishops = isWhiteTurn ? whiteBishops : blackBishops;
-		generateSlidingMoves(moves, bishops, emptySquares, opponentPieces, false, true, isWhiteTurn, (byte) 3);
+		isWhiteTurn = fields[1].equals("w");
 
-		long rooks = isWhiteTurn ? whiteRooks : blackRooks;
-		generateSlidingMoves(moves, rooks, emptySquares, opponentPieces, true, false, isWhiteTurn, (byte) 4);
+		castlingRights = 0;
+		if (fields.length > 2)
+			for (char c : fields[2].toCharArray())
+				castlingRights |= switch (c) {
+				case 'K' -> 1;
+				case 'Q' -> 2;
+				case 'k' -> 4;
+				case 'q' -> 8;
+				default -> 0;
+				};
 
-		long queens = isWhiteTurn ? whiteQueens : blackQueens;
-		generateSlidingMoves(moves, queens, emptySquares, opponentPieces, true, true, isWhiteTurn, (byte) 5);
+		enPassantFile = fields.length > 3 && !fields[3].equals("-") ? fields[3].charAt(0) - 'a' : -1;
+	}
 
-		long king = isWhiteTurn ? whiteKing : blackKing;
-		generateKingMoves(moves, king, emptySquares, opponentPieces, isWhiteTurn);
+	/**
+	 * Writes the board in Forsyth-Edwards Notation
+	 * 
+	 * @return the position as a FEN string, with the halfmove clock and move number
+	 *         always "0 1"
+	 */
+	String toFen() {
+		StringBuilder fen = new StringBuilder();
+		byte[][] array = boardAsArray();
+		for (int rank = 7; rank >= 0; rank--) {
+			int empty = 0;
+			for (int file = 0; file < 8; file++) {
+				byte piece = array[rank][file];
+				if (piece == 0) {
+					empty++;
+					continue;
+				}
+				if (empty > 0)
+					fen.append(empty);
+				empty = 0;
+				char c = FEN_PIECES.charAt(Math.abs(piece) - 1);
+				fen.append(piece > 0 ? Character.toUpperCase(c) : c);
+			}
+			if (empty > 0)
+				fen.append(empty);
+			if (rank > 0)
+				fen.append('/');
+		}
+		fen.append(isWhiteTurn ? " w " : " b ");
+		if (castlingRights == 0)
+			fen.append('-');
+		for (int i = 0; i < 4; i++)
+			if ((castlingRights & (1 << i)) != 0)
+				fen.append("KQkq".charAt(i));
+		fen.append(' ');
+		if (enPassantFile == -1)
+			fen.append('-');
+		else
+			fen.append((char) ('a' + enPassantFile)).append(isWhiteTurn ? '6' : '3');
+		return fen.append(" 0 1").toString();
+	}
 
+	/**
+	 * Generates a HashSet of all legal moves that can be taken from the current
+	 * board state
+	 * 
+	 * @return a HashSet of all legal moves
+	 */
+	public HashSet<Move> generateMoves() {
+		HashSet<Move> moves = new HashSet<>();
+		generateMoves(moves, ~0l, ~0l);
 		return moves;
-
-		// TODO: disallow moves as to do with check
 	}
 
 	/**
-	 * Computes all legal moves with pawns
+	 * Generates the legal moves from the current board state that start on a
+	 * square in fromMask and end on a square in targetMask. Checkers, pinned pieces
+	 * and the squares that would resolve a check are computed once up front, so
+	 * every move is emitted already known to be legal, without having to perform it
+	 * and test for check afterwards
 	 * 
-	 * @param moves          the set to add the moves to
-	 * @param pawns          locations of all pawns of the active player
-	 * @param emptySquares   empty squares on the board
-	 * @param opponentPieces locations of opponents pieces
-	 * @param isWhite        whether white is moving
+	 * @param moves      the collection to add the moves to
+	 * @param fromMask   bitboard of the squares moves may start from
+	 * @param targetMask bitboard of the squares moves may end on
 	 */
-	private static void generatePawnMoves(HashSet<Move> moves, long pawns, long emptySquares, long opponentPieces,
-			boolean isWhite) {
-		while (pawns != 0) {
-			int sourceSquare = Long.numberOfTrailingZeros(pawns);
-			long sourceBit = 1L << sourceSquare;
-			byte value = (byte) (isWhite ? 1 : -1);
-
-			// Move 1 square
-			long destination = isWhite ? (sourceBit << 8) : (sourceBit >>> 8);
-			if ((destination & emptySquares) != 0) {
-				moves.add(new Move(sourceBit, destination, value));
-			}
+	void generateMoves(Collection<Move> moves, long fromMask, long targetMask) {
+		boolean isWhite = isWhiteTurn;
+		long ownPieces = isWhite ? whitePieces : blackPieces;
+		long opponentPieces = isWhite ? blackPieces : whitePieces;
+		long occupied = ownPieces | opponentPieces;
+		long king = kings & ownPieces;
+		if (king == 0) // Only reachable on boards set up through the api without a king
+			return;
+		int kingSquare = Long.numberOfTrailingZeros(king);
+		long checkers = attackersTo(kingSquare, occupied, !isWhite);
 
-			// Move 2 squares if on rank 2/7
-			if (isWhite && (sourceBit & RANK2) != 0) {
-				long doubleMove = destination << 8;
-				if ((doubleMove & emptySquares) != 0 && (destination & emptySquares) != 0)
-					moves.add(new Move(sourceBit, doubleMove, value));
-			} else if (!isWhite && (sourceBit & RANK7) != 0) {
-				long doubleMove = destination >>> 8;
-				if ((doubleMove & emptySquares) != 0 && (destination & emptySquares) != 0)
-					moves.add(new Move(sourceBit, doubleMove, value));
-			}
+		if ((king & fromMask) != 0)
+			generateKingMoves(moves, kingSquare, ownPieces, occupied, checkers, targetMask, isWhite);
 
-			// Capture diagonally
-			long leftCapture = isWhite ? (sourceBit << 7) : (sourceBit >>> 9),
-					rightCapture = isWhite ? (sourceBit << 9) : (sourceBit >>> 7);
+		if (Long.bitCount(checkers) > 1) // Double check, only the king can move
+			return;
 
-			if ((leftCapture & opponentPieces) != 0 && (sourceBit & FILEA) == 0)
-				moves.add(new Move(sourceBit, leftCapture, value));
-			if ((rightCapture & opponentPieces) != 0 && (sourceBit & FILEH) == 0)
-				moves.add(new Move(sourceBit, rightCapture, value));
+		// Squares a piece other than the king may move to: anywhere if not in check,
+		// otherwise capturing the checker or blocking its line
+		long evasionMask = checkers == 0 ? ~0l
+				: checkers | SQUARES_BETWEEN[kingSquare][Long.numberOfTrailingZeros(checkers)];
+		long legalTargets = ~ownPieces & evasionMask & targetMask;
+		long pinned = pinnedPieces(kingSquare, ownPieces, opponentPieces);
+
+		generatePawnMoves(moves, pawns & ownPieces & fromMask, kingSquare, occupied, opponentPieces,
+				pinned, evasionMask, targetMask, isWhite);
+
+		long ownKnights = knights & ownPieces & fromMask & ~pinned; // A pinned knight can never move
+		while (ownKnights != 0) {
+			int sourceSquare = Long.numberOfTrailingZeros(ownKnights);
+			addMoves(moves, sourceSquare, KNIGHT_MOVES[sourceSquare] & legalTargets, (byte) (isWhite ? 2 : -2));
+			ownKnights &= ownKnights - 1;
+		}
+
+		generateSlidingMoves(moves, bishops & ownPieces & fromMask, kingSquare, occupied, pinned, legalTargets,
+				(byte) (isWhite ? 3 : -3));
+		generateSlidingMoves(moves, rooks & ownPieces & fromMask, kingSquare, occupied, pinned, legalTargets,
+				(byte) (isWhite ? 4 : -4));
+		generateSlidingMoves(moves, queens & ownPieces & fromMask, kingSquare, occupied, pinned, legalTargets,
+				(byte) (isWhite ? 5 : -5));
+	}
 
-			pawns &= ~sourceBit;
+	/**
+	 * Adds a move from the source square to each square in targets
+	 * 
+	 * @param moves        the collection to add the moves to
+	 * @param sourceSquare the origin of the moves, 0-63
+	 * @param targets      bitboard of destinations
+	 * @param piece        the signed piece type being moved
+	 */
+	private static void addMoves(Collection<Move> moves, int sourceSquare, long targets, byte piece) {
+		long sourceBit = 1l << sourceSquare;
+		while (targets != 0) {
+			moves.add(new Move(sourceBit, Long.lowestOneBit(targets), piece));
+			targets &= targets - 1;
 		}
 	}
 
 	/**
-	 * Computes all legal moves with knights
+	 * Computes all legal moves with pawns, including double pushes, en passant
+	 * captures and promotions to each piece type
 	 * 
-	 * @param moves          the set to add the moves to
-	 * @param knights        locations of all knights of the active player
-	 * @param emptySquares   empty squares on the board
+	 * @param moves          the collection to add the moves to
+	 * @param ownPawns       locations of the pawns of the active player to move
+	 * @param kingSquare     the square of the active player's king
+	 * @param occupied       all occupied squares
 	 * @param opponentPieces locations of opponents pieces
+	 * @param pinned         pieces of the active player pinned to their king
+	 * @param evasionMask    squares that resolve a check, every square if not in
+	 *                       check
+	 * @param targetMask     squares moves may end on
 	 * @param isWhite        whether white is moving
 	 */
-	private static void generateKnightMoves(HashSet<Move> moves, long knights, long emptySquares, long opponentPieces,
-			boolean isWhite) {
-		while (knights != 0) {
-			int sourceSquare = Long.numberOfTrailingZeros(knights);
-			long sourceBit = 1L << sourceSquare;
-
-			long possibleMoves = KNIGHT_MOVES[sourceSquare] & (emptySquares | opponentPieces);
-			while (possibleMoves != 0) {
-				int destinationSquare = Long.numberOfTrailingZeros(possibleMoves);
-				long destinationBit = 1l << destinationSquare;
-				moves.add(new Move(sourceBit, destinationBit, (byte) (isWhite ? 2 : -2)));
+	private void generatePawnMoves(Collection<Move> moves, long ownPawns, int kingSquare, long occupied,
+			long opponentPieces, long pinned, long evasionMask, long targetMask, boolean isWhite) {
+		byte value = (byte) (isWhite ? 1 : -1);
+		long emptySquares = ~occupied;
+		long enPassantBit = enPassantSquare();
+
+		while (ownPawns != 0) {
+			int sourceSquare = Long.numberOfTrailingZeros(ownPawns);
+			long sourceBit = 1l << sourceSquare;
+			long allowed = evasionMask & targetMask;
+			if ((pinned & sourceBit) != 0)
+				allowed &= LINES[kingSquare][sourceSquare];
+
+			long push = (isWhite ? sourceBit << 8 : sourceBit >>> 8) & emptySquares;
+			long targets = push;
+			if (push != 0 && (sourceBit & (isWhite ? RANK2 : RANK7)) != 0)
+				targets |= (isWhite ? push << 8 : push >>> 8) & emptySquares;
+			targets |= PAWN_ATTACKS[isWhite ? 0 : 1][sourceSquare] & opponentPieces;
+			targets &= allowed;
+
+			while (targets != 0) {
+				long destinationBit = Long.lowestOneBit(targets);
+				if ((destinationBit & (RANK1 | RANK8)) != 0)
+					for (byte promotion = 5; promotion >= 2; promotion--)
+						moves.add(new Move(sourceBit, destinationBit, value, (byte) (isWhite ? promotion : -promotion)));
+				else
+					moves.add(new Move(sourceBit, destinationBit, value));
+				targets &= targets - 1;
+			}
 
-				possibleMoves &= ~destinationBit;
+			if ((PAWN_ATTACKS[isWhite ? 0 : 1][sourceSquare] & enPassantBit & targetMask) != 0) {
+				long capturedBit = isWhite ? enPassantBit >>> 8 : enPassantBit << 8;
+				// The capture has to resolve any check, and removing both pawns from the rank
+				// mustn't expose the king to a slider
+				if (((enPassantBit | capturedBit) & evasionMask) != 0) {
+					long after = occupied ^ sourceBit ^ capturedBit ^ enPassantBit;
+					long rookLikes = (rooks | queens) & opponentPieces;
+					long bishopLikes = (bishops | queens) & opponentPieces;
+					if ((rookAttacks(kingSquare, after) & rookLikes) == 0
+							&& (bishopAttacks(kingSquare, after) & bishopLikes) == 0)
+						moves.add(new Move(sourceBit, enPassantBit, value));
+				}
 			}
 
-			knights &= ~sourceBit;
+			ownPawns &= ownPawns - 1;
 		}
 	}
 
 	/**
 	 * Computes all legal moves for sliding pieces - rooks, bishops, queens
 	 * 
-	 * @param moves          the set to add the moves to
-	 * @param pieces         locations of the relevant pieces of the active player
-	 * @param emptySquares   empty squares on the board
-	 * @param opponentPieces locations of opponents pieces
-	 * @param rookMoves      whether the piece can move like a rook (true for rooks,
-	 *                       queens)
-	 * @param bishopMoves    whether the piece can move like a bishop (true for
-	 *                       bishops, queens)
-	 * @param isWhite        whether white is moving
-	 * @param value          the value of the piece, 3=bishop, 4=rook, 5=queen
+	 * @param moves        the collection to add the moves to
+	 * @param pieces       locations of the relevant pieces of the active player
+	 * @param kingSquare   the square of the active player's king
+	 * @param occupied     all occupied squares
+	 * @param pinned       pieces of the active player pinned to their king
+	 * @param legalTargets squares the pieces may move to, excluding own pieces and
+	 *                     respecting check
+	 * @param value        the signed value of the piece, 3=bishop, 4=rook, 5=queen
 	 */
-	private static void generateSlidingMoves(HashSet<Move> moves, long pieces, long emptySquares, long opponentPieces,
-			boolean rookMoves, boolean bishopMoves, boolean isWhite, byte value) {
+	private static void generateSlidingMoves(Collection<Move> moves, long pieces, int kingSquare, long occupied,
+			long pinned, long legalTargets, byte value) {
+		int type = Math.abs(value);
 		while (pieces != 0) {
 			int sourceSquare = Long.numberOfTrailingZeros(pieces);
-			long sourceBit = 1l << sourceSquare;
-			byte signedPieceValue = (byte) (isWhite ? value : -value);
-
-			if (rookMoves) {
-				// NORTH
-				long northMask = RAYS_NORTH[sourceSquare];
-				long potentialNorthMoves = northMask & (emptySquares | opponentPieces);
-				while (potentialNorthMoves != 0) {
-					long targetBit = Long.lowestOneBit(potentialNorthMoves);
-					long confirmBit = Long.lowestOneBit(northMask); // Make sure our own piece isn't in the way
-
-					if (targetBit == confirmBit) // Don't take own piece
-						moves.add(new Move(sourceBit, targetBit, signedPieceValue));
-					else
-						break;
-
-					if ((opponentPieces & targetBit) != 0)
-						break;
-
-					northMask &= ~targetBit;
-					potentialNorthMoves &= ~targetBit;
-				}
-
-				// SOUTH
-				long southMask = RAYS_SOUTH[sourceSquare];
-				long potentialSouthMoves = southMask & (emptySquares | opponentPieces);
-				while (potentialSouthMoves != 0) {
-					long targetBit = Long.highestOneBit(potentialSouthMoves);
-					long confirmBit = Long.highestOneBit(southMask);
-
-					if (targetBit == confirmBit)
-						moves.add(new Move(sourceBit, targetBit, signedPieceValue));
-					else
-						break;
-
-					if ((opponentPieces & targetBit) != 0)
-						break;
-
-					southMask &= ~targetBit;
-					potentialSouthMoves &= ~targetBit;
-				}
-
-				// EAST
-				long eastMask = RAYS_EAST[sourceSquare];
-				long potentialEastMoves = eastMask & (emptySquares | opponentPieces);
-				while (potentialEastMoves != 0) {
-					long targetBit = Long.lowestOneBit(potentialEastMoves);
-					long confirmBit = Long.lowestOneBit(eastMask);
-
-					if (targetBit == confirmBit)
-						moves.add(new Move(sourceBit, targetBit, signedPieceValue));
-					else
-						break;
-
-					if ((opponentPieces & targetBit) != 0)
-						break;
-
-					eastMask &= ~targetBit;
-					potentialEastMoves &= ~targetBit;
-				}
-
-				// WEST
-
-				long westMask = RAYS_WEST[sourceSquare];
-				long potentialWestMoves = westMask & (emptySquares | opponentPieces);
-				while (potentialWestMoves != 0) {
-					long targetBit = Long.highestOneBit(potentialWestMoves);
-					long confirmBit = Long.highestOneBit(westMask);
-
-					if (targetBit == confirmBit)
-						moves.add(new Move(sourceBit, targetBit, signedPieceValue));
-					else
-						break;
-
-					if ((opponentPieces & targetBit) != 0)
-						break;
-
-					westMask &= ~targetBit;
-					potentialWestMoves &= ~targetBit;
-				}
-			}
-
-			if (bishopMoves) {
-				// NW
-				long northWestMask = RAYS_NORTHWEST[sourceSquare];
-				long potentialNorthWestMoves = northWestMask & (emptySquares | opponentPieces);
-				while (potentialNorthWestMoves != 0) {
-					long targetBit = Long.lowestOneBit(potentialNorthWestMoves);
-					long confirmBit = Long.lowestOneBit(northWestMask);
-
-					if (targetBit == confirmBit)
-						moves.add(new Move(sourceBit, targetBit, signedPieceValue));
-					else
-						break;
-
-					if ((opponentPieces & targetBit) != 0)
-						break;
-
-					northWestMask &= ~targetBit;
-					potentialNorthWestMoves &= ~targetBit;
-				}
-
-				// NE
-				long northEastMask = RAYS_NORTHEAST[sourceSquare];
-				long potentialNorthEastMoves = northEastMask & (emptySquares | opponentPieces);
-				while (potentialNorthEastMoves != 0) {
-					long targetBit = Long.lowestOneBit(potentialNorthEastMoves);
-					long confirmBit = Long.lowestOneBit(northEastMask);
-
-					if (targetBit == confirmBit)
-						moves.add(new Move(sourceBit, targetBit, signedPieceValue));
-					else
-						break;
-
-					if ((opponentPieces & targetBit) != 0)
-						break;
-
-					northEastMask &= ~targetBit;
-					potentialNorthEastMoves &= ~targetBit;
-				}
+			long attacks = 0l;
+			if (type != 4)
+				attacks |= bishopAttacks(sourceSquare, occupied);
+			if (type != 3)
+				attacks |= rookAttacks(sourceSquare, occupied);
+			long targets = attacks & legalTargets;
+			if ((pinned & (1l << sourceSquare)) != 0)
+				targets &= LINES[kingSquare][sourceSquare];
+			addMoves(moves, sourceSquare, targets, value);
+			pieces &= pieces - 1;
+		}
+	}
 
-				// SW
-				long southWestMask = RAYS_SOUTHWEST[sourceSquare];
-				long potentialSouthWestMoves = southWestMask & (emptySquares | opponentPieces);
-				while (potentialSouthWestMoves != 0) {
-					long targetBit = Long.highestOneBit(potentialSouthWestMoves);
-					long confirmBit = Long.highestOneBit(southWestMask);
+	/**
+	 * Computes all legal moves with king, including castling
+	 * 
+	 * @param moves      the collection to add the moves to
+	 * @param kingSquare the square of the king of the active player
+	 * @param ownPieces  locations of the active player's pieces
+	 * @param occupied   all occupied squares
+	 * @param checkers   opponent pieces giving check
+	 * @param targetMask squares moves may end on
+	 * @param isWhite    whether white is moving
+	 */
+	private void generateKingMoves(Collection<Move> moves, int kingSquare, long ownPieces, long occupied,
+			long checkers, long targetMask, boolean isWhite) {
+		long sourceBit = 1l << kingSquare;
+		byte value = (byte) (isWhite ? 6 : -6);
+		long withoutKing = occupied ^ sourceBit; // So the king can't hide behind itself along a checking line
 
-					if (targetBit == confirmBit)
-						moves.add(new Move(sourceBit, targetBit, signedPieceValue));
-					else
-						break;
+		long possibleMoves = KING_MOVES[kingSquare] & ~ownPieces & targetMask;
+		while (possibleMoves != 0) {
+			int destinationSquare = Long.numberOfTrailingZeros(possibleMoves);
+			if (attackersTo(destinationSquare, withoutKing, !isWhite) == 0)
+				moves.add(new Move(sourceBit, 1l << destinationSquare, value));
+			possibleMoves &= possibleMoves - 1;
+		}
 
-					if ((opponentPieces & targetBit) != 0)
-						break;
+		if (checkers != 0)
+			return;
+		int kingside = isWhite ? 1 : 4, queenside = isWhite ? 2 : 8;
+		long ownRooks = rooks & ownPieces;
+		if ((castlingRights & kingside) != 0 && (ownRooks & (sourceBit << 3)) != 0
+				&& (occupied & (sourceBit << 1 | sourceBit << 2)) == 0 && ((sourceBit << 2) & targetMask) != 0
+				&& attackersTo(kingSquare + 1, occupied, !isWhite) == 0
+				&& attackersTo(kingSquare + 2, occupied, !isWhite) == 0)
+			moves.add(new Move(sourceBit, sourceBit << 2, value));
+		if ((castlingRights & queenside) != 0 && (ownRooks & (sourceBit >>> 4)) != 0
+				&& (occupied & (sourceBit >>> 1 | sourceBit >>> 2 | sourceBit >>> 3)) == 0
+				&& ((sourceBit >>> 2) & targetMask) != 0 && attackersTo(kingSquare - 1, occupied, !isWhite) == 0
+				&& attackersTo(kingSquare - 2, occupied, !isWhite) == 0)
+			moves.add(new Move(sourceBit, sourceBit >>> 2, value));
+	}
 
-					southWestMask &= ~targetBit;
-					potentialSouthWestMoves &= ~targetBit;
-				}
+	/**
+	 * Finds the pieces of the active player that are pinned to their king, that is
+	 * the only piece between it and an opposing slider
+	 * 
+	 * @param kingSquare     the square of the active player's king
+	 * @param ownPieces      locations of the active player's pieces
+	 * @param opponentPieces locations of opponents pieces
+	 * @return bitboard of pinned pieces
+	 */
+	private long pinnedPieces(int kingSquare, long ownPieces, long opponentPieces) {
+		long rookLikes = (rooks | queens) & opponentPieces;
+		long bishopLikes = (bishops | queens) & opponentPieces;
+		// Sliders that would see the king if only opposing pieces blocked them
+		long snipers = (rookAttacks(kingSquare, opponentPieces) & rookLikes)
+				| (bishopAttacks(kingSquare, opponentPieces) & bishopLikes);
+		long pinned = 0l;
+		long occupied = ownPieces | opponentPieces;
+		while (snipers != 0) {
+			long between = SQUARES_BETWEEN[kingSquare][Long.numberOfTrailingZeros(snipers)] & occupied;
+			if (Long.bitCount(between) == 1)
+				pinned |= between & ownPieces;
+			snipers &= snipers - 1;
+		}
+		return pinned;
+	}
 
-				// SE
-				long southEastMask = RAYS_SOUTHEAST[sourceSquare];
-				long potentialSouthEastMoves = southEastMask & (emptySquares | opponentPieces);
-				while (potentialSouthEastMoves != 0) {
-					long targetBit = Long.highestOneBit(potentialSouthEastMoves);
-					long confirmBit = Long.highestOneBit(southEastMask);
+	/**
+	 * Finds every piece of one player attacking a square
+	 * 
+	 * @param square   the square, 0-63
+	 * @param occupied all occupied squares, used to block sliding pieces
+	 * @param byWhite  whether to find white's attackers or black's
+	 * @return bitboard of the attacking pieces
+	 */
+	long attackersTo(int square, long occupied, boolean byWhite) {
+		return ((PAWN_ATTACKS[byWhite ? 1 : 0][square] & pawns) | (KNIGHT_MOVES[square] & knights)
+				| (KING_MOVES[square] & kings) | (bishopAttacks(square, occupied) & (bishops | queens))
+				| (rookAttacks(square, occupied) & (rooks | queens))) & (byWhite ? whitePieces : blackPieces);
+	}
 
-					if (targetBit == confirmBit)
-						moves.add(new Move(sourceBit, targetBit, signedPieceValue));
-					else
-						break;
+	/**
+	 * Whether the player to move is in check
+	 * 
+	 * @return true if the active player's king is attacked
+	 */
+	boolean isInCheck() {
+		long king = kings & (isWhiteTurn ? whitePieces : blackPieces);
+		return king != 0 && attackersTo(Long.numberOfTrailingZeros(king), whitePieces | blackPieces, !isWhiteTurn) != 0;
+	}
 
-					if ((opponentPieces & targetBit) != 0)
-						break;
+	/**
+	 * Computes the squares a rook on the given square attacks, stopping each ray at
+	 * the first occupied square
+	 * 
+	 * @param square   the square, 0-63
+	 * @param occupied all occupied squares
+	 * @return bitboard of attacked squares
+	 */
+	static long rookAttacks(int square, long occupied) {
+		return positiveRayAttacks(RAYS_NORTH, square, occupied) | positiveRayAttacks(RAYS_EAST, square, occupied)
+				| negativeRayAttacks(RAYS_SOUTH, square, occupied) | negativeRayAttacks(RAYS_WEST, square, occupied);
+	}
 
-					southEastMask &= ~targetBit;
-					potentialSouthEastMoves &= ~targetBit;
-				}
-			}
+	/**
+	 * Computes the squares a bishop on the given square attacks, stopping each ray
+	 * at the first occupied square
+	 * 
+	 * @param square   the square, 0-63
+	 * @param occupied all occupied squares
+	 * @return bitboard of attacked squares
+	 */
+	static long bishopAttacks(int square, long occupied) {
+		return positiveRayAttacks(RAYS_NORTHEAST, square, occupied)
+				| positiveRayAttacks(RAYS_NORTHWEST, square, occupied)
+				| negativeRayAttacks(RAYS_SOUTHEAST, square, occupied)
+				| negativeRayAttacks(RAYS_SOUTHWEST, square, occupied);
+	}
 
-			pieces &= ~sourceBit;
-		}
+	/**
+	 * Attacks along a ray towards higher square numbers, cut off behind the first
+	 * blocker
+	 * 
+	 * @param rays     the ray table for the direction
+	 * @param square   the origin, 0-63
+	 * @param occupied all occupied squares
+	 * @return bitboard of attacked squares
+	 */
+	private static long positiveRayAttacks(long[] rays, int square, long occupied) {
+		long attacks = rays[square];
+		long blockers = attacks & occupied;
+		if (blockers != 0)
+			attacks ^= rays[Long.numberOfTrailingZeros(blockers)];
+		return attacks;
 	}
 
 	/**
-	 * Computes all legal moves with king
+	 * Attacks along a ray towards lower square numbers, cut off behind the first
+	 * blocker
 	 * 
-	 * @param moves          the set to add the moves to
-	 * @param king           the location of the king of the active player
-	 * @param emptySquares   empty squares on the board
-	 * @param opponentPieces locations of opponents pieces
-	 * @param isWhite        whether white is moving
+	 * @param rays     the ray table for the direction
+	 * @param square   the origin, 0-63
+	 * @param occupied all occupied squares
+	 * @return bitboard of attacked squares
 	 */
-	private static void generateKingMoves(HashSet<Move> moves, long king, long emptySquares, long opponentPieces,
-			boolean isWhite) {
-		int sourceSquare = Long.numberOfTrailingZeros(king);
-		long sourceBit = 1l << sourceSquare; // This should just be king but for consistency and just in case, we
-												// redefine it
-		if (sourceSquare == 64) //TODO remove when determine win/check/mate is implemented, but for now we need it.
-			return;
-		
-		long possibleMoves = KING_MOVES[sourceSquare] & (emptySquares | opponentPieces);
-		while (possibleMoves != 0) {
-			int destinationSquare = Long.numberOfTrailingZeros(possibleMoves);
-			long destinationBit = 1l << destinationSquare;
-			moves.add(new Move(sourceBit, destinationBit, isWhite ? (byte) 6 : (byte) -6));
+	private static long negativeRayAttacks(long[] rays, int square, long occupied) {
+		long attacks = rays[square];
+		long blockers = attacks & occupied;
+		if (blockers != 0)
+			attacks ^= rays[63 - Long.numberOfLeadingZeros(blockers)];
+		return attacks;
+	}
 
-			possibleMoves &= ~destinationBit;
-		}
+	/**
+	 * Counts the leaf nodes of the legal move tree to the given depth, used to
+	 * verify move generation against known results
+	 * 
+	 * @param depth the number of plies to search
+	 * @return the number of leaf nodes
+	 * @see <a href="https://www.chessprogramming.org/Perft_Results">Reference</a>
+	 */
+	long perft(int depth) {
+		if (depth == 0)
+			return 1;
+		HashSet<Move> moves = generateMoves();
+		if (depth == 1)
+			return moves.size();
+		long nodes = 0;
+		for (Move move : moves)
+			nodes += new ChessBoard(this, move).perft(depth - 1);
+		return nodes;
 	}
 
 	/**
@@ -647,41 +798,176 @@ public class ChessBoard implements BoardFields {
 	 */
 	byte[][] boardAsArray() {
 		byte[][] ret = new byte[8][8];
-		for (int square = 0; square < 64; square++) {
-			int rank = square / 8;
-			int file = square % 8;
-
-			if ((whitePawns & (1L << square)) != 0)
-				ret[rank][file] = 1;
-			else if ((blackPawns & (1L << square)) != 0)
-				ret[rank][file] = -1;
-			else if ((whiteKnights & (1L << square)) != 0)
-				ret[rank][file] = 2;
-			else if ((blackKnights & (1L << square)) != 0)
-				ret[rank][file] = -2;
-			else if ((whiteBishops & (1L << square)) != 0)
-				ret[rank][file] = 3;
-			else if ((blackBishops & (1L << square)) != 0)
-				ret[rank][file] = -3;
-			else if ((whiteRooks & (1L << square)) != 0)
-				ret[rank][file] = 4;
-			else if ((blackRooks & (1L << square)) != 0)
-				ret[rank][file] = -4;
-			else if ((whiteQueens & (1L << square)) != 0)
-				ret[rank][file] = 5;
-			else if ((blackQueens & (1L << square)) != 0)
-				ret[rank][file] = -5;
-			else if ((whiteKing & (1L << square)) != 0)
-				ret[rank][file] = 6;
-			else if ((blackKing & (1L << square)) != 0)
-				ret[rank][file] = -6;
-			else
-				ret[rank][file] = 0;
-		}
+		for (int square = 0; square < 64; square++)
+			ret[square / 8][square % 8] = pieceAt(square);
 
 		return ret;
 	}
 
+	/**
+	 * Finds the piece on a square
+	 * 
+	 * @param square the square, 0-63
+	 * @return the signed piece type on the square, or 0 if it's empty
+	 * @see #boardAsArray() for more detailed piece typing
+	 */
+	byte pieceAt(int square) {
+		long bit = 1l << square;
+		if (((whitePieces | blackPieces) & bit) == 0)
+			return 0;
+		byte type = (pawns & bit) != 0 ? 1 : (knights & bit) != 0 ? 2 : (bishops & bit) != 0 ? 3
+				: (rooks & bit) != 0 ? 4 : (queens & bit) != 0 ? 5 : (byte) 6;
+		return (whitePieces & bit) != 0 ? type : (byte) -type;
+	}
+
+	/**
+	 * Finds one piece type's bitboard
+	 * 
+	 * @param type the unsigned piece type, 1=pawn to 6=king
+	 * @return the bitboard of that type's pieces, of both colours
+	 */
+	long pieces(int type) {
+		switch (type) {
+		case 1:
+			return pawns;
+		case 2:
+			return knights;
+		case 3:
+			return bishops;
+		case 4:
+			return rooks;
+		case 5:
+			return queens;
+		case 6:
+			return kings;
+		default:
+			return 0l;
+		}
+	}
+
+	/**
+	 * Finds one player's bitboard of one piece type
+	 * 
+	 * @param type  the unsigned piece type, 1=pawn to 6=king
+	 * @param white whether to find white's pieces or black's
+	 * @return the bitboard of that player's pieces of that type
+	 */
+	long pieces(int type, boolean white) {
+		return pieces(type) & (white ? whitePieces : blackPieces);
+	}
+
+	/**
+	 * Whether a move takes a piece, including en passant
+	 * 
+	 * @param move a move on this board
+	 * @return true if the move is a capture
+	 */
+	boolean isCapture(Move move) {
+		return ((isWhiteTurn ? blackPieces : whitePieces) & move.to()) != 0
+				|| ((move.to() & enPassantSquare()) != 0 && (move.piece() == 1 || move.piece() == -1));
+	}
+
+	/**
+	 * Static exchange evaluation: whether the material the active player gains from a move, once both sides have
+	 * recaptured on its destination for as long as it pays, least valuable piece first, is at least a threshold. Sliders
+	 * behind other attackers join in as the pieces in front of them are used up. Pins are ignored, and promotions are
+	 * only judged by what they capture. Nothing is allocated, so it's cheap enough to call on every capture
+	 *
+	 * @param move      a move on this board
+	 * @param threshold the least gain, in centipawns, to accept
+	 * @return true if the exchange gains at least the threshold
+	 * @see <a href="https://www.chessprogramming.org/Static_Exchange_Evaluation">Reference</a>
+	 */
+	boolean staticExchangeAtLeast(Move move, int threshold) {
+		int to = Long.numberOfTrailingZeros(move.to());
+		byte victim = pieceAt(to);
+		boolean enPassant = victim == 0 && (move.piece() == 1 || move.piece() == -1) && (move.to() & enPassantSquare()) != 0;
+		int swap = (victim != 0 ? PIECE_VALUES[Math.abs(victim) - 1] : enPassant ? PIECE_VALUES[0] : 0) - threshold;
+		if (swap < 0)
+			return false;
+		// Even losing the moved piece for nothing leaves enough
+		swap = PIECE_VALUES[Math.abs(move.piece()) - 1] - swap;
+		if (swap <= 0)
+			return true;
+
+		long occupied = (whitePieces | blackPieces) ^ move.from() ^ move.to();
+		if (enPassant)
+			occupied ^= isWhiteTurn ? move.to() >>> 8 : move.to() << 8;
+		long bishopLikes = bishops | queens, rookLikes = rooks | queens;
+		// Both sides' attackers at once, sharing the slider lookups
+		long attackers = (PAWN_ATTACKS[1][to] & pawns & whitePieces) | (PAWN_ATTACKS[0][to] & pawns & blackPieces)
+				| (KNIGHT_MOVES[to] & knights) | (KING_MOVES[to] & kings)
+				| (bishopAttacks(to, occupied) & bishopLikes) | (rookAttacks(to, occupied) & rookLikes);
+		boolean white = isWhiteTurn;
+		// 1 while the side that made the last capture is ahead by the threshold, whoever that is
+		int result = 1;
+		while (true) {
+			white = !white;
+			attackers &= occupied;
+			long ownAttackers = attackers & (white ? whitePieces : blackPieces);
+			if (ownAttackers == 0)
+				break;
+			result ^= 1;
+
+			long attacker;
+			if ((attacker = ownAttackers & pawns) != 0) {
+				if ((swap = PIECE_VALUES[0] - swap) < result)
+					break;
+				occupied ^= Long.lowestOneBit(attacker);
+				attackers |= bishopAttacks(to, occupied) & bishopLikes;
+			} else if ((attacker = ownAttackers & knights) != 0) {
+				if ((swap = PIECE_VALUES[1] - swap) < result)
+					break;
+				occupied ^= Long.lowestOneBit(attacker);
+			} else if ((attacker = ownAttackers & bishops) != 0) {
+				if ((swap = PIECE_VALUES[2] - swap) < result)
+					break;
+				occupied ^= Long.lowestOneBit(attacker);
+				attackers |= bishopAttacks(to, occupied) & bishopLikes;
+			} else if ((attacker = ownAttackers & rooks) != 0) {
+				if ((swap = PIECE_VALUES[3] - swap) < result)
+					break;
+				occupied ^= Long.lowestOneBit(attacker);
+				attackers |= rookAttacks(to, occupied) & rookLikes;
+			} else if ((attacker = ownAttackers & queens) != 0) {
+				if ((swap = PIECE_VALUES[4] - swap) < result)
+					break;
+				occupied ^= Long.lowestOneBit(attacker);
+				attackers |= (bishopAttacks(to, occupied) & bishopLikes) | (rookAttacks(to, occupied) & rookLikes);
+			} else {
+				// The king can only take if nothing can take it back
+				return (attackers & (white ? blackPieces : whitePieces)) != 0 ? (result ^ 1) == 1 : result == 1;
+			}
+		}
+		return result == 1;
+	}
+
+	/**
+	 * The square the active player could capture en passant on
+	 * 
+	 * @return a bitboard with that square set, or 0 if there is none
+	 */
+	long enPassantSquare() {
+		return enPassantFile == -1 ? 0l : 1l << (enPassantFile + (isWhiteTurn ? 40 : 16));
+	}
+
+	/**
+	 * Whether a move can legally be made on this board, without generating every
+	 * other move. Used to check moves that come from elsewhere, like the
+	 * transposition table or another branch of the search
+	 * 
+	 * @param move the move to check
+	 * @return true if the move is legal
+	 */
+	boolean isLegal(Move move) {
+		byte piece = move.piece();
+		if (piece == 0 || (piece > 0) != isWhiteTurn || pieceAt(Long.numberOfTrailingZeros(move.from())) != piece)
+			return false;
+		ArrayList<Move> moves = new ArrayList<>(4);
+		generateMoves(moves, move.from(), move.to());
+		return moves.contains(move);
+	}
+
 	/**
 	 * Prints the current board state as an array. Used for debugging.
 	 * 
@@ -702,78 +988,93 @@ public class ChessBoard implements BoardFields {
 	 * @param m the move to perform
 	 */
 	void performMove(Move m) {
+		boolean isPawn = m.piece() == 1 || m.piece() == -1;
+		boolean isPush = (m.to() & (m.from() << 8 | m.from() >>> 8 | m.from() << 16 | m.from() >>> 16)) != 0;
+		byte captured = pieceAt(Long.numberOfTrailingZeros(m.to()));
+		// A pawn moving diagonally onto an empty square can only be capturing en passant
+		boolean enPassantCapture = isPawn && !isPush && captured == 0;
 		isWhiteTurn = !isWhiteTurn;
-		switch (m.piece()) {
-		case -6:
-			blackKing &= ~m.from();
-			blackKing |= m.to();
-			break;
-		case -5:
-			blackQueens &= ~m.from();
-			blackQueens |= m.to();
-			break;
-		case -4:
-			blackRooks &= ~m.from();
-			blackRooks |= m.to();
-			break;
-		case -3:
-			blackBishops &= ~m.from();
-			blackBishops |= m.to();
-			break;
-		case -2:
-			blackKnights &= ~m.from();
-			blackKnights |= m.to();
-			break;
-		case -1:
-			blackPawns &= ~m.from();
-			blackPawns |= m.to();
-			break;
+		// Only the captured piece's bitboards change, then the mover flips across
+		if (captured != 0)
+			togglePiece(captured, m.to());
+		togglePiece(m.piece(), m.from() | m.to());
+
+		if (enPassantCapture)
+			togglePiece((byte) -m.piece(), m.piece() > 0 ? m.to() >>> 8 : m.to() << 8);
+
+		if (isPawn && (m.to() & (RANK1 | RANK8)) != 0) {
+			togglePiece(m.piece(), m.to());
+			togglePiece(m.promotion() != 0 ? m.promotion() : (byte) (m.piece() * 5), m.to());
+		}
+
+		// A king moving two squares is castling, bring the rook across it
+		if ((m.piece() == 6 || m.piece() == -6) && (m.to() == m.from() << 2 || m.to() == m.from() >>> 2)) {
+			byte rook = (byte) (m.piece() > 0 ? 4 : -4);
+			if (m.to() > m.from())
+				togglePiece(rook, m.to() << 1 | m.to() >>> 1);
+			else
+				togglePiece(rook, m.to() >>> 2 | m.to() << 1);
+		}
+
+		// Moving a king or rook, or capturing a rook, gives up the matching castling rights
+		long touched = m.from() | m.to();
+		if ((touched & 0x0000000000000090l) != 0) // e1, h1
+			castlingRights &= ~((touched & 0x10l) != 0 ? 3 : 1);
+		if ((touched & 0x0000000000000001l) != 0) // a1
+			castlingRights &= ~2;
+		if ((touched & 0x9000000000000000l) != 0) // e8, h8
+			castlingRights &= ~((touched & 0x1000000000000000l) != 0 ? 12 : 4);
+		if ((touched & 0x0100000000000000l) != 0) // a8
+			castlingRights &= ~8;
+
+		// Only record an en passant file when an opposing pawn is actually beside the
+		// double-pushed pawn, so equal positions hash equally
+		enPassantFile = -1;
+		if (isPawn && (m.to() == m.from() << 16 || m.to() == m.from() >>> 16)) {
+			long neighbours = ((m.to() & ~FILEA) >>> 1) | ((m.to() & ~FILEH) << 1);
+			if ((neighbours & pawns & (m.piece() > 0 ? blackPieces : whitePieces)) != 0)
+				enPassantFile = Long.numberOfTrailingZeros(m.to()) % 8;
+		}
+
+		// Boards made by copying update their accumulators from the old board, a board moved in place recomputes them
+		if (accumulator != null)
+			accumulator = new NnueAccumulator(accumulator.network, this);
+	}
+
+	/**
+	 * Flips the given squares on the bitboards of one piece type and the matching
+	 * colour. Used to move and capture pieces, for the secondary
+	 * effects of a move like promotion and castling, and to place pieces when
+	 * reading a position
+	 * 
+	 * @param piece the signed piece type
+	 * @param bits  the squares to flip
+	 */
+	void togglePiece(byte piece, long bits) {
+		switch (piece > 0 ? piece : -piece) {
 		case 1:
-			whitePawns &= ~m.from();
-			whitePawns |= m.to();
+			pawns ^= bits;
 			break;
 		case 2:
-			whiteKnights &= ~m.from();
-			whiteKnights |= m.to();
+			knights ^= bits;
 			break;
 		case 3:
-			whiteBishops &= ~m.from();
-			whiteBishops |= m.to();
+			bishops ^= bits;
 			break;
 		case 4:
-			whiteRooks &= ~m.from();
-			whiteRooks |= m.to();
+			rooks ^= bits;
 			break;
 		case 5:
-			whiteQueens &= ~m.from();
-			whiteQueens |= m.to();
+			queens ^= bits;
 			break;
 		case 6:
-			whiteKing &= ~m.from();
-			whiteKing |= m.to();
+			kings ^= bits;
 			break;
 		}
-		if (m.piece() > 0) {
-			whitePieces &= ~m.from();
-			whitePieces |= m.to();
-			blackPieces &= ~m.to();
-			blackPawns &= ~m.to();
-			blackKnights &= ~m.to();
-			blackBishops &= ~m.to();
-			blackRooks &= ~m.to();
-			blackQueens &= ~m.to();
-			blackKing &= ~m.to();
-		} else {
-			blackPieces &= ~m.from();
-			blackPieces |= m.to();
-			whitePieces &= ~m.to();
-			whitePawns &= ~m.to();
-			whiteKnights &= ~m.to();
-			whiteBishops &= ~m.to();
-			whiteRooks &= ~m.to();
-			whiteQueens &= ~m.to();
-			whiteKing &= ~m.to();
-		}
+		if (piece > 0)
+			whitePieces ^= bits;
+		else
+			blackPieces ^= bits;
 	}
 
 	/**
@@ -781,7 +1082,8 @@ public class ChessBoard implements BoardFields {
 	 * favored, lower values mean black is favored.
 	 * 
 	 * Uses a combination of the quantity of each type of piece, and the location of
-	 * each piece.
+	 * each piece. If the board carries an {@link #accumulator}, its neural network
+	 * evaluates the board instead.
 	 * 
 	 * @return An integer evaluating the current board state.
 	 * @see BoardFields#BISHOP_TABLE
@@ -794,36 +1096,126 @@ public class ChessBoard implements BoardFields {
 	 * @see BoardFields#ROOK_TABLE
 	 */
 	int calculateBoardValue() {
-		MoveSearcher.boardsEvaluated++;
+		if (accumulator != null)
+			return accumulator.evaluate(isWhiteTurn);
 		int value = 0;
-		value += Long.bitCount(whitePawns) * PIECE_VALUES[0];
-		value -= Long.bitCount(blackPawns) * PIECE_VALUES[0];
-		value += Long.bitCount(whiteKnights) * PIECE_VALUES[1];
-		value -= Long.bitCount(blackKnights) * PIECE_VALUES[1];
-		value += Long.bitCount(whiteBishops) * PIECE_VALUES[2];
-		value -= Long.bitCount(blackBishops) * PIECE_VALUES[2];
-		value += Long.bitCount(whiteRooks) * PIECE_VALUES[3];
-		value -= Long.bitCount(blackRooks) * PIECE_VALUES[3];
-		value += Long.bitCount(whiteQueens) * PIECE_VALUES[4];
-		value -= Long.bitCount(blackQueens) * PIECE_VALUES[4];
-
-		value += getValueForPieceType(whitePawns, PAWN_TABLE);
-		value -= getValueForPieceType(blackPawns, PAWN_TABLE);
-		value += getValueForPieceType(whiteKnights, KNIGHT_TABLE);
-		value -= getValueForPieceType(blackKnights, KNIGHT_TABLE);
-		value += getValueForPieceType(whiteBishops, BISHOP_TABLE);
-		value -= getValueForPieceType(blackBishops, BISHOP_TABLE);
-		value += getValueForPieceType(whiteRooks, ROOK_TABLE);
-		value -= getValueForPieceType(blackRooks, ROOK_TABLE);
-		value += getValueForPieceType(whiteQueens, QUEEN_TABLE);
-		value -= getValueForPieceType(blackQueens, QUEEN_TABLE);
-		value += getValueForPieceType(whiteKing, KING_TABLE);
-		value -= getValueForPieceType(blackKing, KING_TABLE);
+		long white = whitePieces, black = blackPieces;
+		value += Long.bitCount(pawns & white) * PIECE_VALUES[0];
+		value -= Long.bitCount(pawns & black) * PIECE_VALUES[0];
+		value += Long.bitCount(knights & white) * PIECE_VALUES[1];
+		value -= Long.bitCount(knights & black) * PIECE_VALUES[1];
+		value += Long.bitCount(bishops & white) * PIECE_VALUES[2];
+		value -= Long.bitCount(bishops & black) * PIECE_VALUES[2];
+		value += Long.bitCount(rooks & white) * PIECE_VALUES[3];
+		value -= Long.bitCount(rooks & black) * PIECE_VALUES[3];
+		value += Long.bitCount(queens & white) * PIECE_VALUES[4];
+		value -= Long.bitCount(queens & black) * PIECE_VALUES[4];
+
+		value += getValueForPieceType(pawns & white, PAWN_TABLE);
+		value -= getValueForPieceType(pawns & black, PAWN_TABLE);
+		value += getValueForPieceType(knights & white, KNIGHT_TABLE);
+		value -= getValueForPieceType(knights & black, KNIGHT_TABLE);
+		value += getValueForPieceType(bishops & white, BISHOP_TABLE);
+		value -= getValueForPieceType(bishops & black, BISHOP_TABLE);
+		value += getValueForPieceType(rooks & white, ROOK_TABLE);
+		value -= getValueForPieceType(rooks & black, ROOK_TABLE);
+		value += getValueForPieceType(queens & white, QUEEN_TABLE);
+		value -= getValueForPieceType(queens & black, QUEEN_TABLE);
+		value += getValueForPieceType(kings & white, KING_TABLE);
+		value -= getValueForPieceType(kings & black, KING_TABLE);
 		// TODO implement endgame king location valuation
 
+		value += MoveSearcher.pawnHashTable.probe(computePawnHash(), pawns & white, pawns & black);
+
 		return value;
 	}
 
+	/**
+	 * Evaluate the pawn structure of a board: passed, isolated, doubled and backward pawns. Every term is computed
+	 * set-wise on the whole bitboard rather than pawn by pawn, and the result depends on nothing but the pawns, so it
+	 * is cached in {@link MoveSearcher#pawnHashTable}
+	 * 
+	 * @param whitePawns bitboard of the white pawns
+	 * @param blackPawns bitboard of the black pawns
+	 * @return the evaluation, positive favors white
+	 * @see BoardFields#PASSED_PAWN_BONUS
+	 * @see BoardFields#PAWN_STRUCTURE_PENALTIES
+	 */
+	static int evaluatePawnStructure(long whitePawns, long blackPawns) {
+		int value = 0;
+
+		long whiteAttacks = ((whitePawns & ~FILEA) << 7) | ((whitePawns & ~FILEH) << 9);
+		long blackAttacks = ((blackPawns & ~FILEA) >>> 9) | ((blackPawns & ~FILEH) >>> 7);
+
+		// Squares each side's pawns could still reach or control as they advance
+		long whiteFrontSpans = northFill(whitePawns << 8);
+		long blackFrontSpans = southFill(blackPawns >>> 8);
+		long whiteAttackSpans = northFill(whiteAttacks);
+		long blackAttackSpans = southFill(blackAttacks);
+
+		long whitePassed = whitePawns & ~(blackFrontSpans | southFill(blackAttacks));
+		long blackPassed = blackPawns & ~(whiteFrontSpans | northFill(whiteAttacks));
+		while (whitePassed != 0) {
+			value += PASSED_PAWN_BONUS[Long.numberOfTrailingZeros(whitePassed) / 8];
+			whitePassed &= whitePassed - 1;
+		}
+		while (blackPassed != 0) {
+			value -= PASSED_PAWN_BONUS[7 - Long.numberOfTrailingZeros(blackPassed) / 8];
+			blackPassed &= blackPassed - 1;
+		}
+
+		long whiteFiles = fileFill(whitePawns), blackFiles = fileFill(blackPawns);
+		long whiteIsolated = whitePawns & ~(((whiteFiles & ~FILEA) >>> 1) | ((whiteFiles & ~FILEH) << 1));
+		long blackIsolated = blackPawns & ~(((blackFiles & ~FILEA) >>> 1) | ((blackFiles & ~FILEH) << 1));
+		value -= Long.bitCount(whiteIsolated) * PAWN_STRUCTURE_PENALTIES[ISOLATED_PAWN];
+		value += Long.bitCount(blackIsolated) * PAWN_STRUCTURE_PENALTIES[ISOLATED_PAWN];
+
+		// Every pawn with a friendly pawn behind it on the same file
+		value -= Long.bitCount(whitePawns & whiteFrontSpans) * PAWN_STRUCTURE_PENALTIES[DOUBLED_PAWN];
+		value += Long.bitCount(blackPawns & blackFrontSpans) * PAWN_STRUCTURE_PENALTIES[DOUBLED_PAWN];
+
+		// Pawns whose stop square is controlled by an enemy pawn and can never be covered by a friendly one
+		long whiteBackward = ((whitePawns << 8) & blackAttacks & ~whiteAttackSpans) >>> 8;
+		long blackBackward = ((blackPawns >>> 8) & whiteAttacks & ~blackAttackSpans) << 8;
+		value -= Long.bitCount(whiteBackward) * PAWN_STRUCTURE_PENALTIES[BACKWARD_PAWN];
+		value += Long.bitCount(blackBackward) * PAWN_STRUCTURE_PENALTIES[BACKWARD_PAWN];
+
+		return value;
+	}
+
+	/**
+	 * Smears every set bit of a bitboard towards the eighth rank
+	 * @param bitboard the bitboard to fill
+	 * @return the bitboard with every square north of a set bit also set
+	 */
+	private static long northFill(long bitboard) {
+		bitboard |= bitboard << 8;
+		bitboard |= bitboard << 16;
+		bitboard |= bitboard << 32;
+		return bitboard;
+	}
+
+	/**
+	 * Smears every set bit of a bitboard towards the first rank
+	 * @param bitboard the bitboard to fill
+	 * @return the bitboard with every square south of a set bit also set
+	 */
+	private static long southFill(long bitboard) {
+		bitboard |= bitboard >>> 8;
+		bitboard |= bitboard >>> 16;
+		bitboard |= bitboard >>> 32;
+		return bitboard;
+	}
+
+	/**
+	 * Fills every file that contains a set bit
+	 * @param bitboard the bitboard to fill
+	 * @return a bitboard of every square on an occupied file
+	 */
+	private static long fileFill(long bitboard) {
+		return northFill(bitboard) | southFill(bitboard);
+	}
+
 	/**
 	 * Determine the locational value that the specified piece contributes to this board's valuation
 	 * @param pieces the bitboard of the piecetype
@@ -846,18 +1238,11 @@ public class ChessBoard implements BoardFields {
 	 * @return the zobrist hash
 	 */
 	long computeZobristHash() {
-		long hash = addBitBoardToHash(0l, whitePawns, 0);
-		hash = addBitBoardToHash(hash, blackPawns, 1);
-		hash = addBitBoardToHash(hash, whiteKnights, 2);
-		hash = addBitBoardToHash(hash, blackKnights, 3);
-		hash = addBitBoardToHash(hash, whiteBishops, 4);
-		hash = addBitBoardToHash(hash, blackBishops, 5);
-		hash = addBitBoardToHash(hash, whiteRooks, 6);
-		hash = addBitBoardToHash(hash, blackRooks, 7);
-		hash = addBitBoardToHash(hash, whiteQueens, 8);
-		hash = addBitBoardToHash(hash, blackQueens, 9);
-		hash = addBitBoardToHash(hash, whiteKing, 10);
-		hash = addBitBoardToHash(hash, blackKing, 11);
+		long hash = 0l;
+		for (int type = 1; type <= 6; type++) {
+			hash = addBitBoardToHash(hash, pieces(type) & whitePieces, 2 * type - 2);
+			hash = addBitBoardToHash(hash, pieces(type) & blackPieces, 2 * type - 1);
+		}
 
 		hash ^= CASTLING_HASHES[castlingRights];
 
@@ -870,6 +1255,14 @@ public class ChessBoard implements BoardFields {
 		return hash;
 	}
 
+	/**
+	 * Compute a zobrist hash of only the pawns on the current board, keying {@link MoveSearcher#pawnHashTable}
+	 * @return the pawn hash
+	 */
+	long computePawnHash() {
+		return addBitBoardToHash(addBitBoardToHash(0l, pawns & whitePieces, 0), pawns & blackPieces, 1);
+	}
+
 	/**
 	 * Add the specified piece bitboard to the specified hash using xor of each piece by square
 	 * @param currentHash the current hash
@@ -11,6 +11,7 @@ import java.awt.event.WindowListener;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.file.Path;
 
 import javax.swing.JButton;
 import javax.swing.JFrame;
@@ -31,9 +32,10 @@ import org.springframework.context.ConfigurableApplicationContext;
 public class ChessEngineApplication {
 	
 	/**
-	 * The current board
+	 * The current board. It's only ever changed in place, and {@link APIController} holds its lock while reading or
+	 * changing it
 	 */
-	static ChessBoard board = new ChessBoard();
+	static final ChessBoard board = new ChessBoard();
 	
 	/**
 	 * The back-end application, running with Spring
@@ -47,18 +49,67 @@ public class ChessEngineApplication {
 	
 	/**
 	 * Entry method for org.j3lsmp.chessengine
-	 * @param args unused
+	 * @param args passed to Spring, so properties like `--chess.explorer.index=explorer.idx` can be set here
 	 */
 	public static void main(String[] args) {
 		SpringApplication app = new SpringApplication(ChessEngineApplication.class);
 		app.setHeadless(false);
 		context = app.run(args);
 		
+		loadOpeningIndex(context.getEnvironment().getProperty("chess.explorer.index"));
+		loadNetwork(context.getEnvironment().getProperty("chess.nnue"));
+		loadParameters(context.getEnvironment().getProperty("chess.eval.parameters"));
+		MoveSearcher.ponderer.enabled = context.getEnvironment().getProperty("chess.ponder", Boolean.class, true);
+		MoveSearcher.mateHelperEnabled = context.getEnvironment().getProperty("chess.mate.helper", Boolean.class, false);
+		MoveSearcher.stubEngine = context.getEnvironment().getProperty("chess.engine.stub", Boolean.class, false);
 		openWindow();
 		
 		board.resetBoard();
 	}
 	
+	/**
+	 * Open the opening explorer index built by {@link PgnIndexer}, if one is configured
+	 * @param path the index file, or null for none
+	 */
+	static void loadOpeningIndex(String path) {
+		if (path == null || path.isBlank())
+			return;
+		try {
+			MoveSearcher.openingIndex = OpeningIndex.open(Path.of(path));
+		} catch (IOException e) {
+			e.printStackTrace(); // Play without a book rather than not at all
+		}
+	}
+	
+	/**
+	 * Load the neural network evaluation, if one is configured
+	 * @param path a weights file, "bundled" for the weights shipped with the engine, or null to use the hand-written
+	 * evaluation
+	 */
+	static void loadNetwork(String path) {
+		if (path == null || path.isBlank())
+			return;
+		try {
+			MoveSearcher.network = path.equals("bundled") ? NnueNetwork.loadBundled() : NnueNetwork.load(Path.of(path));
+		} catch (IOException e) {
+			e.printStackTrace(); // Play with the hand-written evaluation rather than not at all
+		}
+	}
+	
+	/**
+	 * Load tuned evaluation values written by {@link TexelTuner}, if a file is configured
+	 * @param path the parameter file, or null to keep the built-in values
+	 */
+	static void loadParameters(String path) {
+		if (path == null || path.isBlank())
+			return;
+		try {
+			EvaluationParameters.load(Path.of(path));
+		} catch (IOException e) {
+			e.printStackTrace(); // Play with the built-in values rather than not at all
+		}
+	}
+	
 	/**
 	 * Open the small backend application window directing user to browser (this is why we can't run headless)
 	 */
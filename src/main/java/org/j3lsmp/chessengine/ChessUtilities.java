@@ -25,4 +25,25 @@ public class ChessUtilities {
 	static int bitboardtoSquare(long bitboard) {
 		return Long.numberOfTrailingZeros(bitboard);
 	}
+	
+	/**
+	 * Names a square in algebraic notation
+	 * @param square an integer from 0-63
+	 * @return the square's name, like "e4"
+	 */
+	static String squareName(int square) {
+		return "" + (char) ('a' + square % 8) + (char) ('1' + square / 8);
+	}
+	
+	/**
+	 * Writes a move in the long algebraic notation used by the UCI protocol, like "e2e4" or "e7e8n"
+	 * @param move the move
+	 * @return the move as text
+	 */
+	static String moveToUci(Move move) {
+		String uci = squareName(bitboardtoSquare(move.from())) + squareName(bitboardtoSquare(move.to()));
+		if (move.promotion() != 0)
+			uci += BoardFields.FEN_PIECES.charAt(Math.abs(move.promotion()) - 1);
+		return uci;
+	}
 }
\ No newline at end of file
@@ -0,0 +1,137 @@
+package org.j3lsmp.chessengine;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Messages between {@link DistributedSearch} and its {@link SearchWorker}s. Every message is a type byte followed by
+ * its fields, written with {@link DataOutputStream}:
+ *
+ * <ul>
+ * <li>{@link #SEARCH}, coordinator to worker: search id (int), position, depth limit (int, 0 for none), time limit in
+ * milliseconds (long, 0 for none), then the number of root moves (short) and the moves with their index among all
+ * the position's root moves (short) each</li>
+ * <li>{@link #STOP}, coordinator to worker: stop the current search</li>
+ * <li>{@link #QUIT}, coordinator to worker: exit</li>
+ * <li>{@link #ENTRIES}, either way: a count (short) then transposition table entries, each a zobrist hash (long),
+ * value (int), depth (byte), flag (byte) and move</li>
+ * <li>{@link #PROGRESS}, worker to coordinator: search id (int), root move index (short), depth (byte), score (int),
+ * nodes searched so far (long), then the principal variation as a count (byte) and moves</li>
+ * <li>{@link #DONE}, worker to coordinator: search id (int), nodes searched (long)</li>
+ * </ul>
+ *
+ * A position is a length byte and the bytes of {@link PositionCodec}, and a move is four bytes: origin square,
+ * destination square, piece and promotion, with an origin of -1 for no move
+ *
+ * @author Jaden
+ * @since 0.0.1
+ */
+class DistributedProtocol {
+	/**
+	 * Message types
+	 */
+	static final byte SEARCH = 1, STOP = 2, QUIT = 3, ENTRIES = 4, PROGRESS = 5, DONE = 6;
+
+	/**
+	 * Most entries sent in one {@link #ENTRIES} message
+	 */
+	static final int MAX_ENTRIES_PER_MESSAGE = 1024;
+
+	/**
+	 * A transposition table entry with the hash it belongs to, as sent between processes
+	 * @param zobristKey the zobrist hash of the board state
+	 * @param entry the entry
+	 */
+	record SharedEntry(long zobristKey, TranspositionEntry entry) {}
+
+	/**
+	 * Write a move
+	 * @param out where to write
+	 * @param move the move, or null
+	 * @throws IOException if writing fails
+	 */
+	static void writeMove(DataOutputStream out, Move move) throws IOException {
+		if (move == null) {
+			out.writeInt(-1 << 24);
+			return;
+		}
+		out.writeByte(Long.numberOfTrailingZeros(move.from()));
+		out.writeByte(Long.numberOfTrailingZeros(move.to()));
+		out.writeByte(move.piece());
+		out.writeByte(move.promotion());
+	}
+
+	/**
+	 * Read a move
+	 * @param in where to read from
+	 * @return the move, or null
+	 * @throws IOException if reading fails
+	 */
+	static Move readMove(DataInputStream in) throws IOException {
+		byte from = in.readByte(), to = in.readByte(), piece = in.readByte(), promotion = in.readByte();
+		return from < 0 ? null : new Move(1l << from, 1l << to, piece, promotion);
+	}
+
+	/**
+	 * Write a position
+	 * @param out where to write
+	 * @param board the position
+	 * @throws IOException if writing fails
+	 */
+	static void writePosition(DataOutputStream out, ChessBoard board) throws IOException {
+		byte[] bytes = PositionCodec.encode(board);
+		out.writeByte(bytes.length);
+		out.write(bytes);
+	}
+
+	/**
+	 * Read a position
+	 * @param in where to read from
+	 * @return the position
+	 * @throws IOException if reading fails
+	 */
+	static ChessBoard readPosition(DataInputStream in) throws IOException {
+		byte[] bytes = new byte[in.readUnsignedByte()];
+		in.readFully(bytes);
+		return PositionCodec.decode(bytes);
+	}
+
+	/**
+	 * Write an {@link #ENTRIES} message, type byte included
+	 * @param out where to write
+	 * @param entries the entries, at most {@link #MAX_ENTRIES_PER_MESSAGE}
+	 * @throws IOException if writing fails
+	 */
+	static void writeEntries(DataOutputStream out, List<SharedEntry> entries) throws IOException {
+		out.writeByte(ENTRIES);
+		out.writeShort(entries.size());
+		for (SharedEntry shared : entries) {
+			TranspositionEntry entry = shared.entry();
+			out.writeLong(shared.zobristKey());
+			out.writeInt(entry.value);
+			out.writeByte(entry.depth);
+			out.writeByte(entry.flag);
+			writeMove(out, entry.move);
+		}
+	}
+
+	/**
+	 * Read the body of an {@link #ENTRIES} message, after its type byte
+	 * @param in where to read from
+	 * @return the entries
+	 * @throws IOException if reading fails
+	 */
+	static List<SharedEntry> readEntries(DataInputStream in) throws IOException {
+		int count = in.readUnsignedShort();
+		List<SharedEntry> entries = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			long zobristKey = in.readLong();
+			int value = in.readInt(), depth = in.readByte(), flag = in.readByte();
+			entries.add(new SharedEntry(zobristKey, new TranspositionEntry(value, depth, flag, readMove(in))));
+		}
+		return entries;
+	}
+}
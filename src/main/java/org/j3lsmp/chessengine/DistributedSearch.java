@@ -0,0 +1,498 @@
+package org.j3lsmp.chessengine;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+/**
+ * Searches one position across several processes, so analysis isn't limited to the cores of one JVM. The root moves
+ * are dealt out between {@link SearchWorker}s connected over TCP, each searching its share with the ordinary
+ * {@link MoveSearcher}. Workers stream back every move's score and principal variation at each depth, and deep
+ * transposition table entries found by one worker are forwarded to the others in batches
+ *
+ * <p>Workers can be started on this machine by the coordinator, given a fair share of the cores each, or started by
+ * hand elsewhere to connect to it. If a worker is lost partway through a search, the root moves it hadn't finished are
+ * dealt out again between the workers left. For example, to analyse with four local workers:
+ * <code>java -cp chess-engine.jar org.j3lsmp.chessengine.DistributedSearch --workers 4 --timeMs 30000 --fen "..."</code>
+ *
+ * <p>Options: <code>--fen</code> the position (the starting position by default), <code>--timeMs</code> and
+ * <code>--depth</code> limits (10 seconds by default), <code>--lines</code> how many lines to print (3),
+ * <code>--workers</code> local worker processes to start (the number of cores divided by 2, at least 2),
+ * <code>--remoteWorkers</code> further workers to wait for (0), <code>--port</code> to listen on (any free port),
+ * <code>--shareDepth</code> the shallowest entries shared between workers ({@link #DEFAULT_SHARE_DEPTH})
+ *
+ * @author Jaden
+ * @since 0.0.1
+ */
+public class DistributedSearch implements Closeable {
+	/**
+	 * The shallowest transposition table entries shared between workers by default. Shallower entries are cheaper to
+	 * recompute than to send
+	 */
+	static final int DEFAULT_SHARE_DEPTH = 4;
+
+	/**
+	 * How long to wait for workers to connect
+	 */
+	private static final int CONNECT_TIMEOUT_MS = 30_000;
+
+	/**
+	 * How long past the time limit to wait for workers to report, before giving up on them
+	 */
+	private static final long REPORT_GRACE_MS = 5_000;
+
+	/**
+	 * A connected worker
+	 */
+	private class Worker {
+		final Socket socket;
+		final DataInputStream in;
+		final DataOutputStream out;
+
+		/**
+		 * Set once the connection fails, after which the worker is sent nothing more
+		 */
+		volatile boolean lost;
+
+		Worker(Socket socket) throws IOException {
+			this.socket = socket;
+			socket.setTcpNoDelay(true);
+			in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+		}
+
+		/**
+		 * Read this worker's messages until it disconnects
+		 */
+		void listen() {
+			try {
+				while (true) {
+					byte type = in.readByte();
+					switch (type) {
+					case DistributedProtocol.PROGRESS:
+						int id = in.readInt();
+						int moveIndex = in.readUnsignedShort();
+						int depth = in.readByte();
+						int score = in.readInt();
+						in.readLong(); // Nodes so far, only needed once the worker is done
+						List<Move> pv = new ArrayList<>();
+						for (int i = in.readUnsignedByte(); i > 0; i--)
+							pv.add(DistributedProtocol.readMove(in));
+						progress(id, moveIndex, depth, new PvLine(pv.get(0), score, pv));
+						break;
+					case DistributedProtocol.DONE:
+						done(this, in.readInt(), in.readLong());
+						break;
+					case DistributedProtocol.ENTRIES:
+						List<DistributedProtocol.SharedEntry> entries = DistributedProtocol.readEntries(in);
+						for (Worker other : workers)
+							if (other != this)
+								other.send(out -> DistributedProtocol.writeEntries(out, entries));
+						break;
+					default:
+						throw new IOException("Unknown message type " + type);
+					}
+				}
+			} catch (IOException e) {
+				lost(this, e);
+			}
+		}
+
+		/**
+		 * Send this worker a message
+		 * @param message writes the message
+		 */
+		void send(Message message) {
+			synchronized (out) {
+				try {
+					message.write(out);
+					out.flush();
+				} catch (IOException e) {
+					// Lost, listen() reports it
+				}
+			}
+		}
+	}
+
+	/**
+	 * Writes a message to a worker
+	 */
+	@FunctionalInterface
+	private interface Message {
+		void write(DataOutputStream out) throws IOException;
+	}
+
+	/**
+	 * The search running now
+	 */
+	private static class Search {
+		final int id;
+		final ChessBoard board;
+		final int depthLimit;
+		/**
+		 * When the search must end, in milliseconds since the epoch, or 0 for no time limit
+		 */
+		final long deadline;
+		final List<Move> rootMoves;
+		/**
+		 * Each root move's line at each depth reported so far, indexed by move then depth
+		 */
+		final PvLine[][] lines;
+		/**
+		 * The shares of root moves dealt to each worker that it hasn't finished, oldest first. A worker searches them in
+		 * the order they were sent, so each done message finishes the oldest
+		 */
+		final HashMap<Worker, ArrayDeque<List<Integer>>> shares = new HashMap<>();
+		/**
+		 * Shares dealt out and not yet finished
+		 */
+		int outstanding;
+		/**
+		 * The deepest depth {@link #depthListener} has been told of. Moves dealt out again are searched from depth 1,
+		 * and don't tell it of depths it already knows
+		 */
+		int reportedDepth;
+		long nodes;
+
+		Search(int id, ChessBoard board, SearchLimits limits, List<Move> rootMoves) {
+			this.id = id;
+			this.board = board;
+			this.depthLimit = limits.depth();
+			this.deadline = limits.timeMs() > 0 ? System.currentTimeMillis() + limits.timeMs() : 0;
+			this.rootMoves = rootMoves;
+			this.lines = new PvLine[rootMoves.size()][MoveSearcher.MAX_DEPTH + 1];
+		}
+	}
+
+	/**
+	 * Accepts worker connections
+	 */
+	private final ServerSocket server;
+
+	/**
+	 * Connected workers, and the processes started for local ones
+	 */
+	private final List<Worker> workers = new ArrayList<>();
+	private final List<Process> processes = new ArrayList<>();
+
+	/**
+	 * The search running now, or null
+	 */
+	private Search search;
+
+	/**
+	 * Told each time every root move has been searched to a new depth, with the depth and the lines at it, best first
+	 */
+	volatile BiConsumer<Integer, List<PvLine>> depthListener;
+
+	/**
+	 * The id of the last search started
+	 */
+	private int lastId;
+
+	/**
+	 * Starts local workers and waits for every worker to connect
+	 * @param localWorkers worker processes to start on this machine
+	 * @param remoteWorkers workers started elsewhere to wait for
+	 * @param port the port to listen on, 0 for any free port
+	 * @param shareDepth the shallowest table entries workers share
+	 * @throws IOException if the workers can't be started or don't connect
+	 */
+	DistributedSearch(int localWorkers, int remoteWorkers, int port, int shareDepth) throws IOException {
+		server = new ServerSocket(port, 50, remoteWorkers > 0 ? null : InetAddress.getLoopbackAddress());
+		server.setSoTimeout(CONNECT_TIMEOUT_MS);
+		try {
+			String java = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+			int coresEach = Math.max(1, Runtime.getRuntime().availableProcessors() / Math.max(1, localWorkers));
+			for (int i = 0; i < localWorkers; i++)
+				processes.add(new ProcessBuilder(java, "-XX:ActiveProcessorCount=" + coresEach, "-cp",
+						System.getProperty("java.class.path"), SearchWorker.class.getName(), "127.0.0.1",
+						"" + server.getLocalPort(), "" + shareDepth).inheritIO().start());
+			if (remoteWorkers > 0)
+				System.out.println("Waiting for " + remoteWorkers + " workers on port " + server.getLocalPort());
+			for (int i = 0; i < localWorkers + remoteWorkers; i++) {
+				Worker worker = new Worker(server.accept());
+				workers.add(worker);
+				Thread listener = new Thread(worker::listen, "worker-" + i);
+				listener.setDaemon(true);
+				listener.start();
+			}
+		} catch (IOException e) {
+			close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Entry method for a distributed search
+	 * @param args options, see {@link DistributedSearch}
+	 * @throws Exception if the search can't be run
+	 */
+	public static void main(String[] args) throws Exception {
+		HashMap<String, String> options = SelfPlayMatch.parseOptions(args);
+		ChessBoard board;
+		if (options.containsKey("fen")) {
+			board = new ChessBoard(options.get("fen"));
+		} else {
+			board = new ChessBoard();
+			board.resetBoard();
+		}
+		int depth = Integer.parseInt(options.getOrDefault("depth", "0"));
+		long timeMs = Long.parseLong(options.getOrDefault("timeMs", depth > 0 ? "0" : "10000"));
+		int lines = Integer.parseInt(options.getOrDefault("lines", "3"));
+
+		try (DistributedSearch coordinator = new DistributedSearch(
+				Integer.parseInt(options.getOrDefault("workers", "" + Math.max(2, Runtime.getRuntime().availableProcessors() / 2))),
+				Integer.parseInt(options.getOrDefault("remoteWorkers", "0")),
+				Integer.parseInt(options.getOrDefault("port", "0")),
+				Integer.parseInt(options.getOrDefault("shareDepth", "" + DEFAULT_SHARE_DEPTH)))) {
+			coordinator.depthListener = (completed, pvLines) -> System.out.println("depth " + completed + ": "
+					+ describe(board, pvLines.subList(0, Math.min(lines, pvLines.size()))));
+			MultiPvResult result = coordinator.search(board, new SearchLimits(depth, timeMs, 0));
+			System.out.printf("%d nodes in %d ms with %d workers%n", result.nodes(), result.timeMs(), coordinator.workers.size());
+		}
+		System.exit(0);
+	}
+
+	/**
+	 * Describe lines for printing
+	 * @param board the board they start from
+	 * @param lines the lines
+	 * @return each line's score and principal variation
+	 */
+	private static String describe(ChessBoard board, List<PvLine> lines) {
+		StringBuilder text = new StringBuilder();
+		for (PvLine line : lines) {
+			text.append("\n  ").append(line.score());
+			ChessBoard lineBoard = board;
+			for (Move move : line.pv()) {
+				text.append(' ').append(Notation.toSan(lineBoard, move));
+				lineBoard = new ChessBoard(lineBoard, move);
+			}
+		}
+		return text.toString();
+	}
+
+	/**
+	 * Search a position across the workers. Only node limits aren't supported, as no one worker knows the total
+	 * @param board the position
+	 * @param limits depth and time limits
+	 * @return every root move's line at each depth all of them completed, best first
+	 * @throws InterruptedException if interrupted while waiting for the workers
+	 */
+	MultiPvResult search(ChessBoard board, SearchLimits limits) throws InterruptedException {
+		long start = System.currentTimeMillis();
+		List<Move> rootMoves = new ArrayList<>();
+		MovePicker picker = new MovePicker(board, null, new Move[0]);
+		for (Move move = picker.next(); move != null; move = picker.next())
+			rootMoves.add(move);
+		if (rootMoves.isEmpty())
+			return new MultiPvResult(List.of(), 0, 0);
+
+		synchronized (this) {
+			Search current = new Search(++lastId, board, limits, rootMoves);
+			search = current;
+			List<Integer> all = new ArrayList<>();
+			for (int i = 0; i < rootMoves.size(); i++)
+				all.add(i);
+			deal(current, all);
+			try {
+				if (!awaitWorkers(current)) {
+					for (Worker worker : workers)
+						if (!worker.lost)
+							worker.send(out -> out.writeByte(DistributedProtocol.STOP));
+				}
+			} finally {
+				search = null;
+			}
+
+			List<List<PvLine>> depths = new ArrayList<>();
+			for (int depth = 1; depth <= MoveSearcher.MAX_DEPTH; depth++) {
+				List<PvLine> lines = completedDepth(current, depth);
+				if (lines == null)
+					break;
+				depths.add(lines);
+			}
+			return new MultiPvResult(depths, current.nodes, System.currentTimeMillis() - start);
+		}
+	}
+
+	/**
+	 * Deal root moves out in order between the workers still connected, so every worker gets a share of the likeliest
+	 * best moves. Call while synchronized
+	 * @param current the search
+	 * @param indices the moves' indices among the root moves, likeliest best first
+	 */
+	private void deal(Search current, List<Integer> indices) {
+		List<Worker> connected = new ArrayList<>();
+		for (Worker worker : workers)
+			if (!worker.lost)
+				connected.add(worker);
+		long timeMs = current.deadline == 0 ? 0 : Math.max(1, current.deadline - System.currentTimeMillis());
+		for (int w = 0; w < connected.size() && w < indices.size(); w++) {
+			List<Integer> share = new ArrayList<>();
+			for (int i = w; i < indices.size(); i += connected.size())
+				share.add(indices.get(i));
+			Worker worker = connected.get(w);
+			current.shares.computeIfAbsent(worker, key -> new ArrayDeque<>()).add(share);
+			current.outstanding++;
+			worker.send(out -> {
+				out.writeByte(DistributedProtocol.SEARCH);
+				out.writeInt(current.id);
+				DistributedProtocol.writePosition(out, current.board);
+				out.writeInt(current.depthLimit);
+				out.writeLong(timeMs);
+				out.writeShort(share.size());
+				for (int index : share) {
+					DistributedProtocol.writeMove(out, current.rootMoves.get(index));
+					out.writeShort(index);
+				}
+			});
+		}
+	}
+
+	/**
+	 * Wait for the workers to finish every share of a search, or until its time limit and {@link #REPORT_GRACE_MS}
+	 * have passed. Call while synchronized
+	 * @param current the search
+	 * @return whether every share was finished
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	private boolean awaitWorkers(Search current) throws InterruptedException {
+		long end = current.deadline == 0 ? 0 : current.deadline + REPORT_GRACE_MS;
+		while (current.outstanding > 0) {
+			if (end == 0) {
+				wait();
+			} else {
+				long remaining = end - System.currentTimeMillis();
+				if (remaining <= 0)
+					return false;
+				wait(remaining);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Record a line reported by a worker, and tell {@link #depthListener} if it completes a depth
+	 * @param id the search it belongs to
+	 * @param moveIndex the root move's index
+	 * @param depth the depth it was searched to
+	 * @param line the line
+	 */
+	private void progress(int id, int moveIndex, int depth, PvLine line) {
+		List<PvLine> completed;
+		synchronized (this) {
+			if (search == null || search.id != id || depth > MoveSearcher.MAX_DEPTH)
+				return;
+			search.lines[moveIndex][depth] = line;
+			completed = depth > search.reportedDepth ? completedDepth(search, depth) : null;
+			if (completed != null)
+				search.reportedDepth = depth;
+		}
+		BiConsumer<Integer, List<PvLine>> listener = depthListener;
+		if (completed != null && listener != null)
+			listener.accept(depth, completed);
+	}
+
+	/**
+	 * Record a worker finishing its oldest share of a search
+	 * @param worker the worker
+	 * @param id the search
+	 * @param nodes the nodes the worker searched
+	 */
+	private synchronized void done(Worker worker, int id, long nodes) {
+		if (search == null || search.id != id)
+			return;
+		search.nodes += nodes;
+		ArrayDeque<List<Integer>> shares = search.shares.get(worker);
+		if (shares != null && shares.poll() != null) {
+			search.outstanding--;
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Stop using a worker whose connection failed, and deal the moves it hadn't finished out to the rest. If none are
+	 * left, the search ends with the depths completed so far
+	 * @param worker the worker
+	 * @param e why its connection failed
+	 */
+	private synchronized void lost(Worker worker, IOException e) {
+		if (worker.lost)
+			return;
+		worker.lost = true;
+		if (worker.socket.isClosed())
+			return; // Closed by close()
+		System.err.println("Lost a worker: " + e);
+		try {
+			worker.socket.close();
+		} catch (IOException closeFailure) {
+			// Already unusable
+		}
+		if (search == null)
+			return;
+		ArrayDeque<List<Integer>> shares = search.shares.remove(worker);
+		if (shares == null || shares.isEmpty())
+			return;
+		List<Integer> unfinished = new ArrayList<>();
+		for (List<Integer> share : shares)
+			unfinished.addAll(share);
+		unfinished.sort(null);
+		search.outstanding -= shares.size();
+		deal(search, unfinished);
+		notifyAll();
+	}
+
+	/**
+	 * The lines of every root move at a depth, if they have all been searched to it. Call while synchronized
+	 * @param current the search
+	 * @param depth the depth
+	 * @return the lines, best first, or null if the depth isn't complete
+	 */
+	private static List<PvLine> completedDepth(Search current, int depth) {
+		List<PvLine> lines = new ArrayList<>();
+		for (PvLine[] moveLines : current.lines) {
+			if (moveLines[depth] == null)
+				return null;
+			lines.add(moveLines[depth]);
+		}
+		lines.sort((a, b) -> current.board.isWhiteTurn ? Integer.compare(b.score(), a.score()) : Integer.compare(a.score(), b.score()));
+		return lines;
+	}
+
+	/**
+	 * Tell every worker to quit and close the connections
+	 * @throws IOException if the server socket can't be closed
+	 */
+	@Override
+	public void close() throws IOException {
+		for (Worker worker : workers) {
+			worker.send(out -> out.writeByte(DistributedProtocol.QUIT));
+			worker.socket.close();
+		}
+		for (Process process : processes) {
+			try {
+				if (!process.waitFor(2, TimeUnit.SECONDS))
+					process.destroy();
+			} catch (InterruptedException e) {
+				process.destroy();
+				Thread.currentThread().interrupt();
+			}
+		}
+		server.close();
+	}
+}
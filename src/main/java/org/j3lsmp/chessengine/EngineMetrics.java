@@ -0,0 +1,50 @@
+package org.j3lsmp.chessengine;
+
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+
+/**
+ * Publishes the engine's state to Micrometer, and from there to the Prometheus endpoint at
+ * <code>/actuator/prometheus</code>. Request latency for each api endpoint is already recorded by Spring as
+ * <code>http.server.requests</code>, with histogram buckets switched on in <code>application.properties</code>
+ *
+ * <p>Node and evaluation counters are added to as each search finishes, so engine speed is their rate, e.g.
+ * <code>rate(chess_search_nodes_total[1m])</code>
+ *
+ * @author Jaden
+ * @since 0.0.1
+ */
+@Component
+class EngineMetrics implements MeterBinder {
+
+	/**
+	 * Registers every engine meter
+	 * @param registry the registry to add to, provided by Spring
+	 */
+	@Override
+	public void bindTo(MeterRegistry registry) {
+		new ExecutorServiceMetrics(MoveSearcher.threadPool, "search", Tags.empty()).bindTo(registry);
+
+		Gauge.builder("chess.search.active", MoveSearcher.activeSearches, Number::doubleValue)
+				.description("Searches currently running").register(registry);
+		FunctionCounter.builder("chess.search.completed", MoveSearcher.totalSearches, Number::doubleValue)
+				.description("Searches finished since startup").register(registry);
+		FunctionCounter.builder("chess.search.nodes", MoveSearcher.totalNodes, Number::doubleValue)
+				.description("Boards visited by finished searches").register(registry);
+		FunctionCounter.builder("chess.search.evaluations", MoveSearcher.totalEvaluations, Number::doubleValue)
+				.description("Boards statically evaluated by finished searches").register(registry);
+
+		Gauge.builder("chess.transposition.entries", MoveSearcher.engine.transpositionTable, TranspositionTable::size)
+				.description("Positions stored in the api engine's transposition table").register(registry);
+		Gauge.builder("chess.pawnhash.hit.ratio", MoveSearcher.pawnHashTable, PawnHashTable::hitRate)
+				.description("Fraction of pawn hash table probes that found a stored score").register(registry);
+		Gauge.builder("chess.evalcache.hit.ratio", MoveSearcher.evaluationCache, EvaluationCache::hitRate)
+				.description("Fraction of evaluation cache probes that found a stored score").register(registry);
+	}
+}
@@ -0,0 +1,29 @@
+package org.j3lsmp.chessengine;
+
+/**
+ * A fixed-size table caching static evaluations, mapped from zobrist hashes of board states. The same leaf is often
+ * reached through different move orders, and the quiescence search evaluates boards the main search's
+ * {@link TranspositionTable} never stores, so this catches repeats the transposition table doesn't. It holds nothing
+ * but scores, so it's far smaller per entry and sized on its own
+ *
+ * <p>Scores don't depend on the search, so entries stay valid between searches; the table is only wrong if the
+ * evaluation itself changes, as when {@link MoveSearcher#network} or {@link EvaluationParameters} are loaded, which
+ * happens before any search
+ *
+ * @author Jaden
+ * @since 0.0.1
+ */
+class EvaluationCache extends ScoreTable {
+	/**
+	 * Default number of entries, a power of two, 8 bytes each
+	 */
+	static final int DEFAULT_SIZE = 1 << 18;
+
+	/**
+	 * Constructs an empty table
+	 * @param size the number of entries, rounded up to a power of two
+	 */
+	EvaluationCache(int size) {
+		super(size);
+	}
+}
@@ -0,0 +1,94 @@
+package org.j3lsmp.chessengine;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Reads and writes the evaluation's tunable values, {@link BoardFields#PIECE_VALUES} and the piece-square tables, as a
+ * text file of <code>NAME = value, value, ...</code> lines, one per array, with <code>#</code> comments and a
+ * backslash at the end of a line continuing it. Loading copies the values into the arrays in place, so it should
+ * happen at startup before any search. Loaded by {@link ChessEngineApplication} from the <code>chess.eval.parameters</code>
+ * property, and written by {@link TexelTuner}
+ *
+ * @author Jaden
+ * @since 0.0.1
+ */
+class EvaluationParameters {
+	/**
+	 * The names of the tunable arrays, as written in a parameter file
+	 */
+	static final String[] NAMES = {"PIECE_VALUES", "PAWN_TABLE", "KNIGHT_TABLE", "BISHOP_TABLE", "ROOK_TABLE",
+			"QUEEN_TABLE", "KING_TABLE"};
+
+	/**
+	 * The tunable arrays, in the order of {@link #NAMES}
+	 * @return the arrays themselves, not copies
+	 */
+	static int[][] arrays() {
+		return new int[][] {BoardFields.PIECE_VALUES, BoardFields.PAWN_TABLE, BoardFields.KNIGHT_TABLE,
+				BoardFields.BISHOP_TABLE, BoardFields.ROOK_TABLE, BoardFields.QUEEN_TABLE, BoardFields.KING_TABLE};
+	}
+
+	/**
+	 * Load a parameter file into the evaluation. Arrays the file doesn't mention keep their values
+	 * @param path the file
+	 * @throws IOException if it can't be read, or names an unknown array or has the wrong number of values for one
+	 */
+	static void load(Path path) throws IOException {
+		int[][] arrays = arrays();
+		int[][] loaded = new int[arrays.length][];
+		List<String> lines = Files.readAllLines(path);
+		for (int lineNumber = 1; lineNumber <= lines.size(); lineNumber++) {
+			String line = lines.get(lineNumber - 1).strip();
+			if (line.isEmpty() || line.startsWith("#"))
+				continue;
+			// A line ending in a backslash continues on the next
+			while (line.endsWith("\\") && lineNumber < lines.size())
+				line = line.substring(0, line.length() - 1) + lines.get(lineNumber++).strip();
+			int equals = line.indexOf('=');
+			int index = equals < 0 ? -1 : List.of(NAMES).indexOf(line.substring(0, equals).strip());
+			if (index < 0)
+				throw new IOException(path + ":" + lineNumber + ": expected one of " + String.join(", ", NAMES));
+			String[] values = line.substring(equals + 1).split(",");
+			if (values.length != arrays[index].length)
+				throw new IOException(path + ":" + lineNumber + ": " + NAMES[index] + " needs " + arrays[index].length + " values");
+			loaded[index] = new int[values.length];
+			try {
+				for (int i = 0; i < values.length; i++)
+					loaded[index][i] = Integer.parseInt(values[i].strip());
+			} catch (NumberFormatException e) {
+				throw new IOException(path + ":" + lineNumber + ": " + e.getMessage());
+			}
+		}
+		// Only change anything once the whole file has been read
+		for (int i = 0; i < arrays.length; i++)
+			if (loaded[i] != null)
+				System.arraycopy(loaded[i], 0, arrays[i], 0, arrays[i].length);
+	}
+
+	/**
+	 * Write a parameter file
+	 * @param path the file
+	 * @param values the arrays' values, in the order of {@link #NAMES}
+	 * @param comment a comment for the top of the file
+	 * @throws IOException if it can't be written
+	 */
+	static void write(Path path, int[][] values, String comment) throws IOException {
+		try (BufferedWriter out = Files.newBufferedWriter(path)) {
+			for (String line : comment.split("\n"))
+				out.write("# " + line + "\n");
+			for (int i = 0; i < NAMES.length; i++) {
+				out.write("\n" + NAMES[i] + " =");
+				for (int j = 0; j < values[i].length; j++) {
+					// Tables one rank per line, a1 first
+					out.write(values[i].length == 64 && j % 8 == 0 ? " \\\n\t" : " ");
+					out.write(values[i][j] + (j < values[i].length - 1 ? "," : ""));
+				}
+				out.write("\n");
+			}
+		}
+	}
+}
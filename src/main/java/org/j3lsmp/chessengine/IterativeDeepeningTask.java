@@ -1,7 +1,6 @@
 package org.j3lsmp.chessengine;
 
 import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.List;
 import java.util.concurrent.RecursiveTask;
 
@@ -13,6 +12,17 @@ import java.util.concurrent.RecursiveTask;
  */
 @SuppressWarnings("serial")
 class IterativeDeepeningTask extends RecursiveTask<Integer> {
+	/**
+	 * Captures are skipped at this many plies from the horizon or fewer if they lose more than
+	 * {@link #SEE_PRUNING_MARGIN} per ply left, as the quiescence search below would hardly ever save them
+	 */
+	static final int SEE_PRUNING_DEPTH = 2;
+
+	/**
+	 * Centipawns a capture skipped near the horizon may lose, per ply left
+	 */
+	static final int SEE_PRUNING_MARGIN = 100;
+	
 	/**
 	 * The board to evaluate
 	 */
@@ -24,9 +34,14 @@ class IterativeDeepeningTask extends RecursiveTask<Integer> {
 	private final int depth, alpha, beta;
 	
 	/**
-	 * Values used to terminate after specified time
+	 * The distance of this task's board from the root of the search
 	 */
-	private final long startTime, timeLimitMs;
+	private final int ply;
+	
+	/**
+	 * State shared by every task of this search, including when to terminate
+	 */
+	private final SearchContext context;
 	
 	/**
 	 * The current best-move-found
@@ -37,18 +52,18 @@ class IterativeDeepeningTask extends RecursiveTask<Integer> {
 	 * Initializes an iterative task with the given parameters
 	 * @param board the board to execute on
 	 * @param depth the current remaining depth
+	 * @param ply the distance from the root of the search
 	 * @param alpha the current alpha value for pruning
 	 * @param beta the current beta value for pruning
-	 * @param startTime the time this move calculation started
-	 * @param timeLimitMs the allocated time for this move calculation in milliseconds
+	 * @param context the state of the search this task is part of
 	 */
-	IterativeDeepeningTask(ChessBoard board, int depth, int alpha, int beta, long startTime, long timeLimitMs) {
+	IterativeDeepeningTask(ChessBoard board, int depth, int ply, int alpha, int beta, SearchContext context) {
 		this.board = board;
 		this.depth = depth;
+		this.ply = ply;
 		this.alpha = alpha;
 		this.beta = beta;
-		this.startTime = startTime;
-		this.timeLimitMs = timeLimitMs;
+		this.context = context;
 	}
 	
 	/**
@@ -56,9 +71,10 @@ class IterativeDeepeningTask extends RecursiveTask<Integer> {
 	 */
 	@Override
 	protected Integer compute() {
-		if (System.currentTimeMillis() - startTime >= timeLimitMs) {
+		if (context.shouldStop()) {
 			return 0;
 		}
+		context.nodes.increment();
 		return alphaBeta(board, depth, alpha, beta);
 	}
 	
@@ -73,11 +89,14 @@ class IterativeDeepeningTask extends RecursiveTask<Integer> {
 	 */
 	private int alphaBeta(ChessBoard board, int depth, int alpha, int beta) {
 		if (depth == 0 /* TODO || board.isGameOver()*/)
-			return board.calculateBoardValue();
+			return quiescence(board, ply, alpha, beta);
 		
+		// The window this node was asked about, to tell which kind of bound its result is once the loop has narrowed it
+		int originalAlpha = alpha, originalBeta = beta;
 		long zobristKey = board.computeZobristHash();
-		TranspositionEntry entry = MoveSearcher.transpositionTable.get(zobristKey);
+		TranspositionEntry entry = context.searcher.transpositionTable.get(zobristKey);
 		if (entry != null && entry.depth >= depth) {
+			this.bestMove = entry.move;
 			if (entry.flag == TranspositionEntry.EXACT)
 				return entry.value;
 			else if (entry.flag == TranspositionEntry.LOWER_BOUND)
@@ -89,21 +108,26 @@ class IterativeDeepeningTask extends RecursiveTask<Integer> {
 				return entry.value;
 		}
 		
-		HashSet<Move> moves = board.generateMoves();
-		if (moves.isEmpty())
-			return board.isWhiteTurn ? Integer.MIN_VALUE : Integer.MAX_VALUE; //TODO: add check for stalemate, return 0 if so
-		
 		Move bestMoveLocal = null;
 		int bestValue = board.isWhiteTurn ? Integer.MIN_VALUE : Integer.MAX_VALUE;
 		
 		List<UpcomingTask> tasks = new ArrayList<>();
+		MovePicker picker = new MovePicker(board, entry != null ? entry.move : null,
+				ply < MoveSearcher.MAX_PLY ? context.killerMoves[ply] : new Move[0]);
+		int movesSearched = 0;
+		boolean pruneCaptures = depth <= SEE_PRUNING_DEPTH && !board.isInCheck();
 		
-		for (Move move : moves) {
-			MoveSearcher.futuresConsidered++;
+		for (Move move = picker.next(); move != null; move = picker.next()) {
+			movesSearched++;
+			// There's always a first move to fall back on, so pruning never mistakes a position for mate
+			if (pruneCaptures && movesSearched > 1 && board.isCapture(move)
+					&& !board.staticExchangeAtLeast(move, -SEE_PRUNING_MARGIN * depth))
+				continue;
 			ChessBoard nextBoard = new ChessBoard(board, move);
-			IterativeDeepeningTask task = new IterativeDeepeningTask(nextBoard, depth - 1, alpha, beta, startTime, timeLimitMs);
+			IterativeDeepeningTask task = new IterativeDeepeningTask(nextBoard, depth - 1, ply + 1, alpha, beta, context);
 			
-			if (depth >= 3) {
+			// The first move is searched alone, it's the likeliest to cause a cutoff and spare generating the rest
+			if (context.searcher.parallel && depth >= 3 && movesSearched > 1) {
 				task.fork();
 				tasks.add(new UpcomingTask(task, move));
 			} else {
@@ -119,11 +143,21 @@ class IterativeDeepeningTask extends RecursiveTask<Integer> {
 				else
 					beta = Math.min(beta, eval);
 				
-				if (alpha >= beta)
+				if (alpha >= beta) {
+					if (!board.isCapture(move))
+						context.storeKiller(ply, move);
 					break;
+				}
 			}
 		}
 		
+		if (movesSearched == 0) {
+			if (!board.isInCheck())
+				return 0; // Stalemate
+			// Checkmate, preferring the mate with the most depth remaining, that is the quickest one
+			return board.isWhiteTurn ? -MoveSearcher.MATE_VALUE - depth : MoveSearcher.MATE_VALUE + depth;
+		}
+		
 		for (UpcomingTask task : tasks) {
 			int eval = task.task().join();
 			if ((board.isWhiteTurn && eval > bestValue) || (!board.isWhiteTurn && eval < bestValue)) {
@@ -136,16 +170,77 @@ class IterativeDeepeningTask extends RecursiveTask<Integer> {
 			else
 				beta = Math.min(beta, eval);
 			
-			if (alpha >= beta)
+			if (alpha >= beta) {
+				if (!board.isCapture(task.move()))
+					context.storeKiller(ply, task.move());
 				break;
+			}
 		}
 		
-		int flag = (bestValue <= alpha) ? TranspositionEntry.UPPER_BOUND
-				: (bestValue >= beta) ? TranspositionEntry.LOWER_BOUND
+		int flag = (bestValue <= originalAlpha) ? TranspositionEntry.UPPER_BOUND
+				: (bestValue >= originalBeta) ? TranspositionEntry.LOWER_BOUND
 				: TranspositionEntry.EXACT;
-		MoveSearcher.transpositionTable.put(zobristKey, new TranspositionEntry(bestValue, depth, flag));
+		context.searcher.transpositionTable.put(zobristKey, new TranspositionEntry(bestValue, depth, flag, bestMoveLocal));
 
 		this.bestMove = bestMoveLocal;
 		return bestValue;
 	}
+	
+	/**
+	 * Search only captures past the horizon, until the position is quiet, so the evaluation isn't taken in the middle
+	 * of an exchange. The side to move can stand pat on the evaluation instead of capturing, and captures that lose
+	 * material by {@link ChessBoard#staticExchangeAtLeast(Move, int) static exchange evaluation} aren't searched at all.
+	 * In check every move is searched, as standing pat isn't an option
+	 * 
+	 * @param board the board to evaluate
+	 * @param ply the distance from the root of the search
+	 * @param alpha the current alpha value for pruning
+	 * @param beta the current beta value for pruning
+	 * @return the numeric evaluation of the board state reached, negative favors black, positive favors white
+	 */
+	private int quiescence(ChessBoard board, int ply, int alpha, int beta) {
+		boolean inCheck = board.isInCheck();
+		int bestValue = board.isWhiteTurn ? Integer.MIN_VALUE : Integer.MAX_VALUE;
+		if (!inCheck || ply >= MoveSearcher.MAX_PLY) {
+			long hash = board.computeZobristHash();
+			bestValue = MoveSearcher.evaluationCache.get(hash);
+			if (bestValue != EvaluationCache.MISSING) {
+				context.evaluationCacheHits.increment();
+			} else {
+				context.evaluations.increment();
+				bestValue = board.calculateBoardValue();
+				MoveSearcher.evaluationCache.put(hash, bestValue);
+			}
+			if (ply >= MoveSearcher.MAX_PLY)
+				return bestValue;
+			if (board.isWhiteTurn)
+				alpha = Math.max(alpha, bestValue);
+			else
+				beta = Math.min(beta, bestValue);
+			if (alpha >= beta)
+				return bestValue;
+		}
+		
+		MovePicker picker = inCheck ? new MovePicker(board, null, new Move[0]) : new MovePicker(board);
+		boolean anyMove = false;
+		for (Move move = picker.next(); move != null; move = picker.next()) {
+			if (context.shouldStop())
+				return 0;
+			anyMove = true;
+			context.nodes.increment();
+			int eval = quiescence(new ChessBoard(board, move), ply + 1, alpha, beta);
+			if ((board.isWhiteTurn && eval > bestValue) || (!board.isWhiteTurn && eval < bestValue))
+				bestValue = eval;
+			if (board.isWhiteTurn)
+				alpha = Math.max(alpha, eval);
+			else
+				beta = Math.min(beta, eval);
+			if (alpha >= beta)
+				break;
+		}
+		
+		if (inCheck && !anyMove)
+			return board.isWhiteTurn ? -MoveSearcher.MATE_VALUE : MoveSearcher.MATE_VALUE;
+		return bestValue;
+	}
 }
\ No newline at end of file
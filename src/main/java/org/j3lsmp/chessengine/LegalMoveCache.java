@@ -0,0 +1,53 @@
+package org.j3lsmp.chessengine;
+
+/**
+ * Remembers the legal moves of the position being played, so the api can answer which squares a piece may move to
+ * without generating every move of the board on each click. Moves are kept as the destinations reachable from each
+ * origin square, built once per position however many clients ask at once
+ * 
+ * @author Jaden
+ * @since 0.0.1
+ */
+class LegalMoveCache {
+	/**
+	 * The legal moves of one position
+	 * @param zobristKey the zobrist hash of the position
+	 * @param destinations bitboards of the squares reachable from each origin square
+	 */
+	private record Entry(long zobristKey, long[] destinations) {}
+
+	/**
+	 * The position cached last, or null if none
+	 */
+	private volatile Entry entry;
+
+	/**
+	 * The squares each piece on a board can move to
+	 * @param board the board
+	 * @return bitboards of the squares reachable from each origin square, indexed 0-63. Not to be modified
+	 */
+	long[] destinations(ChessBoard board) {
+		long zobristKey = board.computeZobristHash();
+		Entry cached = entry;
+		if (cached != null && cached.zobristKey() == zobristKey)
+			return cached.destinations();
+
+		synchronized (this) {
+			cached = entry; // Another viewer may have built it while this one waited
+			if (cached != null && cached.zobristKey() == zobristKey)
+				return cached.destinations();
+			long[] destinations = new long[64];
+			for (Move move : board.generateMoves())
+				destinations[Long.numberOfTrailingZeros(move.from())] |= move.to();
+			entry = new Entry(zobristKey, destinations);
+			return destinations;
+		}
+	}
+
+	/**
+	 * Forget the cached position, once a move is made on it
+	 */
+	void invalidate() {
+		entry = null;
+	}
+}
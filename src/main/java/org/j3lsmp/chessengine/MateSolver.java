@@ -0,0 +1,429 @@
+package org.j3lsmp.chessengine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Finds forced mates with depth-first proof-number search (df-pn), far faster than {@link MoveSearcher}'s full-width
+ * alpha-beta can. Instead of searching every move to a fixed depth, it keeps for each board a proof number, how many
+ * more boards at least must be shown lost for the defender to prove a mate, and a disproof number, how many must be
+ * shown to escape it, and always expands the board that's cheapest to settle. Forcing lines, where the defender has
+ * few replies, are cheap to prove and so are searched first and deepest
+ *
+ * <p>Mates in 1, 2, ... moves are looked for in turn up to the limit, so the first one found is the shortest. Only
+ * the attacker's side of the tree is limited; the defender may play anything. Boards are numbered from the side to
+ * move at the root, which is the attacker, so a board is proven when the attacker mates in time from it
+ *
+ * <p>Proof and disproof numbers are kept in a fixed size table of 4 entry buckets, keyed by the board's zobrist hash
+ * and how many plies are left, so memory is bounded whatever the search does. Each entry also keeps how many boards
+ * were searched beneath it, and a full bucket replaces its least searched entry. When a board is settled its unsettled
+ * children can never matter again, so their entries are dropped straight away, and when the table is nearly full the
+ * least searched half of it is cleared, as those are the cheapest to search again if they're needed. Repetitions and
+ * the fifty move rule aren't seen
+ *
+ * @author Jaden
+ * @since 0.0.1
+ * @see <a href="https://www.chessprogramming.org/Proof-Number_Search">Reference</a>
+ * @see <a href="https://www.chessprogramming.org/Dfpn">df-pn</a>
+ */
+class MateSolver {
+	/**
+	 * Table entries by default, 24 bytes each
+	 */
+	static final int DEFAULT_CAPACITY = 1 << 20;
+
+	/**
+	 * Longest mate looked for when a request doesn't say, in moves of the attacker
+	 */
+	static final int DEFAULT_MAX_MOVES = 8;
+
+	/**
+	 * Longest mate that can be looked for, in moves of the attacker
+	 */
+	static final int MAX_MOVES = 32;
+
+	/**
+	 * A proof or disproof number of a settled board. Proven boards have a proof number of 0 and a disproof number of
+	 * this, and disproven boards the other way round
+	 */
+	static final int INFINITE = 1 << 30;
+
+	/**
+	 * Starting proof number of a defender's board that isn't in check, as it's likely to have many replies. In check,
+	 * it starts as the number of replies
+	 */
+	private static final int QUIET_PROOF = 8;
+
+	/**
+	 * Entries in each bucket of the table
+	 */
+	private static final int BUCKET = 4;
+
+	/**
+	 * Boards searched between checks of the time
+	 */
+	private static final int CHECK_INTERVAL = 1024;
+
+	/**
+	 * Mixed into a board's hash for each number of plies left, so the same board with more or less time to mate in is
+	 * a different entry
+	 */
+	private static final long[] PLY_KEYS = new long[2 * MAX_MOVES];
+
+	static {
+		Random random = new Random(0x6d61746573l);
+		for (int i = 0; i < PLY_KEYS.length; i++)
+			PLY_KEYS[i] = random.nextLong();
+	}
+
+	/**
+	 * A solved, or unsolved, position
+	 * @param line the mate, the attacker's moves and the defender's longest replies, or empty if none was found
+	 * @param mateIn the attacker's moves to mate, or 0 if none was found
+	 * @param proven whether every mate shorter than the limit was ruled out, if none was found, or false if the search
+	 * stopped first
+	 * @param nodes boards searched
+	 * @param timeMs how long the search took, in milliseconds
+	 */
+	record MateResult(List<Move> line, int mateIn, boolean proven, long nodes, long timeMs) {
+		/**
+		 * Whether a mate was found
+		 * @return true if {@link #line()} mates
+		 */
+		boolean found() {
+			return mateIn > 0;
+		}
+	}
+
+	/**
+	 * The table: keys, proof and disproof numbers, boards searched beneath and the best move of each entry. An entry
+	 * with nothing searched beneath it is empty
+	 */
+	private final long[] keys;
+	private final int[] proofs, disproofs, work, bestMoves;
+
+	/**
+	 * Entries in use, and how many may be before the table is collected
+	 */
+	private int entries;
+	private final int collectAt;
+
+	/**
+	 * Boards searched by the current search
+	 */
+	private long nodes;
+
+	/**
+	 * Limits of the current search, as a time and a node count, 0 for none
+	 */
+	private long deadline, nodeLimit;
+
+	/**
+	 * Phi and delta of the board the last call to {@link #search} returned from, in case the table has already lost
+	 * them
+	 */
+	private int lastPhi, lastDelta;
+
+	/**
+	 * Set to end the current search early, by its caller or once it runs out of time or nodes
+	 */
+	private AtomicBoolean stopped;
+
+	/**
+	 * Creates a solver with an empty table
+	 * @param capacity entries the table holds, rounded down to a whole bucket
+	 */
+	MateSolver(int capacity) {
+		int size = Math.max(BUCKET, Integer.highestOneBit(capacity));
+		keys = new long[size];
+		proofs = new int[size];
+		disproofs = new int[size];
+		work = new int[size];
+		bestMoves = new int[size];
+		collectAt = size - size / 8;
+	}
+
+	/**
+	 * Look for the shortest forced mate for the side to move
+	 * @param board the position
+	 * @param maxMoves the longest mate to look for, in moves of the side to move, at most {@link #MAX_MOVES}
+	 * @param limits when to give up, by time and nodes. The depth is ignored
+	 * @return the mate found, if any
+	 */
+	MateResult solve(ChessBoard board, int maxMoves, SearchLimits limits) {
+		return solve(board, maxMoves, limits, new AtomicBoolean());
+	}
+
+	/**
+	 * Look for the shortest forced mate for the side to move, until stopped
+	 * @param board the position
+	 * @param maxMoves the longest mate to look for, in moves of the side to move, at most {@link #MAX_MOVES}
+	 * @param limits when to give up, by time and nodes. The depth is ignored
+	 * @param stop set by any thread to end the search, which returns what it's found so far. It's never cleared, so if
+	 * it's set before the search begins, perhaps while waiting for another search, the search returns at once
+	 * @return the mate found, if any
+	 */
+	synchronized MateResult solve(ChessBoard board, int maxMoves, SearchLimits limits, AtomicBoolean stop) {
+		long start = System.currentTimeMillis();
+		deadline = limits.timeMs() > 0 ? start + limits.timeMs() : 0;
+		nodeLimit = limits.nodes();
+		nodes = 0;
+		stopped = stop;
+		if (stopped.get())
+			return new MateResult(List.of(), 0, false, 0, 0);
+		clear(); // Entries from another position are only taking up room
+
+		long hash = board.computeZobristHash();
+		boolean proven = true;
+		for (int moves = 1; moves <= Math.min(maxMoves, MAX_MOVES) && !stopped.get(); moves++) {
+			int plies = 2 * moves - 1;
+			search(board, hash, plies, true, INFINITE, INFINITE);
+			int entry = find(hash ^ PLY_KEYS[plies]);
+			if (entry >= 0 && proofs[entry] == 0)
+				return new MateResult(line(board, plies), moves, true, nodes, System.currentTimeMillis() - start);
+			if (entry < 0 || disproofs[entry] != 0)
+				proven = false;
+		}
+		return new MateResult(List.of(), 0, proven && !stopped.get(), nodes, System.currentTimeMillis() - start);
+	}
+
+	/**
+	 * Search a board until its proof or disproof number reaches its threshold, in the phi and delta form of df-pn:
+	 * phi is the proof number at the attacker's boards and the disproof number at the defender's, and delta the other,
+	 * so every board is minimising its phi the same way
+	 * @param board the board
+	 * @param hash its zobrist hash
+	 * @param plies plies left for the attacker to mate in
+	 * @param attacking whether it's the attacker to move
+	 * @param phiThreshold give up once phi reaches this
+	 * @param deltaThreshold give up once delta reaches this
+	 */
+	private void search(ChessBoard board, long hash, int plies, boolean attacking, int phiThreshold, int deltaThreshold) {
+		if (++nodes % CHECK_INTERVAL == 0 && (deadline > 0 && System.currentTimeMillis() >= deadline
+				|| nodeLimit > 0 && nodes >= nodeLimit))
+			stopped.set(true);
+		long key = hash ^ PLY_KEYS[plies];
+		long startNodes = nodes;
+
+		List<Move> moves = new ArrayList<>(board.generateMoves());
+		if (moves.isEmpty() || plies == 0) {
+			// Mate or stalemate, or the attacker's run out of time
+			boolean mated = !attacking && moves.isEmpty() && board.isInCheck();
+			store(key, mated ? 0 : INFINITE, mated ? INFINITE : 0, 1, 0);
+			lastPhi = mated == attacking ? 0 : INFINITE;
+			lastDelta = INFINITE - lastPhi;
+			return;
+		}
+
+		int count = moves.size();
+		ChessBoard[] children = new ChessBoard[count];
+		long[] childHashes = new long[count], childKeys = new long[count];
+		int[] childPhis = new int[count], childDeltas = new int[count]; // Until the table has them
+		for (int i = 0; i < count; i++) {
+			children[i] = new ChessBoard(board, moves.get(i));
+			childHashes[i] = children[i].computeZobristHash();
+			childKeys[i] = childHashes[i] ^ PLY_KEYS[plies - 1];
+			int[] numbers = initialNumbers(children[i], plies - 1, !attacking);
+			childPhis[i] = numbers[0];
+			childDeltas[i] = numbers[1];
+		}
+
+		while (true) {
+			// Phi is the least delta of the children, delta the sum of their phis
+			int best = -1, phi = INFINITE, secondDelta = INFINITE;
+			long delta = 0;
+			for (int i = 0; i < count; i++) {
+				int entry = find(childKeys[i]);
+				if (entry >= 0) {
+					// The child is the other side to move, so its phi is this board's delta and the other way round
+					childPhis[i] = attacking ? disproofs[entry] : proofs[entry];
+					childDeltas[i] = attacking ? proofs[entry] : disproofs[entry];
+				}
+				delta += childPhis[i];
+				if (childDeltas[i] < phi) {
+					secondDelta = phi;
+					phi = childDeltas[i];
+					best = i;
+				} else if (childDeltas[i] < secondDelta) {
+					secondDelta = childDeltas[i];
+				}
+			}
+			// A sum only reaches infinity when one of the children did, so it doesn't look settled when it isn't
+			boolean settledDelta = false;
+			for (int childPhi : childPhis)
+				settledDelta |= childPhi >= INFINITE;
+			int sum = settledDelta ? INFINITE : (int) Math.min(delta, INFINITE - 1);
+
+			int bestMove = MonteCarloSearcher.encode(moves.get(best == -1 ? 0 : best));
+			if (sum == 0 && !attacking)
+				bestMove = longestDefence(childKeys, moves);
+			if (phi >= phiThreshold || sum >= deltaThreshold || stopped.get()) {
+				store(key, attacking ? phi : sum, attacking ? sum : phi, (int) Math.min(nodes - startNodes + 1, Integer.MAX_VALUE), bestMove);
+				if (phi == 0 || sum >= INFINITE)
+					dropUnsettled(childKeys);
+				lastPhi = phi;
+				lastDelta = sum;
+				return;
+			}
+			// Store before searching on, so boards reached again through another line see the latest numbers
+			store(key, attacking ? phi : sum, attacking ? sum : phi, 1, bestMove);
+
+			// Search the best child until it stops being best, give or take a quarter to save on switching back and forth
+			long childPhiThreshold = (long) deltaThreshold - sum + childPhis[best];
+			long childDeltaThreshold = Math.min(phiThreshold, secondDelta >= INFINITE ? INFINITE : secondDelta + secondDelta / 4 + 1);
+			search(children[best], childHashes[best], plies - 1, !attacking, (int) Math.min(childPhiThreshold, INFINITE),
+					(int) childDeltaThreshold);
+			childPhis[best] = lastPhi;
+			childDeltas[best] = lastDelta;
+		}
+	}
+
+	/**
+	 * Proof and disproof numbers, as phi and delta, for a board that hasn't been searched. Mates and boards the
+	 * attacker has run out of time at are settled straight away
+	 * @param board the board
+	 * @param plies plies left for the attacker to mate in
+	 * @param attacking whether it's the attacker to move
+	 * @return phi and delta
+	 */
+	private static int[] initialNumbers(ChessBoard board, int plies, boolean attacking) {
+		if (attacking)
+			return plies == 0 ? new int[] {INFINITE, 0} : new int[] {1, 1};
+		// The defender's phi is its disproof number and delta its proof number
+		if (!board.isInCheck())
+			return plies == 0 ? new int[] {0, INFINITE} : new int[] {1, QUIET_PROOF};
+		int replies = board.generateMoves().size();
+		if (replies == 0)
+			return new int[] {INFINITE, 0};
+		return plies == 0 ? new int[] {0, INFINITE} : new int[] {1, replies};
+	}
+
+	/**
+	 * The defender's reply that took the longest to prove lost, as a guess at the one that holds out longest
+	 * @param childKeys the keys of the boards after each reply
+	 * @param moves the replies
+	 * @return the reply, packed by {@link MonteCarloSearcher#encode(Move)}
+	 */
+	private int longestDefence(long[] childKeys, List<Move> moves) {
+		int best = 0, bestWork = -1;
+		for (int i = 0; i < childKeys.length; i++) {
+			int entry = find(childKeys[i]);
+			if (entry >= 0 && work[entry] > bestWork) {
+				best = i;
+				bestWork = work[entry];
+			}
+		}
+		return MonteCarloSearcher.encode(moves.get(best));
+	}
+
+	/**
+	 * Follow the best moves of a proven board through the table
+	 * @param board the board
+	 * @param plies plies the attacker has to mate in
+	 * @return the mate, stopping early if a board along it has been replaced in the table
+	 */
+	private List<Move> line(ChessBoard board, int plies) {
+		List<Move> line = new ArrayList<>();
+		for (; plies > 0; plies--) {
+			int entry = find(board.computeZobristHash() ^ PLY_KEYS[plies]);
+			if (entry < 0 || proofs[entry] != 0 || board.generateMoves().isEmpty())
+				break;
+			Move move = MonteCarloSearcher.decode(bestMoves[entry]);
+			line.add(move);
+			board = new ChessBoard(board, move);
+		}
+		return line;
+	}
+
+	/**
+	 * Find a board's entry in the table
+	 * @param key the board's hash mixed with its plies left
+	 * @return the entry, or -1 if it's not there
+	 */
+	private int find(long key) {
+		int bucket = (int) key & (keys.length - BUCKET);
+		for (int i = bucket; i < bucket + BUCKET; i++)
+			if (keys[i] == key && work[i] != 0)
+				return i;
+		return -1;
+	}
+
+	/**
+	 * Store a board's numbers, adding to the boards searched beneath it. A full bucket replaces its least searched
+	 * entry
+	 * @param key the board's hash mixed with its plies left
+	 * @param proof its proof number
+	 * @param disproof its disproof number
+	 * @param searched boards searched beneath it since it was last stored
+	 * @param bestMove the move to its best child, packed by {@link MonteCarloSearcher#encode(Move)}
+	 */
+	private void store(long key, int proof, int disproof, int searched, int bestMove) {
+		int bucket = (int) key & (keys.length - BUCKET);
+		int slot = -1;
+		for (int i = bucket; i < bucket + BUCKET; i++) {
+			if (keys[i] == key && work[i] != 0) {
+				slot = i;
+				break;
+			}
+			if (slot == -1 || work[i] < work[slot])
+				slot = i;
+		}
+		if (keys[slot] != key || work[slot] == 0) {
+			if (work[slot] == 0)
+				entries++;
+			keys[slot] = key;
+			work[slot] = 0;
+		}
+		proofs[slot] = proof;
+		disproofs[slot] = disproof;
+		work[slot] = (int) Math.min((long) work[slot] + searched, Integer.MAX_VALUE);
+		bestMoves[slot] = bestMove;
+		if (entries >= collectAt)
+			collect();
+	}
+
+	/**
+	 * Drop the entries of a settled board's children that aren't settled themselves, as nothing can need them now
+	 * @param childKeys the keys of the children
+	 */
+	private void dropUnsettled(long[] childKeys) {
+		for (long childKey : childKeys) {
+			int entry = find(childKey);
+			if (entry >= 0 && proofs[entry] != 0 && disproofs[entry] != 0) {
+				work[entry] = 0;
+				entries--;
+			}
+		}
+	}
+
+	/**
+	 * Clear the least searched half of the table, or a little more
+	 */
+	private void collect() {
+		// Count entries by the bit length of their work, and clear from the smallest up until half are gone
+		int[] counts = new int[33];
+		for (int entryWork : work)
+			if (entryWork != 0)
+				counts[32 - Integer.numberOfLeadingZeros(entryWork)]++;
+		int limit = 1, cleared = 0;
+		while (limit < counts.length && cleared < entries / 2)
+			cleared += counts[limit++];
+		long maxWork = 1l << (limit - 1);
+		for (int i = 0; i < work.length; i++)
+			if (work[i] != 0 && work[i] < maxWork) {
+				work[i] = 0;
+				entries--;
+			}
+	}
+
+	/**
+	 * Empty the table
+	 */
+	private void clear() {
+		Arrays.fill(work, 0);
+		entries = 0;
+	}
+}
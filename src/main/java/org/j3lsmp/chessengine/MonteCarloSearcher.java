@@ -0,0 +1,499 @@
+package org.j3lsmp.chessengine;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Monte Carlo tree search, an alternative to {@link MoveSearcher}'s alpha-beta that has a sensible move after even a
+ * handful of playouts and improves smoothly with more time. Each playout walks down the tree choosing children by PUCT,
+ * balancing how well a move has done against its prior and how rarely it's been tried, adds the board it reaches to the
+ * tree, and backs that board's {@link ChessBoard#calculateBoardValue() evaluation} up the path in place of a random
+ * playout. The most visited root move is played
+ *
+ * <p>Nodes live in parallel primitive arrays indexed by node, each node's children in one contiguous block, so the tree
+ * is a handful of large arrays rather than millions of objects. Several threads of {@link MoveSearcher#threadPool} run
+ * playouts on the same tree. A thread walking through a node adds a virtual loss to it until its playout is backed up,
+ * steering the other threads towards different lines. After a search the tree is kept, and the next search starts
+ * from the node of the board it's given if that's within two plies of the last root, so the playouts spent on the
+ * line actually played aren't wasted. The rest of the tree is dropped then, and if the tree fills up during a search
+ * playouts just evaluate where they stop. Repetitions and the fifty move rule aren't seen
+ *
+ * @author Jaden
+ * @since 0.0.1
+ * @see <a href="https://www.chessprogramming.org/Monte-Carlo_Tree_Search">Reference</a>
+ */
+class MonteCarloSearcher {
+	/**
+	 * Nodes the tree holds by default, about 30 bytes each
+	 */
+	static final int DEFAULT_CAPACITY = 1 << 20;
+
+	/**
+	 * Weight of the exploration term of PUCT, higher tries more moves
+	 */
+	static final double EXPLORATION = 1.5;
+
+	/**
+	 * Centipawns of evaluation mapped to a value of tanh(1), about 0.76. Values are in -1 to 1
+	 */
+	static final double VALUE_SCALE = 400;
+
+	/**
+	 * Centipawns of prior score per factor of e between two moves' priors
+	 */
+	static final double PRIOR_TEMPERATURE = 100;
+
+	/**
+	 * Losses a thread adds to each node on its path while its playout runs
+	 */
+	static final int VIRTUAL_LOSS = 3;
+
+	/**
+	 * How much worse than its parent an unvisited child is assumed to be
+	 */
+	static final double FIRST_PLAY_REDUCTION = 0.2;
+
+	/**
+	 * Longest path a playout follows before evaluating where it is, in plies
+	 */
+	private static final int MAX_PATH = 256;
+
+	/**
+	 * Values are summed as fixed point numbers with this many units to 1
+	 */
+	private static final long VALUE_UNIT = 1 << 20;
+
+	/**
+	 * Values of {@link #firstChild} for a node whose children haven't been added, and one whose children a thread is
+	 * adding. Children never start at 0, that's the root
+	 */
+	private static final int UNEXPANDED = 0, EXPANDING = -1;
+
+	/**
+	 * The root's node, which is always first
+	 */
+	private static final int ROOT = 0;
+
+	/**
+	 * Atomic access to the node arrays
+	 */
+	private static final VarHandle INTS = MethodHandles.arrayElementVarHandle(int[].class),
+			LONGS = MethodHandles.arrayElementVarHandle(long[].class);
+
+	/**
+	 * The move leading to each node, see {@link #encode(Move)}
+	 */
+	private final int[] move;
+
+	/**
+	 * Each node's prior, the share of its parent's playouts it's expected to deserve
+	 */
+	private final float[] prior;
+
+	/**
+	 * The index of each node's first child, or {@link #UNEXPANDED} or {@link #EXPANDING}
+	 */
+	private final int[] firstChild;
+
+	/**
+	 * How many children each node has, 0 for checkmate or stalemate once expanded
+	 */
+	private final short[] childCount;
+
+	/**
+	 * Playouts through each node, and virtual losses currently on it
+	 */
+	private final int[] visits, virtualLoss;
+
+	/**
+	 * Sum of each node's playout values, from the point of view of the player who moved into it, in
+	 * {@link #VALUE_UNIT}s
+	 */
+	private final long[] valueSum;
+
+	/**
+	 * Nodes in use
+	 */
+	private final AtomicInteger size = new AtomicInteger();
+
+	/**
+	 * Threads running playouts
+	 */
+	private final int threads;
+
+	/**
+	 * The board at the root of the tree
+	 */
+	private ChessBoard rootBoard;
+
+	/**
+	 * State of the running search: when it stops, how many playouts it may run and has run, evaluations made and the
+	 * longest path followed
+	 */
+	private volatile long deadline;
+	private long playoutLimit;
+	private final AtomicLong playouts = new AtomicLong();
+	private final LongAdder evaluations = new LongAdder();
+	private final AtomicInteger deepest = new AtomicInteger();
+
+	/**
+	 * Creates a searcher with an empty tree
+	 * @param capacity the most nodes the tree can hold
+	 * @param threads threads running playouts
+	 */
+	MonteCarloSearcher(int capacity, int threads) {
+		this.move = new int[capacity];
+		this.prior = new float[capacity];
+		this.firstChild = new int[capacity];
+		this.childCount = new short[capacity];
+		this.visits = new int[capacity];
+		this.virtualLoss = new int[capacity];
+		this.valueSum = new long[capacity];
+		this.threads = threads;
+	}
+
+	/**
+	 * Search the specified board until the time or node limit is reached, a node being one playout. The depth limit is
+	 * ignored. Only one search runs at a time
+	 * @param board the board to use, which isn't changed
+	 * @param limits when to stop searching
+	 * @return the most visited move, its value in centipawns with positive favoring white, the longest path followed
+	 * and statistics about the search. The move is null if there are no legal moves
+	 */
+	synchronized SearchResult search(ChessBoard board, SearchLimits limits) {
+		long start = System.currentTimeMillis();
+		MoveSearcher.activeSearches.incrementAndGet();
+		try {
+			setRoot(board);
+			deadline = limits.timeMs() > 0 ? start + limits.timeMs() : Long.MAX_VALUE;
+			playoutLimit = limits.nodes() > 0 ? limits.nodes() : Long.MAX_VALUE;
+			playouts.set(0);
+			evaluations.reset();
+			deepest.set(0);
+			// However short the time, the root's moves are needed to have one to play
+			if (firstChild[ROOT] == UNEXPANDED) {
+				playouts.incrementAndGet();
+				playout(new int[MAX_PATH + 1]);
+			}
+
+			List<ForkJoinTask<?>> workers = new ArrayList<>();
+			for (int thread = 0; thread < threads; thread++)
+				workers.add(MoveSearcher.threadPool.submit(this::runPlayouts));
+			for (ForkJoinTask<?> worker : workers)
+				worker.join();
+
+			int best = -1;
+			int first = firstChild[ROOT];
+			for (int child = first; first > 0 && child < first + childCount[ROOT]; child++)
+				if (best < 0 || visits[child] > visits[best] || (visits[child] == visits[best] && prior[child] > prior[best]))
+					best = child;
+			long timeMs = System.currentTimeMillis() - start;
+			MoveSearcher.totalSearches.increment();
+			MoveSearcher.totalNodes.add(playouts.get());
+			MoveSearcher.totalEvaluations.add(evaluations.sum());
+			if (best < 0)
+				return new SearchResult(null, 0, 0, playouts.get(), evaluations.sum(), 0, timeMs);
+			double value = Math.max(-0.999, Math.min(0.999, valueSum[best] / (double) VALUE_UNIT / Math.max(1, visits[best])));
+			int score = (int) Math.round(VALUE_SCALE * 0.5 * Math.log((1 + value) / (1 - value)));
+			return new SearchResult(decode(move[best]), rootBoard.isWhiteTurn ? score : -score, deepest.get(),
+					playouts.get(), evaluations.sum(), 0, timeMs);
+		} finally {
+			MoveSearcher.activeSearches.decrementAndGet();
+		}
+	}
+
+	/**
+	 * Point the root at the specified board. If it's the last root or within two plies of it the tree below it is kept
+	 * and moved to the front of the arrays, and otherwise a new tree is started
+	 * @param board the new root board
+	 */
+	private void setRoot(ChessBoard board) {
+		long hash = board.computeZobristHash();
+		int reused = -1;
+		if (rootBoard != null) {
+			if (rootBoard.computeZobristHash() == hash)
+				reused = ROOT;
+			int first = firstChild[ROOT];
+			for (int child = first; reused < 0 && first > 0 && child < first + childCount[ROOT]; child++) {
+				ChessBoard childBoard = new ChessBoard(rootBoard, decode(move[child]));
+				if (childBoard.computeZobristHash() == hash) {
+					reused = child;
+					break;
+				}
+				int grandchildren = firstChild[child];
+				for (int grandchild = grandchildren; grandchildren > 0
+						&& grandchild < grandchildren + childCount[child]; grandchild++)
+					if (new ChessBoard(childBoard, decode(move[grandchild])).computeZobristHash() == hash) {
+						reused = grandchild;
+						break;
+					}
+			}
+		}
+
+		rootBoard = new ChessBoard(board.toFen());
+		MoveSearcher.attachNetwork(rootBoard);
+		if (reused > ROOT) {
+			compact(reused);
+		} else if (reused < 0) {
+			size.set(1);
+			clear(ROOT, ROOT + 1);
+		}
+	}
+
+	/**
+	 * Move the tree below a node to the front of the arrays, breadth first so each node's children stay contiguous, and
+	 * make the node the root. Everything else is dropped
+	 * @param node the new root
+	 */
+	private void compact(int node) {
+		// New index to old index, and each kept node's first child in new indices
+		int[] order = new int[size.get()], first = new int[order.length];
+		order[0] = node;
+		int count = 1;
+		for (int i = 0; i < count; i++) {
+			int oldFirst = firstChild[order[i]];
+			if (oldFirst <= 0 || childCount[order[i]] == 0) {
+				// Unexpanded, or checkmate or stalemate with no children to move
+				first[i] = oldFirst <= 0 ? UNEXPANDED : oldFirst;
+				continue;
+			}
+			first[i] = count;
+			for (int child = oldFirst; child < oldFirst + childCount[order[i]]; child++)
+				order[count++] = child;
+		}
+
+		int[] ints = new int[count];
+		for (int[] array : new int[][] {move, visits, virtualLoss}) {
+			for (int i = 0; i < count; i++)
+				ints[i] = array[order[i]];
+			System.arraycopy(ints, 0, array, 0, count);
+		}
+		float[] floats = new float[count];
+		for (int i = 0; i < count; i++)
+			floats[i] = prior[order[i]];
+		System.arraycopy(floats, 0, prior, 0, count);
+		short[] shorts = new short[count];
+		for (int i = 0; i < count; i++)
+			shorts[i] = childCount[order[i]];
+		System.arraycopy(shorts, 0, childCount, 0, count);
+		long[] longs = new long[count];
+		for (int i = 0; i < count; i++)
+			longs[i] = valueSum[order[i]];
+		System.arraycopy(longs, 0, valueSum, 0, count);
+		System.arraycopy(first, 0, firstChild, 0, count);
+		size.set(count);
+	}
+
+	/**
+	 * Reset a block of nodes to unvisited and unexpanded
+	 * @param from the first node
+	 * @param to one past the last node
+	 */
+	private void clear(int from, int to) {
+		for (int node = from; node < to; node++) {
+			firstChild[node] = UNEXPANDED;
+			childCount[node] = 0;
+			visits[node] = 0;
+			virtualLoss[node] = 0;
+			valueSum[node] = 0;
+		}
+	}
+
+	/**
+	 * Run playouts until the search should stop, on one of the search's threads
+	 */
+	private void runPlayouts() {
+		int[] path = new int[MAX_PATH + 1];
+		while (System.currentTimeMillis() < deadline && playouts.getAndIncrement() < playoutLimit)
+			playout(path);
+		// Playouts are counted before they run, take back the one that didn't
+		playouts.updateAndGet(count -> Math.min(count, playoutLimit));
+	}
+
+	/**
+	 * Walk from the root to a board not yet in the tree, add it and back its value up the path
+	 * @param path where to record the path
+	 */
+	private void playout(int[] path) {
+		ChessBoard board = rootBoard;
+		int node = ROOT, length = 0;
+		path[length++] = node;
+		INTS.getAndAdd(virtualLoss, node, VIRTUAL_LOSS);
+		double value; // From the point of view of the player to move on the board reached
+
+		while (true) {
+			int first = (int) INTS.getVolatile(firstChild, node);
+			if (first == UNEXPANDED && INTS.compareAndSet(firstChild, node, UNEXPANDED, EXPANDING)) {
+				value = expand(node, board);
+				break;
+			} else if (first == UNEXPANDED || first == EXPANDING) {
+				// Another thread is adding this node's children, it won't take long, but it may need this thread's core
+				Thread.yield();
+				continue;
+			} else if (childCount[node] == 0) {
+				value = terminalValue(board);
+				break;
+			} else if (length > MAX_PATH) {
+				value = evaluate(board);
+				break;
+			}
+			node = select(node, first);
+			path[length++] = node;
+			INTS.getAndAdd(virtualLoss, node, VIRTUAL_LOSS);
+			board = new ChessBoard(board, decode(move[node]));
+		}
+
+		if (length - 1 > deepest.get())
+			deepest.accumulateAndGet(length - 1, Math::max);
+		// Each node holds its value for the player who moved into it, the opposite of whoever is to move on it
+		for (int i = length - 1; i >= 0; i--) {
+			value = -value;
+			INTS.getAndAdd(visits, path[i], 1);
+			LONGS.getAndAdd(valueSum, path[i], Math.round(value * VALUE_UNIT));
+			INTS.getAndAdd(virtualLoss, path[i], -VIRTUAL_LOSS);
+		}
+	}
+
+	/**
+	 * Choose the child to walk into by PUCT, counting virtual losses as playouts that were lost
+	 * @param node the node
+	 * @param first its first child
+	 * @return the child
+	 */
+	private int select(int node, int first) {
+		int parentVisits = visits[node] + virtualLoss[node];
+		double sqrtParent = Math.sqrt(Math.max(1, parentVisits));
+		// The node's own value is for the player who moved into it, its children are valued for the other player
+		double firstPlay = (visits[node] > 0 ? -valueSum[node] / (double) VALUE_UNIT / visits[node] : 0)
+				- FIRST_PLAY_REDUCTION;
+		int best = first;
+		double bestScore = Double.NEGATIVE_INFINITY;
+		for (int child = first; child < first + childCount[node]; child++) {
+			int tries = visits[child] + virtualLoss[child];
+			double q = tries == 0 ? firstPlay : (valueSum[child] / (double) VALUE_UNIT - virtualLoss[child]) / tries;
+			double score = q + EXPLORATION * prior[child] * sqrtParent / (1 + tries);
+			if (score > bestScore) {
+				bestScore = score;
+				best = child;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Add a node's children to the tree with their priors, and evaluate its board. If the tree is full the node is left
+	 * unexpanded and only evaluated
+	 * @param node the node, which this thread has marked {@link #EXPANDING}
+	 * @param board its board
+	 * @return its value for the player to move
+	 */
+	private double expand(int node, ChessBoard board) {
+		ArrayList<Move> moves = new ArrayList<>(board.generateMoves());
+		if (moves.isEmpty()) {
+			childCount[node] = 0;
+			INTS.setVolatile(firstChild, node, Integer.MAX_VALUE); // Expanded, with nothing to point at
+			return terminalValue(board);
+		}
+		int count = moves.size();
+		int first = size.getAndUpdate(used -> used + count <= move.length ? used + count : used);
+		if (first + count > move.length) {
+			INTS.setVolatile(firstChild, node, UNEXPANDED);
+			return evaluate(board);
+		}
+
+		clear(first, first + moves.size());
+		double[] scores = new double[moves.size()];
+		double highest = Double.NEGATIVE_INFINITY, total = 0;
+		for (int i = 0; i < scores.length; i++) {
+			scores[i] = priorScore(board, moves.get(i)) / PRIOR_TEMPERATURE;
+			highest = Math.max(highest, scores[i]);
+		}
+		for (int i = 0; i < scores.length; i++)
+			total += scores[i] = Math.exp(scores[i] - highest);
+		for (int i = 0; i < scores.length; i++) {
+			move[first + i] = encode(moves.get(i));
+			prior[first + i] = (float) (scores[i] / total);
+		}
+		childCount[node] = (short) moves.size();
+		INTS.setVolatile(firstChild, node, first);
+		return evaluate(board);
+	}
+
+	/**
+	 * A quick guess at how good a move is, in centipawns for the player making it, to set its prior: what it captures,
+	 * less the mover if the exchange loses it, what it promotes to, and how much the piece-square tables like the move
+	 * @param board the board
+	 * @param move a legal move on it
+	 * @return the guess
+	 */
+	private static int priorScore(ChessBoard board, Move move) {
+		int type = Math.abs(move.piece());
+		int from = Long.numberOfTrailingZeros(move.from()), to = Long.numberOfTrailingZeros(move.to());
+		int score = 0;
+		if (board.isCapture(move)) {
+			int victim = Math.abs(board.pieceAt(to));
+			score += BoardFields.PIECE_VALUES[victim == 0 ? 0 : victim - 1];
+			if (!board.staticExchangeAtLeast(move, 0))
+				score -= BoardFields.PIECE_VALUES[type - 1];
+		}
+		if (move.promotion() != 0)
+			score += BoardFields.PIECE_VALUES[Math.abs(move.promotion()) - 1] - BoardFields.PIECE_VALUES[0];
+		int[] table = switch (type) {
+		case 1 -> BoardFields.PAWN_TABLE;
+		case 2 -> BoardFields.KNIGHT_TABLE;
+		case 3 -> BoardFields.BISHOP_TABLE;
+		case 4 -> BoardFields.ROOK_TABLE;
+		case 5 -> BoardFields.QUEEN_TABLE;
+		default -> BoardFields.KING_TABLE;
+		};
+		// Read as the evaluation reads them, the same way for both colours
+		return score + table[to] - table[from];
+	}
+
+	/**
+	 * Evaluate a board for the player to move
+	 * @param board the board
+	 * @return its value, from -1 to 1
+	 */
+	private double evaluate(ChessBoard board) {
+		evaluations.increment();
+		int value = board.calculateBoardValue();
+		return Math.tanh((board.isWhiteTurn ? value : -value) / VALUE_SCALE);
+	}
+
+	/**
+	 * Value a board with no legal moves for the player to move
+	 * @param board the board
+	 * @return -1 for checkmate, 0 for stalemate
+	 */
+	private static double terminalValue(ChessBoard board) {
+		return board.isInCheck() ? -1 : 0;
+	}
+
+	/**
+	 * Pack a move into an int: origin and destination squares in the low 12 bits, then the signed piece and promotion
+	 * in 4 bits each
+	 * @param move the move
+	 * @return the packed move
+	 */
+	static int encode(Move move) {
+		return Long.numberOfTrailingZeros(move.from()) | Long.numberOfTrailingZeros(move.to()) << 6
+				| (move.piece() & 0xF) << 12 | (move.promotion() & 0xF) << 16;
+	}
+
+	/**
+	 * Unpack a move packed by {@link #encode(Move)}
+	 * @param code the packed move
+	 * @return the move
+	 */
+	static Move decode(int code) {
+		// Shifting the 4 bit fields to the top and back extends their signs
+		return new Move(1l << (code & 63), 1l << (code >>> 6 & 63), (byte) (code << 16 >> 28), (byte) (code << 12 >> 28));
+	}
+}
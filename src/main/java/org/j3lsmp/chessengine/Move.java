@@ -2,14 +2,28 @@ package org.j3lsmp.chessengine;
 
 /**
  * A single move, defined by its origin, destination, and piece type
- * 
+ *
  * @param from a bitboard with one bit true representing the move origin
  * @param to   a bitboard with one bit true representing the move destination
  * @param piece the type of piece being moved. Negative values are black,
  *             positive are white.
+ * @param promotion the signed type of piece a pawn reaching the last rank becomes,
+ *             or 0 for the default of a queen (and for every other move)
  * @see ChessBoard#boardAsArray() for more detailed piece typing
- * 
+ *
  * @author Jaden
  * @since 0.0.1
  */
-record Move(long from, long to, byte piece) {}
\ No newline at end of file
+record Move(long from, long to, byte piece, byte promotion) {
+
+	/**
+	 * A move that isn't an underpromotion
+	 *
+	 * @param from a bitboard with one bit true representing the move origin
+	 * @param to   a bitboard with one bit true representing the move destination
+	 * @param piece the type of piece being moved
+	 */
+	Move(long from, long to, byte piece) {
+		this(from, to, piece, (byte) 0);
+	}
+}
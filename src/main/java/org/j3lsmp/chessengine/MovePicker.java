@@ -0,0 +1,183 @@
+package org.j3lsmp.chessengine;
+
+import java.util.ArrayList;
+
+/**
+ * Hands out the legal moves of a board one at a time, best guesses first, generating each group of moves only once the
+ * earlier groups are used up. Most nodes of a search are cut off after their first move or two, so the later stages
+ * usually never have to be generated at all
+ * 
+ * <ol>
+ * <li>The move stored for the board in the {@link TranspositionTable}, checked for legality but without generating
+ * anything</li>
+ * <li>Captures that don't lose material by {@link ChessBoard#staticExchangeAtLeast(Move, int) static exchange
+ * evaluation}, most valuable victim first and least valuable attacker first among equal victims</li>
+ * <li>Killer moves, quiet moves that caused a cutoff elsewhere at the same ply</li>
+ * <li>Every remaining quiet move</li>
+ * <li>Captures that lose material, put off until last</li>
+ * </ol>
+ * 
+ * <p>For quiescence search a picker can hand out only the captures that don't lose material, and nothing else
+ * 
+ * @author Jaden
+ * @since 0.0.1
+ */
+class MovePicker {
+	/**
+	 * Stages of move picking, in order
+	 */
+	private static final int TT_MOVE = 0, GENERATE_CAPTURES = 1, CAPTURES = 2, KILLERS = 3, GENERATE_QUIETS = 4,
+			QUIETS = 5, BAD_CAPTURES = 6, DONE = 7;
+
+	/**
+	 * The board to pick moves on
+	 */
+	private final ChessBoard board;
+
+	/**
+	 * The move from the transposition table, or null
+	 */
+	private final Move ttMove;
+
+	/**
+	 * The killer moves for this ply, entries may be null
+	 */
+	private final Move[] killers;
+
+	/**
+	 * Whether only captures that don't lose material are handed out, for quiescence search
+	 */
+	private final boolean capturesOnly;
+
+	/**
+	 * The current stage, see {@link #TT_MOVE} and following
+	 */
+	private int stage = TT_MOVE;
+
+	/**
+	 * Moves generated for the current stage, and the index of the next one to hand out
+	 */
+	private final ArrayList<Move> moves = new ArrayList<>();
+	private int index;
+
+	/**
+	 * Losing captures are moved to the front of {@link #moves} as they're found, over captures already handed out, and
+	 * quiet moves are generated after them. This is how many there are
+	 */
+	private int badCaptures;
+
+	/**
+	 * Creates a picker for the given board
+	 * @param board the board to pick moves on
+	 * @param ttMove the best move previously found for this board, or null
+	 * @param killers quiet moves that caused cutoffs at the same ply, entries may be null
+	 */
+	MovePicker(ChessBoard board, Move ttMove, Move[] killers) {
+		this.board = board;
+		this.ttMove = ttMove;
+		this.killers = killers;
+		this.capturesOnly = false;
+	}
+
+	/**
+	 * Creates a picker for quiescence search, handing out only captures that don't lose material
+	 * @param board the board to pick moves on
+	 */
+	MovePicker(ChessBoard board) {
+		this.board = board;
+		this.ttMove = null;
+		this.killers = new Move[0];
+		this.capturesOnly = true;
+		this.stage = GENERATE_CAPTURES;
+	}
+
+	/**
+	 * Returns the next move to search
+	 * @return the next legal move, or null once every move has been returned
+	 */
+	Move next() {
+		while (true) {
+			switch (stage) {
+			case TT_MOVE:
+				stage++;
+				if (ttMove != null && board.isLegal(ttMove))
+					return ttMove;
+				break;
+			case GENERATE_CAPTURES:
+				board.generateMoves(moves, ~0l, (board.isWhiteTurn ? board.blackPieces : board.whitePieces)
+						| board.enPassantSquare());
+				moves.sort((a, b) -> Integer.compare(captureScore(b), captureScore(a)));
+				index = 0;
+				stage++;
+				break;
+			case CAPTURES:
+				while (index < moves.size()) {
+					Move move = moves.get(index++);
+					if (move.equals(ttMove))
+						continue;
+					if (board.staticExchangeAtLeast(move, 0))
+						return move;
+					moves.set(badCaptures++, move);
+				}
+				index = 0;
+				stage = capturesOnly ? DONE : stage + 1;
+				break;
+			case KILLERS:
+				while (index < killers.length) {
+					Move killer = killers[index++];
+					if (killer != null && !killer.equals(ttMove) && !board.isCapture(killer) && board.isLegal(killer))
+						return killer;
+				}
+				stage++;
+				break;
+			case GENERATE_QUIETS:
+				moves.subList(badCaptures, moves.size()).clear();
+				board.generateMoves(moves, ~0l, ~(board.whitePieces | board.blackPieces) & ~board.enPassantSquare());
+				index = badCaptures;
+				stage++;
+				break;
+			case QUIETS:
+				while (index < moves.size()) {
+					Move move = moves.get(index++);
+					if (!move.equals(ttMove) && !isKiller(move))
+						return move;
+				}
+				index = 0;
+				stage++;
+				break;
+			case BAD_CAPTURES:
+				if (index < badCaptures)
+					return moves.get(index++);
+				stage++;
+				break;
+			case DONE:
+			default:
+				return null;
+			}
+		}
+	}
+
+	/**
+	 * Whether the move is one of this ply's killer moves, and so was already returned
+	 * @param move the move
+	 * @return true if it's a killer
+	 */
+	private boolean isKiller(Move move) {
+		for (Move killer : killers)
+			if (move.equals(killer))
+				return true;
+		return false;
+	}
+
+	/**
+	 * Orders captures by most valuable victim, then least valuable attacker
+	 * @param move a capture
+	 * @return a score, higher is searched first
+	 */
+	private int captureScore(Move move) {
+		int victim = Math.abs(board.pieceAt(Long.numberOfTrailingZeros(move.to())));
+		if (victim == 0) // En passant
+			victim = 1;
+		return victim * 8 - Math.abs(move.piece());
+	}
+}
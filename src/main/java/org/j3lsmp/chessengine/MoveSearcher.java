@@ -1,9 +1,21 @@
 package org.j3lsmp.chessengine;
 
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
 
 /**
- * Class containing various components to find the best move on a board
+ * Class containing various components to find the best move on a board. Each instance is one engine configuration with
+ * its own transposition table; {@link #engine} is the one behind the api
  * 
  * @author Jaden
  * @since 0.0.1
@@ -12,48 +24,618 @@ public class MoveSearcher {
 	/**
 	 * The maximum depth that {@link #findBestMove(ChessBoard, long)} will search to. Typically will not reach this depth, especially on board states with many possible moves
 	 */
-	private static final int MAX_DEPTH = 10;
+	static final int MAX_DEPTH = 10;
 	
 	/**
-	 * Data about move search to be returned by {@link APIController#computerMove(Integer)}
+	 * The evaluation of a checkmate, far beyond any material advantage. Mates found sooner score slightly further beyond it
+	 */
+	static final int MATE_VALUE = 1_000_000;
+	
+	/**
+	 * Data about move search to be returned by {@link APIController#computerMove(Integer, String)}
 	 */
 	static int boardsEvaluated = 0, futuresConsidered = 0, movesAhead = 0;
+	static double evaluationCacheHitRate = 0;
 	
 	/**
 	 * Pool of threads for {@link #findBestMove(ChessBoard, long)}
 	 */
 	static final ForkJoinPool threadPool = new ForkJoinPool();
 	
+	/**
+	 * Table holding pawn structure evaluations, mapped from zobrist hashes of just the pawns
+	 */
+	static final PawnHashTable pawnHashTable = new PawnHashTable(PawnHashTable.DEFAULT_SIZE);
+	
+	/**
+	 * Table holding static evaluations of whole boards, mapped from their zobrist hashes, shared by every search
+	 */
+	static final EvaluationCache evaluationCache = new EvaluationCache(EvaluationCache.DEFAULT_SIZE);
+	
+	/**
+	 * The deepest ply the search tracks killer moves for
+	 */
+	static final int MAX_PLY = 64;
+	
+	/**
+	 * The searcher used by the api
+	 */
+	static final MoveSearcher engine = new MoveSearcher(true);
+	
+	/**
+	 * Searches on the player's time for {@link #engine}. Told about moves by the api
+	 */
+	static final Ponderer ponderer = new Ponderer(engine);
+	
+	/**
+	 * Searches currently running across every searcher, reported by {@link EngineMetrics}
+	 */
+	static final AtomicInteger activeSearches = new AtomicInteger();
+	
+	/**
+	 * Totals across every search since startup, reported by {@link EngineMetrics}
+	 */
+	static final LongAdder totalNodes = new LongAdder(), totalEvaluations = new LongAdder(), totalSearches = new LongAdder();
+	
+	/**
+	 * Bounds on, and the default for, how many times longer each depth of iterative deepening is predicted to take than
+	 * the one before
+	 */
+	private static final double MIN_ITERATION_GROWTH = 2, MAX_ITERATION_GROWTH = 8, DEFAULT_ITERATION_GROWTH = 4;
+	
+	/**
+	 * Decisions made after each depth of iterative deepening, see {@link TimeManagerEvent}
+	 *
+	 * @author Jaden
+	 * @since 0.0.1
+	 */
+	enum DeepeningDecision {
+		/**
+		 * Search the next depth
+		 */
+		CONTINUE("continue"),
+		
+		/**
+		 * Stop, the search was told to or ran out of time or nodes
+		 */
+		STOP_LIMIT_REACHED("stop: limit reached"),
+		
+		/**
+		 * Stop, the deepest allowed depth is done
+		 */
+		STOP_MAX_DEPTH("stop: max depth"),
+		
+		/**
+		 * Stop, the next depth isn't predicted to finish in the time left
+		 */
+		STOP_PREDICTED_OVERRUN("stop: next depth would overrun");
+		
+		/**
+		 * How the decision is shown in {@link TimeManagerEvent#decision}
+		 */
+		final String label;
+		
+		/**
+		 * Constructs a decision
+		 * @param label how it's shown in recordings
+		 */
+		DeepeningDecision(String label) {
+			this.label = label;
+		}
+	}
+	
+	/**
+	 * Opening explorer consulted before searching, or null to always search. Loaded at startup from the
+	 * `chess.explorer.index` property
+	 */
+	static volatile OpeningIndex openingIndex;
+	
+	/**
+	 * How many games a book move must have been played in for {@link #findBestMove(ChessBoard, long)} to play it without searching
+	 */
+	static final int MIN_BOOK_GAMES = 10;
+	
+	/**
+	 * Neural network evaluating the boards of every search, or null for the hand-written evaluation. Loaded at startup
+	 * from the `chess.nnue` property
+	 */
+	static volatile NnueNetwork network;
+	
+	/**
+	 * The Monte Carlo tree search used by the api when a request asks for it, created on first use as its tree is large
+	 */
+	private static MonteCarloSearcher monteCarlo;
+	
+	/**
+	 * Whether {@link #findBestMove(ChessBoard, long)} looks for a mate with {@link MateSolver} alongside its search, and
+	 * plays the mate if the search didn't see it. Set at startup from the `chess.mate.helper` property
+	 */
+	static volatile boolean mateHelperEnabled = false;
+	
+	/**
+	 * Whether {@link #findBestMove(ChessBoard, long)} and {@link #findBestMoveMonteCarlo(ChessBoard, long)} skip
+	 * searching and play any legal move straight away, so a load test can measure the web layer on its own. Neither
+	 * {@link #ponderer} nor the mate helper run either. Set at startup from the `chess.engine.stub` property
+	 */
+	static volatile boolean stubEngine = false;
+	
+	/**
+	 * The mate solvers behind the api's mate search and behind {@link #mateHelperEnabled}, created on first use as
+	 * their tables are large
+	 */
+	private static MateSolver mateSolver, mateHelper;
+	
+	/**
+	 * Runs {@link #mateHelper} beside the search, on a thread of its own so it doesn't wait on {@link #threadPool}
+	 */
+	private static final ExecutorService mateExecutor = Executors.newSingleThreadExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "mate-helper");
+		thread.setDaemon(true);
+		return thread;
+	});
+	
 	/**
 	 * Transposition table holding evaluations of already-evaluated boards, mapped from zobrist hashes of board states
 	 */
-	static final TranspositionTable transpositionTable = new TranspositionTable();
+	final TranspositionTable transpositionTable = new TranspositionTable();
 	
 	/**
-	 * Find the best move on the specified board
+	 * Whether searches split their work across {@link #threadPool}. When false every search runs entirely on the
+	 * calling thread, for running many independent searches side by side
+	 */
+	final boolean parallel;
+	
+	/**
+	 * Told the result so far each time a search by this searcher completes a depth, or null for nobody. Called on the
+	 * searching thread, so it should return quickly
+	 */
+	volatile BiConsumer<ChessBoard, SearchResult> depthListener;
+	
+	/**
+	 * Creates a searcher with an empty transposition table
+	 * @param parallel whether searches split their work across {@link #threadPool}
+	 */
+	MoveSearcher(boolean parallel) {
+		this.parallel = parallel;
+	}
+	
+	/**
+	 * Find the best move on the specified board. If {@link #ponderer} was already searching this board on the player's
+	 * time, that search is given the time limit and continues instead of starting over. With {@link #mateHelperEnabled}
+	 * a mate search runs alongside for the same time
 	 * @param board the board to use
 	 * @param timeLimitMs time limit on execution, in milliseconds
 	 * @return the best move found
 	 */
 	public static Move findBestMove(ChessBoard board, long timeLimitMs) {
-		Move bestMove = null;
-		long startTime = System.currentTimeMillis(); //Yes, we'll be liable to leap seconds, etc., but a nanoTime() call takes much longer
+		boardsEvaluated = 0;
+		evaluationCacheHitRate = 0;
+		futuresConsidered = 0;
+		movesAhead = 0;
+		
+		if (stubEngine)
+			return board.generateMoves().stream().findFirst().orElse(null);
+		Move bookMove = bookMove(board);
+		if (bookMove != null)
+			return bookMove;
 		
+		CompletableFuture<MateSolver.MateResult> mate = null;
+		AtomicBoolean mateStop = new AtomicBoolean(); // Made before the helper starts, so stopping it early isn't lost
+		if (mateHelperEnabled) {
+			synchronized (MoveSearcher.class) {
+				if (mateHelper == null)
+					mateHelper = new MateSolver(MateSolver.DEFAULT_CAPACITY);
+			}
+			ChessBoard mateBoard = new ChessBoard(board.toFen()); // Without the search's network accumulators
+			mate = CompletableFuture.supplyAsync(() -> mateHelper.solve(mateBoard, MateSolver.DEFAULT_MAX_MOVES,
+					SearchLimits.ofTime(timeLimitMs), mateStop), mateExecutor);
+		}
+		
+		SearchResult result = ponderer.finish(board, timeLimitMs);
+		if (result == null || result.bestMove() == null)
+			result = engine.search(board, SearchLimits.ofTime(timeLimitMs));
+		if (mate != null)
+			result = withMate(board, result, mate, mateStop);
+		
+		boardsEvaluated = (int) result.evaluations();
+		evaluationCacheHitRate = result.evaluationCacheHitRate();
+		futuresConsidered = (int) result.nodes();
+		movesAhead = result.depth();
+		return result.bestMove();
+	}
+	
+	/**
+	 * Stop the mate helper and play its mate, if it found one the search didn't
+	 * @param board the board searched
+	 * @param result the search's result
+	 * @param mate the mate helper's result, once it's stopped
+	 * @param stop stops the mate helper, whether or not it has started
+	 * @return the search's result, or the mate in its place
+	 */
+	private static SearchResult withMate(ChessBoard board, SearchResult result, CompletableFuture<MateSolver.MateResult> mate,
+			AtomicBoolean stop) {
+		stop.set(true);
+		MateSolver.MateResult found = mate.join();
+		int score = board.isWhiteTurn ? result.score() : -result.score();
+		if (!found.found() || score >= MATE_VALUE || !board.isLegal(found.line().get(0)))
+			return result;
+		return new SearchResult(found.line().get(0), board.isWhiteTurn ? MATE_VALUE : -MATE_VALUE, result.depth(),
+				result.nodes() + found.nodes(), result.evaluations(), result.evaluationCacheHits(), result.timeMs());
+	}
+	
+	/**
+	 * Look for the shortest forced mate for the side to move, with the solver behind the api
+	 * @param board the board to use
+	 * @param maxMoves the longest mate to look for, in moves of the side to move
+	 * @param limits when to give up, by time and nodes
+	 * @return the mate found, if any
+	 */
+	static MateSolver.MateResult solveMate(ChessBoard board, int maxMoves, SearchLimits limits) {
+		MateSolver solver;
+		synchronized (MoveSearcher.class) {
+			if (mateSolver == null)
+				mateSolver = new MateSolver(MateSolver.DEFAULT_CAPACITY);
+			solver = mateSolver;
+		}
+		return solver.solve(board, maxMoves, limits);
+	}
+	
+	/**
+	 * Find the best move on the specified board with Monte Carlo tree search instead of alpha-beta, keeping the tree for
+	 * the next call. {@link #ponderer} is stopped so it doesn't compete for the threads
+	 * @param board the board to use
+	 * @param timeLimitMs time limit on execution, in milliseconds
+	 * @return the best move found
+	 */
+	public static Move findBestMoveMonteCarlo(ChessBoard board, long timeLimitMs) {
 		boardsEvaluated = 0;
+		evaluationCacheHitRate = 0;
 		futuresConsidered = 0;
 		movesAhead = 0;
 		
-		for (int depth = 1; depth <= MAX_DEPTH; depth++) {
-			movesAhead = depth;
-			IterativeDeepeningTask task = new IterativeDeepeningTask(board, depth, Integer.MIN_VALUE, Integer.MAX_VALUE, startTime, timeLimitMs);
-			@SuppressWarnings("unused")
-			int score = threadPool.invoke(task);
-			if (task.bestMove != null)
+		if (stubEngine)
+			return board.generateMoves().stream().findFirst().orElse(null);
+		Move bookMove = bookMove(board);
+		if (bookMove != null)
+			return bookMove;
+		
+		ponderer.cancel();
+		MonteCarloSearcher searcher;
+		synchronized (MoveSearcher.class) {
+			if (monteCarlo == null)
+				monteCarlo = new MonteCarloSearcher(MonteCarloSearcher.DEFAULT_CAPACITY, Runtime.getRuntime().availableProcessors());
+			searcher = monteCarlo;
+		}
+		SearchResult result = searcher.search(board, SearchLimits.ofTime(timeLimitMs));
+		
+		boardsEvaluated = (int) result.evaluations();
+		evaluationCacheHitRate = result.evaluationCacheHitRate();
+		futuresConsidered = (int) result.nodes();
+		movesAhead = result.depth();
+		return result.bestMove();
+	}
+	
+	/**
+	 * The board a search should start from so every board it makes is evaluated the way {@link #network} says: the
+	 * given board if it already is, or otherwise a copy with accumulators for the network, or without them if it's
+	 * switched off. The given board is never changed, as it may be shared, like {@link ChessEngineApplication#board}
+	 * @param board the board to search
+	 * @return the board or its copy
+	 */
+	static ChessBoard withNetwork(ChessBoard board) {
+		NnueNetwork current = network;
+		if (current == null ? board.accumulator == null : board.accumulator != null && board.accumulator.network == current)
+			return board;
+		ChessBoard root = new ChessBoard(board.toFen());
+		attachNetwork(root);
+		return root;
+	}
+	
+	/**
+	 * Give a board the search owns accumulators for {@link #network}, or take them away if it's switched off, so every
+	 * board the search makes from it is evaluated the same way
+	 * @param board the root board, which nothing outside the search uses
+	 */
+	static void attachNetwork(ChessBoard board) {
+		NnueNetwork current = network;
+		if (current == null)
+			board.accumulator = null;
+		else if (board.accumulator == null || board.accumulator.network != current)
+			board.accumulator = new NnueAccumulator(current, board);
+	}
+	
+	/**
+	 * Find the most played move from the specified board in {@link #openingIndex}
+	 * @param board the board to use
+	 * @return the move, or null if there's no index or no move has been played often enough
+	 */
+	static Move bookMove(ChessBoard board) {
+		OpeningIndex index = openingIndex;
+		if (index == null)
+			return null;
+		List<OpeningIndex.MoveStats> moves = index.moves(board);
+		if (moves.isEmpty() || moves.get(0).stats().games() < MIN_BOOK_GAMES)
+			return null;
+		return moves.get(0).move();
+	}
+	
+	/**
+	 * Search the specified board with iterative deepening until one of the limits is reached. Any number of searches may
+	 * run at once, and a parallel search started from inside {@link #threadPool} runs in the calling worker so its tasks
+	 * are shared out by work stealing. Starts a new generation of the transposition table
+	 * @param board the board to use
+	 * @param limits when to stop searching
+	 * @return the best move found and statistics about the search
+	 */
+	SearchResult search(ChessBoard board, SearchLimits limits) {
+		transpositionTable.newSearch();
+		return search(board, new SearchContext(this, limits));
+	}
+	
+	/**
+	 * Search the specified board with iterative deepening until the context's limits are reached or it is stopped. Used
+	 * directly when the caller needs to stop the search or move its deadline while it runs. It doesn't start a new
+	 * generation of the transposition table, so that a caller running one search in several parts can keep them in one
+	 * generation; call {@link TranspositionTable#newSearch()} first otherwise
+	 * @param board the board to use
+	 * @param context the search's limits and state, created for this searcher
+	 * @return the best move found and statistics about the search
+	 */
+	SearchResult search(ChessBoard board, SearchContext context) {
+		activeSearches.incrementAndGet();
+		try {
+			return runSearch(withNetwork(board), context);
+		} finally {
+			activeSearches.decrementAndGet();
+		}
+	}
+	
+	/**
+	 * Body of {@link #search(ChessBoard, SearchContext)}
+	 * @param board the board to use
+	 * @param context the search's limits and state
+	 * @return the best move found and statistics about the search
+	 */
+	private SearchResult runSearch(ChessBoard board, SearchContext context) {
+		SearchEvent searchEvent = new SearchEvent();
+		searchEvent.begin();
+		SearchLimits limits = context.limits;
+		Move bestMove = null;
+		int bestScore = 0, depthReached = 0;
+		int maxDepth = limits.depth() > 0 ? Math.min(limits.depth(), MAX_DEPTH) : MAX_DEPTH;
+		long previousIterationMs = 0;
+		
+		for (int depth = 1; depth <= maxDepth; depth++) {
+			DepthCompletedEvent depthEvent = new DepthCompletedEvent();
+			depthEvent.begin();
+			long iterationStart = System.currentTimeMillis();
+			IterativeDeepeningTask task = new IterativeDeepeningTask(board, depth, 0, Integer.MIN_VALUE, Integer.MAX_VALUE, context);
+			int score = run(task);
+			// A stopped iteration scored its unsearched moves 0, so it's only worth keeping if there's nothing else
+			if (task.bestMove != null && (!context.shouldStop() || bestMove == null)) {
 				bestMove = task.bestMove;
-			if (System.currentTimeMillis() - startTime >= timeLimitMs)
+				bestScore = score;
+			}
+			if (!context.shouldStop())
+				depthReached = depth;
+			long iterationMs = System.currentTimeMillis() - iterationStart;
+			
+			depthEvent.end();
+			if (depthEvent.shouldCommit()) {
+				depthEvent.depth = depth;
+				depthEvent.score = score;
+				depthEvent.nodes = context.nodes.sum();
+				depthEvent.elapsed = System.currentTimeMillis() - context.startTime;
+				depthEvent.interrupted = context.shouldStop();
+				depthEvent.commit();
+			}
+			
+			BiConsumer<ChessBoard, SearchResult> listener = depthListener;
+			if (listener != null && bestMove != null && !context.shouldStop())
+				listener.accept(board, new SearchResult(bestMove, bestScore, depth, context.nodes.sum(),
+						context.evaluations.sum(), context.evaluationCacheHits.sum(), System.currentTimeMillis() - context.startTime));
+			
+			if (!continueDeepening(context, depth, maxDepth, iterationMs, previousIterationMs))
+				break;
+			previousIterationMs = iterationMs;
+		}
+		
+		SearchResult result = new SearchResult(bestMove, bestScore, depthReached, context.nodes.sum(), context.evaluations.sum(),
+				context.evaluationCacheHits.sum(), System.currentTimeMillis() - context.startTime);
+		totalNodes.add(result.nodes());
+		totalEvaluations.add(result.evaluations());
+		totalSearches.increment();
+		
+		searchEvent.end();
+		if (searchEvent.shouldCommit()) {
+			searchEvent.fen = board.toFen();
+			searchEvent.depthLimit = limits.depth();
+			searchEvent.timeLimit = limits.timeMs();
+			searchEvent.nodeLimit = limits.nodes();
+			searchEvent.bestMove = bestMove == null ? null : ChessUtilities.moveToUci(bestMove);
+			searchEvent.score = result.score();
+			searchEvent.depth = result.depth();
+			searchEvent.nodes = result.nodes();
+			searchEvent.evaluations = result.evaluations();
+			searchEvent.evaluationCacheHits = result.evaluationCacheHits();
+			searchEvent.commit();
+		}
+		transpositionTable.recordEvent();
+		return result;
+	}
+	
+	/**
+	 * Search the specified board for its best few moves, each with its own principal variation. At every depth the
+	 * best lines of the previous depth are searched first with full windows, giving exact scores. Every other root move
+	 * is then searched with a null window around the score of the worst line kept, which only shows whether it beats
+	 * that line, and it's searched again with a full window when it does. Most root moves fail that test cheaply, and
+	 * all of them share the transposition table, so finding several lines costs far less than that many searches. Starts
+	 * a new generation of the transposition table
+	 * @param board the board to use
+	 * @param limits when to stop searching
+	 * @param lineCount how many lines to find
+	 * @return the best lines found at each completed depth
+	 */
+	MultiPvResult searchMultiPv(ChessBoard board, SearchLimits limits, int lineCount) {
+		activeSearches.incrementAndGet();
+		board = withNetwork(board);
+		transpositionTable.newSearch();
+		SearchContext context = new SearchContext(this, limits);
+		try {
+			List<List<PvLine>> depths = new ArrayList<>();
+			List<Move> rootMoves = new ArrayList<>();
+			MovePicker picker = new MovePicker(board, null, new Move[0]);
+			for (Move move = picker.next(); move != null; move = picker.next())
+				rootMoves.add(move);
+			int maxDepth = limits.depth() > 0 ? Math.min(limits.depth(), MAX_DEPTH) : MAX_DEPTH;
+			long previousIterationMs = 0;
+			
+			for (int depth = 1; depth <= maxDepth && !rootMoves.isEmpty(); depth++) {
+				long iterationStart = System.currentTimeMillis();
+				List<PvLine> lines = searchRootMoves(board, rootMoves, depth, lineCount, context);
+				if (context.shouldStop() && !depths.isEmpty())
+					break; // A partial iteration may have skipped better moves
+				depths.add(lines);
+				
+				// Search the best moves first next time, they set the tightest null windows
+				List<Move> ordered = new ArrayList<>();
+				for (PvLine line : lines)
+					ordered.add(line.move());
+				for (Move move : rootMoves)
+					if (!ordered.contains(move))
+						ordered.add(move);
+				rootMoves = ordered;
+				
+				long iterationMs = System.currentTimeMillis() - iterationStart;
+				if (!continueDeepening(context, depth, maxDepth, iterationMs, previousIterationMs))
+					break;
+				previousIterationMs = iterationMs;
+			}
+			
+			MultiPvResult result = new MultiPvResult(depths, context.nodes.sum(), System.currentTimeMillis() - context.startTime);
+			totalNodes.add(result.nodes());
+			totalEvaluations.add(context.evaluations.sum());
+			totalSearches.increment();
+			return result;
+		} finally {
+			activeSearches.decrementAndGet();
+		}
+	}
+	
+	/**
+	 * One depth of {@link #searchMultiPv(ChessBoard, SearchLimits, int)}
+	 * @param board the board to use
+	 * @param rootMoves every legal move, the likeliest best first
+	 * @param depth the depth to search each move to, counting the move itself
+	 * @param lineCount how many lines to find
+	 * @param context the search's limits and state
+	 * @return the best lines, best first
+	 */
+	private List<PvLine> searchRootMoves(ChessBoard board, List<Move> rootMoves, int depth, int lineCount, SearchContext context) {
+		boolean white = board.isWhiteTurn;
+		List<PvLine> lines = new ArrayList<>();
+		for (Move move : rootMoves) {
+			if (context.shouldStop() && !lines.isEmpty())
 				break;
+			ChessBoard nextBoard = new ChessBoard(board, move);
+			int score;
+			if (lines.size() < lineCount) {
+				score = run(new IterativeDeepeningTask(nextBoard, depth - 1, 1, Integer.MIN_VALUE, Integer.MAX_VALUE, context));
+			} else {
+				int worst = lines.get(lines.size() - 1).score();
+				// Can this move beat the worst line kept? Only a fail high needs an exact score
+				score = white ? run(new IterativeDeepeningTask(nextBoard, depth - 1, 1, worst, worst + 1, context))
+						: run(new IterativeDeepeningTask(nextBoard, depth - 1, 1, worst - 1, worst, context));
+				if (white ? score <= worst : score >= worst)
+					continue;
+				score = run(new IterativeDeepeningTask(nextBoard, depth - 1, 1, Integer.MIN_VALUE, Integer.MAX_VALUE, context));
+				if (white ? score <= worst : score >= worst)
+					continue; // The null window search was fooled by a stale bound
+				lines.remove(lines.size() - 1);
+			}
+			
+			int index = 0;
+			while (index < lines.size() && (white ? lines.get(index).score() >= score : lines.get(index).score() <= score))
+				index++;
+			lines.add(index, new PvLine(move, score, principalVariation(board, move, depth)));
+		}
+		
+		if (!lines.isEmpty() && !context.shouldStop())
+			transpositionTable.put(board.computeZobristHash(), new TranspositionEntry(lines.get(0).score(), depth,
+					TranspositionEntry.EXACT, lines.get(0).move()));
+		return lines;
+	}
+	
+	/**
+	 * Read a principal variation out of the transposition table, following the best move stored for each position
+	 * @param board the board the line starts from
+	 * @param firstMove the first move of the line
+	 * @param length the most moves to read
+	 * @return the line, starting with the first move
+	 */
+	List<Move> principalVariation(ChessBoard board, Move firstMove, int length) {
+		List<Move> pv = new ArrayList<>();
+		HashSet<Long> seen = new HashSet<>();
+		Move move = firstMove;
+		while (move != null && pv.size() < length) {
+			pv.add(move);
+			board = new ChessBoard(board, move);
+			if (!seen.add(board.computeZobristHash()))
+				break; // A repetition would loop forever
+			TranspositionEntry entry = transpositionTable.get(board.computeZobristHash());
+			move = entry != null && entry.move != null && board.isLegal(entry.move) ? entry.move : null;
 		}
+		return pv;
+	}
+	
+	/**
+	 * Run a search task to completion, on {@link #threadPool} if this searcher is parallel
+	 * @param task the task
+	 * @return its evaluation
+	 */
+	private int run(IterativeDeepeningTask task) {
+		return !parallel || ForkJoinTask.inForkJoinPool() ? task.invoke() : threadPool.invoke(task);
+	}
+	
+	/**
+	 * Decide whether to start the next depth of iterative deepening. A deeper iteration that can't finish in the time
+	 * left is only wasted work, so the next iteration's duration is predicted from how much longer the last one took
+	 * than the one before, and the search ends early if that won't fit. No prediction is made from the first depth alone,
+	 * whose time is mostly the JVM warming up on the first search. Each decision is recorded as a
+	 * {@link TimeManagerEvent}
+	 * @param context the search
+	 * @param depth the depth just completed
+	 * @param maxDepth the deepest the search may go
+	 * @param iterationMs how long the depth just completed took
+	 * @param previousIterationMs how long the depth before it took
+	 * @return true to search the next depth
+	 */
+	private static boolean continueDeepening(SearchContext context, int depth, int maxDepth, long iterationMs, long previousIterationMs) {
+		long now = System.currentTimeMillis();
+		long elapsed = now - context.startTime;
+		long deadline = context.deadline();
+		double growth = previousIterationMs > 0 ? (double) iterationMs / previousIterationMs : DEFAULT_ITERATION_GROWTH;
+		long predicted = (long) (iterationMs * Math.max(MIN_ITERATION_GROWTH, Math.min(MAX_ITERATION_GROWTH, growth)));
 		
-		return bestMove;
+		DeepeningDecision decision;
+		if (context.shouldStop())
+			decision = DeepeningDecision.STOP_LIMIT_REACHED;
+		else if (depth >= maxDepth)
+			decision = DeepeningDecision.STOP_MAX_DEPTH;
+		else if (previousIterationMs > 0 && deadline != Long.MAX_VALUE && now + predicted > deadline)
+			decision = DeepeningDecision.STOP_PREDICTED_OVERRUN;
+		else
+			decision = DeepeningDecision.CONTINUE;
+		
+		TimeManagerEvent event = new TimeManagerEvent();
+		if (event.shouldCommit()) {
+			event.depth = depth;
+			event.elapsed = elapsed;
+			event.timeLimit = deadline == Long.MAX_VALUE ? 0 : deadline - context.startTime;
+			event.predicted = predicted;
+			event.decision = decision.label;
+			event.commit();
+		}
+		return decision == DeepeningDecision.CONTINUE;
 	}
 }
\ No newline at end of file
@@ -0,0 +1,25 @@
+package org.j3lsmp.chessengine;
+
+import java.util.List;
+
+/**
+ * The outcome of a multi-PV search by {@link MoveSearcher#searchMultiPv(ChessBoard, SearchLimits, int)}
+ * 
+ * @param depths the best lines found at each completed depth, best first, so <code>depths.get(0)</code> holds the
+ *               lines of depth 1
+ * @param nodes the number of boards visited
+ * @param timeMs the time the search took, in milliseconds
+ * 
+ * @author Jaden
+ * @since 0.0.1
+ */
+record MultiPvResult(List<List<PvLine>> depths, long nodes, long timeMs) {
+	
+	/**
+	 * The lines of the deepest completed depth
+	 * @return the lines, best first, or an empty list if the board has no legal moves
+	 */
+	List<PvLine> lines() {
+		return depths.isEmpty() ? List.of() : depths.get(depths.size() - 1);
+	}
+}
@@ -0,0 +1,113 @@
+package org.j3lsmp.chessengine;
+
+/**
+ * Both sides' first layer outputs of an {@link NnueNetwork} for one board. A board searched with a network carries one
+ * of these, and each board made from it by a move gets a copy updated by only the features that move changed, found by
+ * comparing the two boards' bitboards. That covers captures, promotions, castling and en passant without knowing which
+ * the move was, and costs a row add or subtract per changed piece rather than one per piece on the board
+ *
+ * @author Jaden
+ * @since 0.0.1
+ */
+class NnueAccumulator {
+	/**
+	 * The network these are outputs of
+	 */
+	final NnueNetwork network;
+
+	/**
+	 * The accumulators seen from white's side and from black's
+	 */
+	private final short[] white, black;
+
+	/**
+	 * Compute a board's accumulators from scratch
+	 * @param network the network
+	 * @param board the board
+	 */
+	NnueAccumulator(NnueNetwork network, ChessBoard board) {
+		this.network = network;
+		this.white = network.featureBiases.clone();
+		this.black = network.featureBiases.clone();
+		for (int type = 1; type <= 6; type++) {
+			addAll(board.pieces(type, true), type - 1);
+			addAll(board.pieces(type, false), type + 5);
+		}
+	}
+
+	/**
+	 * Compute a board's accumulators from those of the board it was made from
+	 * @param previous the accumulators of the board before the move
+	 * @param before the board before the move
+	 * @param after the board after the move
+	 */
+	NnueAccumulator(NnueAccumulator previous, ChessBoard before, ChessBoard after) {
+		this.network = previous.network;
+		this.white = previous.white.clone();
+		this.black = previous.black.clone();
+		for (int type = 1; type <= 6; type++) {
+			update(before.pieces(type, true), after.pieces(type, true), type - 1);
+			update(before.pieces(type, false), after.pieces(type, false), type + 5);
+		}
+	}
+
+	/**
+	 * Evaluate the board
+	 * @param whiteTurn whether white is to move
+	 * @return the evaluation, positive favors white
+	 */
+	int evaluate(boolean whiteTurn) {
+		return network.evaluate(white, black, whiteTurn);
+	}
+
+	/**
+	 * Add the features of every piece on a bitboard
+	 * @param pieces the bitboard
+	 * @param piece which piece it holds, 0-5 for white pawn to king and 6-11 for black
+	 */
+	private void addAll(long pieces, int piece) {
+		while (pieces != 0) {
+			apply(piece, Long.numberOfTrailingZeros(pieces), 1);
+			pieces &= pieces - 1;
+		}
+	}
+
+	/**
+	 * Apply the changes to one bitboard
+	 * @param before the bitboard before the move
+	 * @param after the bitboard after the move
+	 * @param piece which piece it holds, 0-5 for white pawn to king and 6-11 for black
+	 */
+	private void update(long before, long after, int piece) {
+		if (before == after)
+			return;
+		for (long removed = before & ~after; removed != 0; removed &= removed - 1)
+			apply(piece, Long.numberOfTrailingZeros(removed), -1);
+		for (long added = after & ~before; added != 0; added &= added - 1)
+			apply(piece, Long.numberOfTrailingZeros(added), 1);
+	}
+
+	/**
+	 * Add or subtract one piece's weight rows from both sides' accumulators
+	 * @param piece the piece, 0-5 for white pawn to king and 6-11 for black
+	 * @param square the square it's on
+	 * @param sign 1 to add, -1 to subtract
+	 */
+	private void apply(int piece, int square, int sign) {
+		short[] weights = network.featureWeights;
+		int hidden = network.hidden;
+		int whiteRow = NnueNetwork.feature(true, piece, square) * hidden;
+		int blackRow = NnueNetwork.feature(false, piece, square) * hidden;
+		if (sign > 0) {
+			for (int i = 0; i < hidden; i++) {
+				white[i] += weights[whiteRow + i];
+				black[i] += weights[blackRow + i];
+			}
+		} else {
+			for (int i = 0; i < hidden; i++) {
+				white[i] -= weights[whiteRow + i];
+				black[i] -= weights[blackRow + i];
+			}
+		}
+	}
+}
@@ -0,0 +1,80 @@
+package org.j3lsmp.chessengine;
+
+import java.nio.file.Path;
+
+/**
+ * Builds network weights that reproduce the hand-written evaluation's material and piece-square terms, the starting
+ * point for training and the weights bundled as {@link NnueNetwork#BUNDLED}:
+ * <code>java -cp chess-engine.jar org.j3lsmp.chessengine.NnueBootstrap src/main/resources/nnue/pst.nnue</code>
+ *
+ * <p>Each feature's weight is its piece's value on its square, positive for the side the accumulator belongs to and
+ * negative for the other side, divided by {@link #VALUE_DIVISOR} to fit the activation range. The clipped activation
+ * can't carry a value that size in one neuron, so the hidden layer splits it into slices: neuron k holds the part of
+ * the value between k and k + 1 times {@link NnueNetwork#ACTIVATION_LIMIT}, offset so negative values fit, and the
+ * neurons together hold all of it. Unlike the hand-written evaluation, black pieces read the tables flipped, and there
+ * is no pawn structure term
+ *
+ * @author Jaden
+ * @since 0.0.1
+ */
+public class NnueBootstrap {
+	/**
+	 * Neurons per side
+	 */
+	static final int HIDDEN = 32;
+
+	/**
+	 * Centipawns per weight unit
+	 */
+	static final int VALUE_DIVISOR = 4;
+
+	/**
+	 * Added to every accumulator so values down to minus this fit the non-negative activations
+	 */
+	static final int OFFSET = 2048;
+
+	/**
+	 * Entry method for the tool
+	 * @param args where to write the weights
+	 * @throws Exception if they can't be written
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length != 1) {
+			System.err.println("Usage: NnueBootstrap <output file>");
+			System.exit(1);
+		}
+		build().write(Path.of(args[0]));
+	}
+
+	/**
+	 * Build the weights
+	 * @return the network
+	 */
+	static NnueNetwork build() {
+		int[][] squareTables = {BoardFields.PAWN_TABLE, BoardFields.KNIGHT_TABLE, BoardFields.BISHOP_TABLE,
+				BoardFields.ROOK_TABLE, BoardFields.QUEEN_TABLE, BoardFields.KING_TABLE};
+		short[] featureWeights = new short[NnueNetwork.INPUTS * HIDDEN];
+		for (int piece = 0; piece < 12; piece++) {
+			int type = piece % 6;
+			boolean ours = piece < 6;
+			for (int square = 0; square < 64; square++) {
+				// Squares are already from the accumulator's side, so the other side's pieces read the table flipped
+				int tableSquare = ours ? square : square ^ 56;
+				int value = squareTables[type][tableSquare] + (type < 5 ? BoardFields.PIECE_VALUES[type] : 0);
+				short weight = (short) Math.round((ours ? value : -value) / (double) VALUE_DIVISOR);
+				for (int neuron = 0; neuron < HIDDEN; neuron++)
+					featureWeights[(piece * 64 + square) * HIDDEN + neuron] = weight;
+			}
+		}
+
+		short[] featureBiases = new short[HIDDEN], outputWeights = new short[2 * HIDDEN];
+		for (int neuron = 0; neuron < HIDDEN; neuron++) {
+			featureBiases[neuron] = (short) (OFFSET - neuron * NnueNetwork.ACTIVATION_LIMIT);
+			outputWeights[neuron] = 1;
+			outputWeights[HIDDEN + neuron] = -1;
+		}
+		// The slices sum to the offset value, the side to move's less the other side's is twice the value
+		return new NnueNetwork(HIDDEN, featureWeights, featureBiases, outputWeights, 0,
+				VALUE_DIVISOR * NnueNetwork.OUTPUT_SCALE_UNIT / 2);
+	}
+}
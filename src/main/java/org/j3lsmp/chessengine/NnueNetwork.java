@@ -0,0 +1,242 @@
+package org.j3lsmp.chessengine;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * An efficiently updatable neural network evaluation. Every (piece, square) pair, seen from one side, is an input
+ * feature, and the first layer's output for each side, its accumulator, is just the sum of the weight rows of the
+ * features present. A move only adds and removes a few features, so {@link NnueAccumulator} keeps both sides'
+ * accumulators up to date from the board before the move rather than recomputing them. What's left per evaluation is
+ * the small output layer over the clipped accumulators, side to move first
+ *
+ * <p>Weights are quantized to 16 bit integers, and the file is {@link #HEADER_BYTES} of header (the magic number
+ * {@link #MAGIC}, a format version, the hidden layer size, the output bias and the output scale, as ints) followed by
+ * the feature weights (one row of hidden size per feature), the hidden biases and the output weights, as shorts. All
+ * big-endian. {@link #BUNDLED} is built from the piece-square tables by {@link NnueBootstrap}, so it plays like the
+ * hand-written evaluation until trained weights replace it
+ *
+ * <p>Features are numbered from one side's point of view: that side's pieces are 0-5 (pawn to king), the other side's
+ * 6-11, times 64, plus the square, flipped vertically for black so both sides see their pieces start on ranks 1-2
+ *
+ * @author Jaden
+ * @since 0.0.1
+ */
+class NnueNetwork {
+	/**
+	 * Marks a file as network weights, "CNUE"
+	 */
+	static final int MAGIC = 0x434E5545;
+
+	/**
+	 * The version of the file format
+	 */
+	static final int VERSION = 1;
+
+	/**
+	 * Size of the file header, in bytes
+	 */
+	static final int HEADER_BYTES = 20;
+
+	/**
+	 * Input features: 12 kinds of piece on 64 squares
+	 */
+	static final int INPUTS = 768;
+
+	/**
+	 * Accumulator values are clipped to 0 through this before the output layer
+	 */
+	static final int ACTIVATION_LIMIT = 255;
+
+	/**
+	 * The output scale is in units of 1/256, so the evaluation is the output layer's sum times the scale over this
+	 */
+	static final int OUTPUT_SCALE_UNIT = 256;
+
+	/**
+	 * Classpath location of the weights shipped with the engine
+	 */
+	static final String BUNDLED = "/nnue/pst.nnue";
+
+	/**
+	 * Neurons in the hidden layer, per side
+	 */
+	final int hidden;
+
+	/**
+	 * Weight rows of each input feature, {@link #hidden} values each
+	 */
+	final short[] featureWeights;
+
+	/**
+	 * Hidden layer biases, an empty position's accumulator
+	 */
+	final short[] featureBiases;
+
+	/**
+	 * Output weights of the side to move's clipped accumulator, then of the other side's
+	 */
+	final short[] outputWeights;
+
+	/**
+	 * Output bias
+	 */
+	final int outputBias;
+
+	/**
+	 * Centipawns per output unit, in 1/{@link #OUTPUT_SCALE_UNIT}ths
+	 */
+	final int outputScale;
+
+	/**
+	 * Creates a network from its weights
+	 * @param hidden neurons in the hidden layer, per side
+	 * @param featureWeights weight rows of each input feature
+	 * @param featureBiases hidden layer biases
+	 * @param outputWeights output weights, side to move first
+	 * @param outputBias output bias
+	 * @param outputScale centipawns per output unit, in 1/{@link #OUTPUT_SCALE_UNIT}ths
+	 */
+	NnueNetwork(int hidden, short[] featureWeights, short[] featureBiases, short[] outputWeights, int outputBias, int outputScale) {
+		if (featureWeights.length != INPUTS * hidden || featureBiases.length != hidden || outputWeights.length != 2 * hidden)
+			throw new IllegalArgumentException("Weights don't match a hidden layer of " + hidden);
+		this.hidden = hidden;
+		this.featureWeights = featureWeights;
+		this.featureBiases = featureBiases;
+		this.outputWeights = outputWeights;
+		this.outputBias = outputBias;
+		this.outputScale = outputScale;
+	}
+
+	/**
+	 * Copies another network's weights, for subclasses that only change how they're applied
+	 * @param network the network
+	 */
+	NnueNetwork(NnueNetwork network) {
+		this(network.hidden, network.featureWeights, network.featureBiases, network.outputWeights, network.outputBias,
+				network.outputScale);
+	}
+
+	/**
+	 * Load weights shipped with the engine
+	 * @return the network
+	 * @throws IOException if they're missing or can't be read
+	 */
+	static NnueNetwork loadBundled() throws IOException {
+		try (InputStream in = NnueNetwork.class.getResourceAsStream(BUNDLED)) {
+			if (in == null)
+				throw new IOException(BUNDLED + " is missing from the classpath");
+			return read(ByteBuffer.wrap(in.readAllBytes()));
+		}
+	}
+
+	/**
+	 * Load weights from a file
+	 * @param path the file
+	 * @return the network
+	 * @throws IOException if the file can't be read or isn't network weights
+	 */
+	static NnueNetwork load(Path path) throws IOException {
+		return read(ByteBuffer.wrap(Files.readAllBytes(path)));
+	}
+
+	/**
+	 * Read weights, using the Vector API for the output layer when it's available
+	 * @param buffer the weights, in the file format
+	 * @return the network
+	 * @throws IOException if they aren't network weights
+	 */
+	private static NnueNetwork read(ByteBuffer buffer) throws IOException {
+		if (buffer.remaining() < HEADER_BYTES || buffer.getInt() != MAGIC)
+			throw new IOException("Not network weights");
+		int version = buffer.getInt();
+		if (version != VERSION)
+			throw new IOException("Unsupported network version " + version);
+		int hidden = buffer.getInt(), outputBias = buffer.getInt(), outputScale = buffer.getInt();
+		if (hidden <= 0 || buffer.remaining() != (INPUTS * hidden + 3 * hidden) * Short.BYTES)
+			throw new IOException("Network weights are the wrong size for a hidden layer of " + hidden);
+		short[] featureWeights = new short[INPUTS * hidden], featureBiases = new short[hidden],
+				outputWeights = new short[2 * hidden];
+		buffer.asShortBuffer().get(featureWeights).get(featureBiases).get(outputWeights);
+
+		NnueNetwork network = new NnueNetwork(hidden, featureWeights, featureBiases, outputWeights, outputBias, outputScale);
+		if (ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+			try {
+				return new VectorNnueNetwork(network);
+			} catch (LinkageError e) {
+				// Present but unusable, fall back
+			}
+		}
+		return network;
+	}
+
+	/**
+	 * Write these weights to a file
+	 * @param path the file
+	 * @throws IOException if it can't be written
+	 */
+	void write(Path path) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + (featureWeights.length + featureBiases.length + outputWeights.length) * Short.BYTES);
+		buffer.putInt(MAGIC).putInt(VERSION).putInt(hidden).putInt(outputBias).putInt(outputScale);
+		buffer.asShortBuffer().put(featureWeights).put(featureBiases).put(outputWeights);
+		Files.write(path, buffer.array());
+	}
+
+	/**
+	 * The input feature of a piece, from one side's point of view
+	 * @param whiteView whether it's seen from white's side
+	 * @param piece the piece, 0-5 for white pawn to king and 6-11 for black
+	 * @param square the square it's on, 0-63
+	 * @return the feature's index
+	 */
+	static int feature(boolean whiteView, int piece, int square) {
+		return whiteView ? piece * 64 + square : (piece < 6 ? piece + 6 : piece - 6) * 64 + (square ^ 56);
+	}
+
+	/**
+	 * Run the output layer
+	 * @param us the side to move's accumulator
+	 * @param them the other side's accumulator
+	 * @return the output, in output units
+	 */
+	int output(short[] us, short[] them) {
+		int sum = outputBias;
+		for (int i = 0; i < hidden; i++) {
+			sum += clip(us[i]) * outputWeights[i];
+			sum += clip(them[i]) * outputWeights[hidden + i];
+		}
+		return sum;
+	}
+
+	/**
+	 * Evaluate a position from its accumulators
+	 * @param white white's accumulator
+	 * @param black black's accumulator
+	 * @param whiteTurn whether white is to move
+	 * @return the evaluation, positive favors white
+	 */
+	int evaluate(short[] white, short[] black, boolean whiteTurn) {
+		int value = (int) ((long) (whiteTurn ? output(white, black) : output(black, white)) * outputScale / OUTPUT_SCALE_UNIT);
+		return whiteTurn ? value : -value;
+	}
+
+	/**
+	 * Clip an accumulator value to the activation range
+	 * @param value the value
+	 * @return the value limited to 0 through {@link #ACTIVATION_LIMIT}
+	 */
+	private static int clip(short value) {
+		return Math.min(Math.max(value, 0), ACTIVATION_LIMIT);
+	}
+
+	/**
+	 * Name this network's output layer, for benchmarks and logs
+	 * @return a short description
+	 */
+	String describe() {
+		return "scalar, " + hidden + " hidden";
+	}
+}
@@ -0,0 +1,138 @@
+package org.j3lsmp.chessengine;
+
+import java.util.ArrayList;
+
+/**
+ * Reading and writing moves in standard algebraic notation, as used by PGN files
+ * 
+ * @author Jaden
+ * @since 0.0.1
+ * @see <a href="https://www.chessprogramming.org/Algebraic_Chess_Notation#Standard_Algebraic_Notation_.28SAN.29">Reference</a>
+ */
+class Notation {
+	
+	/**
+	 * Upper case piece letters, in order of piece type 1-6
+	 */
+	private static final String PIECE_LETTERS = "PNBRQK";
+	
+	/**
+	 * Writes a move in standard algebraic notation, like "Nbd7", "exd5", "e8=Q+" or "O-O"
+	 * @param board the board the move is made on
+	 * @param move a legal move on the board
+	 * @return the move as text
+	 */
+	static String toSan(ChessBoard board, Move move) {
+		int type = Math.abs(move.piece());
+		int from = ChessUtilities.bitboardtoSquare(move.from()), to = ChessUtilities.bitboardtoSquare(move.to());
+		StringBuilder san = new StringBuilder();
+		
+		if (type == 6 && Math.abs(from - to) == 2) {
+			san.append(to > from ? "O-O" : "O-O-O");
+		} else {
+			boolean capture = board.isCapture(move);
+			if (type == 1) {
+				if (capture)
+					san.append((char) ('a' + from % 8));
+			} else {
+				san.append(PIECE_LETTERS.charAt(type - 1));
+				// Name the origin file, rank or both if another piece of the same type could also move there
+				ArrayList<Move> rivals = new ArrayList<>();
+				long sameType = 0l;
+				for (int square = 0; square < 64; square++)
+					if (board.pieceAt(square) == move.piece() && square != from)
+						sameType |= 1l << square;
+				if (sameType != 0)
+					board.generateMoves(rivals, sameType, move.to());
+				boolean sameFile = false, sameRank = false;
+				for (Move rival : rivals) {
+					int rivalFrom = ChessUtilities.bitboardtoSquare(rival.from());
+					sameFile |= rivalFrom % 8 == from % 8;
+					sameRank |= rivalFrom / 8 == from / 8;
+				}
+				if (!rivals.isEmpty() && (!sameFile || sameRank))
+					san.append((char) ('a' + from % 8));
+				if (sameFile)
+					san.append((char) ('1' + from / 8));
+			}
+			if (capture)
+				san.append('x');
+			san.append(ChessUtilities.squareName(to));
+			if (type == 1 && (move.to() & (BoardFields.RANK1 | BoardFields.RANK8)) != 0)
+				san.append('=').append(PIECE_LETTERS.charAt((move.promotion() != 0 ? Math.abs(move.promotion()) : 5) - 1));
+		}
+		
+		ChessBoard after = new ChessBoard(board, move);
+		if (after.isInCheck())
+			san.append(after.generateMoves().isEmpty() ? '#' : '+');
+		return san.toString();
+	}
+	
+	/**
+	 * Reads a move in standard algebraic notation. Check, mate and annotation symbols are ignored, and so is a
+	 * missing or superfluous capture sign
+	 * @param board the board the move is made on
+	 * @param san the move, like "Nbd7", "exd5", "e8=Q+" or "O-O"
+	 * @return the legal move described
+	 * @throws IllegalArgumentException if the text doesn't describe exactly one legal move
+	 */
+	static Move fromSan(ChessBoard board, String san) {
+		String text = san.replaceAll("[+#!?]", "");
+		ArrayList<Move> candidates = new ArrayList<>();
+		long king = board.pieces(6, board.isWhiteTurn);
+		
+		if (text.equals("O-O") || text.equals("0-0") || text.equals("O-O-O") || text.equals("0-0-0")) {
+			long destination = text.length() == 3 ? king << 2 : king >>> 2;
+			board.generateMoves(candidates, king, destination);
+			if (candidates.size() != 1)
+				throw new IllegalArgumentException("Illegal move " + san);
+			return candidates.get(0);
+		}
+		
+		int type = 1;
+		int index = 0;
+		if (index < text.length() && PIECE_LETTERS.indexOf(text.charAt(index)) > 0)
+			type = PIECE_LETTERS.indexOf(text.charAt(index++)) + 1;
+		
+		int promotion = 0;
+		int equals = text.indexOf('=');
+		if (equals >= 0) {
+			promotion = PIECE_LETTERS.indexOf(Character.toUpperCase(text.charAt(equals + 1))) + 1;
+			text = text.substring(0, equals);
+		} else if (type == 1 && text.length() > 2 && PIECE_LETTERS.indexOf(text.charAt(text.length() - 1)) > 0) {
+			promotion = PIECE_LETTERS.indexOf(text.charAt(text.length() - 1)) + 1; // Written without the '='
+			text = text.substring(0, text.length() - 1);
+		}
+		
+		if (text.length() - index < 2)
+			throw new IllegalArgumentException("Not a move " + san);
+		int file = text.charAt(text.length() - 2) - 'a', rank = text.charAt(text.length() - 1) - '1';
+		if (file < 0 || file > 7 || rank < 0 || rank > 7)
+			throw new IllegalArgumentException("Not a move " + san);
+		int to = file + 8 * rank;
+		
+		// Whatever is left between the piece and the destination narrows down the origin
+		long fromMask = ~0l;
+		for (char c : text.substring(index, text.length() - 2).toCharArray()) {
+			if (c >= 'a' && c <= 'h')
+				fromMask &= BoardFields.FILEA << (c - 'a');
+			else if (c >= '1' && c <= '8')
+				fromMask &= BoardFields.RANK1 << (8 * (c - '1'));
+		}
+		
+		board.generateMoves(candidates, fromMask, 1l << to);
+		Move found = null;
+		for (Move move : candidates) {
+			if (Math.abs(move.piece()) != type)
+				continue;
+			if (promotion != 0 ? Math.abs(move.promotion()) != promotion : Math.abs(move.promotion()) > 0 && Math.abs(move.promotion()) != 5)
+				continue;
+			if (found != null)
+				throw new IllegalArgumentException("Ambiguous move " + san);
+			found = move;
+		}
+		if (found == null)
+			throw new IllegalArgumentException("Illegal move " + san);
+		return found;
+	}
+}
\ No newline at end of file
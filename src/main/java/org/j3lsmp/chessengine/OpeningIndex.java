@@ -0,0 +1,181 @@
+package org.j3lsmp.chessengine;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Read-only view of an opening explorer index written by {@link PgnIndexer}: how often each position occurred in a
+ * collection of games, and how those games ended. The file is memory-mapped and searched in place, so lookups cost a
+ * binary search over the page cache rather than a database query, and opening an index of any size takes no heap
+ *
+ * <p>The file is a 16 byte header (the magic number {@link #MAGIC}, a format version, and the number of records)
+ * followed by fixed-width records sorted by zobrist hash: the hash, then white wins, draws and black wins as ints
+ *
+ * @author Jaden
+ * @since 0.0.1
+ */
+class OpeningIndex {
+	/**
+	 * Marks a file as an opening index, "CHIX"
+	 */
+	static final int MAGIC = 0x43484958;
+
+	/**
+	 * The version of the file format
+	 */
+	static final int VERSION = 1;
+
+	/**
+	 * Sizes of the header and of each record, in bytes
+	 */
+	static final int HEADER_BYTES = 16, RECORD_BYTES = 20;
+
+	/**
+	 * Records per mapped segment, as one mapping can't exceed 2GB
+	 */
+	private static final int RECORDS_PER_SEGMENT = Integer.MAX_VALUE / RECORD_BYTES;
+
+	/**
+	 * How the games through one position ended
+	 * @param whiteWins games won by white
+	 * @param draws games drawn
+	 * @param blackWins games won by black
+	 */
+	record PositionStats(int whiteWins, int draws, int blackWins) {
+		/**
+		 * The number of games through the position
+		 * @return the total of all results
+		 */
+		long games() {
+			return (long) whiteWins + draws + blackWins;
+		}
+
+		/**
+		 * White's average score in the games through the position
+		 * @return a score from 0 to 1
+		 */
+		double whiteScore() {
+			return (whiteWins + draws / 2.0) / games();
+		}
+	}
+
+	/**
+	 * Statistics for one move from a position
+	 * @param move the move
+	 * @param stats how the games after the move ended
+	 */
+	record MoveStats(Move move, PositionStats stats) {}
+
+	/**
+	 * The mapped records
+	 */
+	private final MappedByteBuffer[] segments;
+
+	/**
+	 * The number of records
+	 */
+	private final long count;
+
+	/**
+	 * Maps an index file
+	 * @param segments the mapped records
+	 * @param count the number of records
+	 */
+	private OpeningIndex(MappedByteBuffer[] segments, long count) {
+		this.segments = segments;
+		this.count = count;
+	}
+
+	/**
+	 * Open an index file
+	 * @param path the file
+	 * @return the index
+	 * @throws IOException if the file can't be read or isn't an index
+	 */
+	static OpeningIndex open(Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+			while (header.hasRemaining() && channel.read(header) >= 0)
+				;
+			header.flip();
+			if (header.remaining() < HEADER_BYTES || header.getInt() != MAGIC || header.getInt() != VERSION)
+				throw new IOException(path + " is not an opening index");
+			long count = header.getLong();
+			if (channel.size() < HEADER_BYTES + count * RECORD_BYTES)
+				throw new IOException(path + " is truncated");
+
+			MappedByteBuffer[] segments = new MappedByteBuffer[(int) ((count + RECORDS_PER_SEGMENT - 1) / RECORDS_PER_SEGMENT)];
+			for (int i = 0; i < segments.length; i++) {
+				long first = (long) i * RECORDS_PER_SEGMENT;
+				long records = Math.min(RECORDS_PER_SEGMENT, count - first);
+				segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES + first * RECORD_BYTES,
+						records * RECORD_BYTES);
+			}
+			return new OpeningIndex(segments, count); // Mappings stay valid after the channel closes
+		}
+	}
+
+	/**
+	 * The number of positions in the index
+	 * @return the number of records
+	 */
+	long size() {
+		return count;
+	}
+
+	/**
+	 * Look up a position
+	 * @param zobristKey the zobrist hash of the position, see {@link ChessBoard#computeZobristHash()}
+	 * @return how the games through the position ended, or null if it isn't in the index
+	 */
+	PositionStats lookup(long zobristKey) {
+		long low = 0, high = count - 1;
+		while (low <= high) {
+			long middle = (low + high) >>> 1;
+			long key = keyAt(middle);
+			if (key < zobristKey)
+				low = middle + 1;
+			else if (key > zobristKey)
+				high = middle - 1;
+			else {
+				ByteBuffer segment = segments[(int) (middle / RECORDS_PER_SEGMENT)];
+				int offset = (int) (middle % RECORDS_PER_SEGMENT) * RECORD_BYTES;
+				return new PositionStats(segment.getInt(offset + 8), segment.getInt(offset + 12), segment.getInt(offset + 16));
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Look up every legal move from a board
+	 * @param board the board
+	 * @return the moves that appear in the index, most played first
+	 */
+	List<MoveStats> moves(ChessBoard board) {
+		List<MoveStats> moves = new ArrayList<>();
+		HashSet<Move> legal = board.generateMoves();
+		for (Move move : legal) {
+			PositionStats stats = lookup(new ChessBoard(board, move).computeZobristHash());
+			if (stats != null)
+				moves.add(new MoveStats(move, stats));
+		}
+		moves.sort((a, b) -> Long.compare(b.stats().games(), a.stats().games()));
+		return moves;
+	}
+
+	/**
+	 * Read the hash of a record
+	 * @param record the index of the record
+	 * @return its zobrist hash
+	 */
+	private long keyAt(long record) {
+		return segments[(int) (record / RECORDS_PER_SEGMENT)].getLong((int) (record % RECORDS_PER_SEGMENT) * RECORD_BYTES);
+	}
+}
@@ -0,0 +1,39 @@
+package org.j3lsmp.chessengine;
+
+/**
+ * A fixed-size table caching pawn structure evaluations, mapped from zobrist hashes of just the pawns on a board. Pawn
+ * structure rarely changes between neighbouring board states, so nearly every lookup during a search is a hit
+ *
+ * @author Jaden
+ * @since 0.0.1
+ */
+class PawnHashTable extends ScoreTable {
+	/**
+	 * Default number of entries, a power of two
+	 */
+	static final int DEFAULT_SIZE = 1 << 14;
+
+	/**
+	 * Constructs an empty table
+	 * @param size the number of entries, rounded up to a power of two
+	 */
+	PawnHashTable(int size) {
+		super(size);
+	}
+
+	/**
+	 * Get the pawn structure evaluation of the given pawns, computing and storing it if it isn't in the table yet
+	 * @param pawnKey zobrist hash of the pawns, see {@link ChessBoard#computePawnHash()}
+	 * @param whitePawns bitboard of the white pawns
+	 * @param blackPawns bitboard of the black pawns
+	 * @return the evaluation, positive favors white
+	 */
+	int probe(long pawnKey, long whitePawns, long blackPawns) {
+		int value = get(pawnKey);
+		if (value == MISSING) {
+			value = ChessBoard.evaluatePawnStructure(whitePawns, blackPawns);
+			put(pawnKey, value);
+		}
+		return value;
+	}
+}
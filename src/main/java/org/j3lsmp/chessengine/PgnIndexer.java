@@ -0,0 +1,541 @@
+package org.j3lsmp.chessengine;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Builds an {@link OpeningIndex} from PGN archives of any size. The archive is read through memory-mapped windows and
+ * split into games, which worker threads replay on {@link ChessBoard}s. Every position reached in the opening is added
+ * to one of several shards chosen by its zobrist hash, each aggregating the results of the games through its positions.
+ * A shard that grows too large is sorted and spilled to a temporary run file, and at the end the runs of each shard are
+ * merged. Shards cover consecutive ranges of hashes, so writing them one after another gives a fully sorted index
+ *
+ * <p>Run without Spring, for example
+ * <code>java -cp target/classes org.j3lsmp.chessengine.PgnIndexer games.pgn explorer.idx --maxPly 40</code>
+ *
+ * <p>Options: <code>--maxPly</code> how many plies of each game to index (default 40), <code>--threads</code> worker
+ * threads (default the number of cores), <code>--shardEntries</code> positions a shard holds before spilling (default
+ * 1000000)
+ *
+ * @author Jaden
+ * @since 0.0.1
+ */
+public class PgnIndexer {
+	/**
+	 * Bytes mapped from the archive at a time
+	 */
+	private static final int WINDOW_BYTES = 64 << 20;
+
+	/**
+	 * log2 of the number of shards
+	 */
+	private static final int SHARD_BITS = 6;
+
+	/**
+	 * Marks the end of the game queue
+	 */
+	private static final String END_OF_GAMES = new String();
+
+	/**
+	 * How long to wait for room in the game queue before checking the workers are still taking from it, in milliseconds
+	 */
+	private static final long QUEUE_WAIT_MS = 100;
+
+	/**
+	 * How many plies of each game to index
+	 */
+	private final int maxPly;
+
+	/**
+	 * Positions a shard holds in memory before spilling a run
+	 */
+	private final int shardEntries;
+
+	/**
+	 * Worker threads replaying games
+	 */
+	private final int threads;
+
+	/**
+	 * Results aggregated per shard, mapped from zobrist hash to white wins, draws and black wins
+	 */
+	private final List<HashMap<Long, int[]>> shards = new ArrayList<>();
+
+	/**
+	 * Run files spilled by each shard
+	 */
+	private final List<List<Path>> runs = new ArrayList<>();
+
+	/**
+	 * Directory holding the run files
+	 */
+	private final Path tempDirectory;
+
+	/**
+	 * Progress counters. Games with a move that can't be read are indexed up to it, and counted as indexed and
+	 * truncated
+	 */
+	private final AtomicLong gamesIndexed = new AtomicLong(), gamesSkipped = new AtomicLong(), gamesTruncated = new AtomicLong();
+
+	/**
+	 * Sets up an indexer
+	 * @param maxPly how many plies of each game to index
+	 * @param shardEntries positions a shard holds in memory before spilling a run
+	 * @param threads worker threads replaying games
+	 * @throws IOException if the temporary directory can't be created
+	 */
+	PgnIndexer(int maxPly, int shardEntries, int threads) throws IOException {
+		this.maxPly = maxPly;
+		this.shardEntries = shardEntries;
+		this.threads = threads;
+		this.tempDirectory = Files.createTempDirectory("pgn-index");
+		for (int i = 0; i < 1 << SHARD_BITS; i++) {
+			shards.add(new HashMap<>());
+			runs.add(new ArrayList<>());
+		}
+	}
+
+	/**
+	 * Entry method for indexing
+	 * @param args the archive, the index file to write, then options, see {@link PgnIndexer}
+	 * @throws Exception if indexing fails
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length < 2) {
+			System.err.println("Usage: PgnIndexer <games.pgn> <index file> [--maxPly n] [--threads n] [--shardEntries n]");
+			System.exit(1);
+		}
+		HashMap<String, String> options = SelfPlayMatch.parseOptions(Arrays.copyOfRange(args, 2, args.length));
+		PgnIndexer indexer = new PgnIndexer(Integer.parseInt(options.getOrDefault("maxPly", "40")),
+				Integer.parseInt(options.getOrDefault("shardEntries", "1000000")),
+				Integer.parseInt(options.getOrDefault("threads", "" + Runtime.getRuntime().availableProcessors())));
+		long start = System.currentTimeMillis();
+		long positions = indexer.index(Path.of(args[0]), Path.of(args[1]));
+		System.out.printf("Indexed %d games (%d truncated at a bad move, %d skipped), %d positions, in %d ms%n",
+				indexer.gamesIndexed.get(), indexer.gamesTruncated.get(), indexer.gamesSkipped.get(), positions,
+				System.currentTimeMillis() - start);
+	}
+
+	/**
+	 * Index an archive
+	 * @param pgn the archive
+	 * @param output the index file to write
+	 * @return the number of distinct positions written
+	 * @throws IOException if reading or writing fails
+	 * @throws InterruptedException if interrupted while waiting for the workers
+	 */
+	long index(Path pgn, Path output) throws IOException, InterruptedException {
+		BlockingQueue<String> games = new ArrayBlockingQueue<>(threads * 256);
+		List<Thread> workers = new ArrayList<>();
+		List<Throwable> failures = new ArrayList<>();
+		for (int i = 0; i < threads; i++) {
+			Thread worker = new Thread(() -> {
+				try {
+					String game;
+					while ((game = games.take()) != END_OF_GAMES)
+						indexGame(game);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				} catch (RuntimeException | Error e) {
+					synchronized (failures) {
+						failures.add(e);
+					}
+				}
+			}, "pgn-indexer-" + i);
+			worker.start();
+			workers.add(worker);
+		}
+
+		try {
+			boolean split = false;
+			try {
+				splitGames(pgn, games, failures);
+				for (int i = 0; i < threads; i++)
+					handOff(games, END_OF_GAMES, failures);
+				split = true;
+			} finally {
+				// Don't leave workers waiting on a queue nothing will fill, or writing runs while they're deleted
+				for (Thread worker : workers) {
+					if (!split)
+						worker.interrupt();
+					worker.join();
+				}
+			}
+			if (!failures.isEmpty())
+				throw new IOException("Indexing failed", failures.get(0));
+			return writeIndex(output);
+		} finally {
+			for (List<Path> shardRuns : runs)
+				for (Path run : shardRuns)
+					Files.deleteIfExists(run);
+			Files.deleteIfExists(tempDirectory);
+		}
+	}
+
+	/**
+	 * Reads the archive through memory-mapped windows, handing each game's text to the workers. A new game starts at
+	 * each "[Event " tag at the start of a line
+	 * @param pgn the archive
+	 * @param games the queue read by the workers
+	 * @param failures what the workers have failed with, so far
+	 * @throws IOException if the archive can't be read, or a worker has failed
+	 * @throws InterruptedException if interrupted while the queue is full
+	 */
+	private void splitGames(Path pgn, BlockingQueue<String> games, List<Throwable> failures)
+			throws IOException, InterruptedException {
+		byte[] marker = "\n[Event ".getBytes(StandardCharsets.ISO_8859_1);
+		try (FileChannel channel = FileChannel.open(pgn, StandardOpenOption.READ)) {
+			long size = channel.size();
+			byte[] carry = new byte[0]; // The unfinished game at the end of the previous window
+			for (long position = 0; position < size; position += WINDOW_BYTES) {
+				MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position,
+						Math.min(WINDOW_BYTES, size - position));
+				int limit = window.limit();
+				int gameStart = 0;
+				int matched = 0;
+				for (int i = 0; i < limit; i++) {
+					byte b = window.get(i);
+					matched = b == marker[matched] ? matched + 1 : b == marker[0] ? 1 : 0;
+					if (matched == marker.length) {
+						int boundary = i - marker.length + 2; // Just after the newline
+						handOff(games, decode(carry, window, gameStart, boundary), failures);
+						carry = new byte[0];
+						gameStart = boundary;
+						matched = 0;
+					}
+				}
+				byte[] rest = new byte[carry.length + limit - gameStart];
+				System.arraycopy(carry, 0, rest, 0, carry.length);
+				window.get(gameStart, rest, carry.length, limit - gameStart);
+				carry = rest;
+			}
+			if (carry.length > 0)
+				handOff(games, new String(carry, StandardCharsets.ISO_8859_1), failures);
+		}
+	}
+
+	/**
+	 * Queue a game for the workers, waiting while the queue is full. A worker that fails stops taking games, so if the
+	 * workers have failed this gives up rather than waiting for room that may never come
+	 * @param games the queue read by the workers
+	 * @param game the game's text, or {@link #END_OF_GAMES}
+	 * @param failures what the workers have failed with, so far
+	 * @throws IOException if a worker has failed
+	 * @throws InterruptedException if interrupted while the queue is full
+	 */
+	private static void handOff(BlockingQueue<String> games, String game, List<Throwable> failures)
+			throws IOException, InterruptedException {
+		while (!games.offer(game, QUEUE_WAIT_MS, TimeUnit.MILLISECONDS))
+			synchronized (failures) {
+				if (!failures.isEmpty())
+					throw new IOException("Indexing failed", failures.get(0));
+			}
+	}
+
+	/**
+	 * Decodes one game's text, which may have started in the previous window
+	 * @param carry the part of the game from earlier windows
+	 * @param window the current window
+	 * @param from where the rest of the game starts in the window
+	 * @param to where the game ends in the window, exclusive
+	 * @return the game's text
+	 */
+	private static String decode(byte[] carry, ByteBuffer window, int from, int to) {
+		byte[] bytes = new byte[carry.length + Math.max(0, to - from)];
+		System.arraycopy(carry, 0, bytes, 0, carry.length);
+		window.get(from, bytes, carry.length, to - from);
+		return new String(bytes, StandardCharsets.ISO_8859_1);
+	}
+
+	/**
+	 * Replay one game and add each of its opening positions to its shard
+	 * @param text the game's tags and movetext
+	 */
+	void indexGame(String text) {
+		int result = resultOf(text);
+		if (result < 0) {
+			if (text.contains("["))
+				gamesSkipped.incrementAndGet();
+			return;
+		}
+		if (text.contains("[FEN ") || text.contains("[SetUp \"1\"]")) { // Only games from the starting position
+			gamesSkipped.incrementAndGet();
+			return;
+		}
+
+		ChessBoard board = new ChessBoard();
+		board.resetBoard();
+		long[] keys = new long[maxPly + 1];
+		int positions = 0;
+		keys[positions++] = board.computeZobristHash();
+		try {
+			for (String san : movetext(text)) {
+				if (positions > maxPly)
+					break;
+				board.performMove(Notation.fromSan(board, san));
+				keys[positions++] = board.computeZobristHash();
+			}
+		} catch (IllegalArgumentException e) {
+			gamesTruncated.incrementAndGet(); // Index what was read before the bad move
+		}
+
+		for (int i = 0; i < positions; i++)
+			add(keys[i], result);
+		gamesIndexed.incrementAndGet();
+	}
+
+	/**
+	 * Reads the result of a game from its Result tag
+	 * @param text the game
+	 * @return 0 for a white win, 1 for a draw, 2 for a black win, or -1 if unfinished or unknown
+	 */
+	private static int resultOf(String text) {
+		int tag = text.indexOf("[Result \"");
+		if (tag < 0)
+			return -1;
+		String result = text.substring(tag + 9, Math.max(tag + 9, text.indexOf('"', tag + 9)));
+		return switch (result) {
+		case "1-0" -> 0;
+		case "1/2-1/2" -> 1;
+		case "0-1" -> 2;
+		default -> -1;
+		};
+	}
+
+	/**
+	 * Extracts the moves of a game, skipping tags, comments, variations, move numbers, annotation glyphs and the result
+	 * @param text the game
+	 * @return the moves in standard algebraic notation
+	 */
+	static List<String> movetext(String text) {
+		List<String> moves = new ArrayList<>();
+		StringBuilder token = new StringBuilder();
+		int variationDepth = 0;
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (c == '[' && variationDepth == 0 && (i == 0 || text.charAt(i - 1) == '\n')) {
+				int newline = text.indexOf('\n', i); // Tag pair
+				if (newline < 0)
+					break;
+				i = newline;
+				continue;
+			}
+			if (c == '{') {
+				int end = text.indexOf('}', i);
+				i = end < 0 ? text.length() : end;
+				c = ' ';
+			} else if (c == ';') {
+				int end = text.indexOf('\n', i);
+				i = end < 0 ? text.length() : end;
+				c = ' ';
+			} else if (c == '(') {
+				variationDepth++;
+				c = ' ';
+			} else if (c == ')') {
+				variationDepth--;
+				c = ' ';
+			}
+			if (Character.isWhitespace(c) || variationDepth > 0) {
+				addToken(moves, token);
+			} else if (c == '.') {
+				token.setLength(0); // Move numbers like "12." and "12..."
+			} else {
+				token.append(c);
+			}
+		}
+		addToken(moves, token);
+		return moves;
+	}
+
+	/**
+	 * Adds a finished token to the moves if it is one
+	 * @param moves the moves so far
+	 * @param token the token, cleared afterwards
+	 */
+	private static void addToken(List<String> moves, StringBuilder token) {
+		if (token.length() > 0) {
+			String text = token.toString();
+			if (text.charAt(0) != '$' && !text.equals("1-0") && !text.equals("0-1") && !text.equals("1/2-1/2")
+					&& !text.equals("*") && !Character.isDigit(text.charAt(0)))
+				moves.add(text);
+			else if (text.startsWith("0-0")) // Castling written with zeros
+				moves.add(text);
+			token.setLength(0);
+		}
+	}
+
+	/**
+	 * Count one game's result for a position
+	 * @param key the zobrist hash of the position
+	 * @param result 0 for a white win, 1 for a draw, 2 for a black win
+	 */
+	private void add(long key, int result) {
+		int shardIndex = shardOf(key);
+		HashMap<Long, int[]> shard = shards.get(shardIndex);
+		synchronized (shard) {
+			shard.computeIfAbsent(key, k -> new int[3])[result]++;
+			if (shard.size() >= shardEntries) {
+				try {
+					spill(shardIndex, shard);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * The shard holding a position. Shards hold consecutive ranges of hashes in signed order
+	 * @param key the zobrist hash of the position
+	 * @return the shard's index
+	 */
+	private static int shardOf(long key) {
+		return (int) ((key ^ Long.MIN_VALUE) >>> (64 - SHARD_BITS));
+	}
+
+	/**
+	 * Sort a shard's positions into a new run file and empty it. Call while holding the shard's lock
+	 * @param shardIndex the shard's index
+	 * @param shard the shard
+	 * @throws IOException if the run can't be written
+	 */
+	private void spill(int shardIndex, HashMap<Long, int[]> shard) throws IOException {
+		if (shard.isEmpty())
+			return;
+		long[] keys = new long[shard.size()];
+		int i = 0;
+		for (long key : shard.keySet())
+			keys[i++] = key;
+		Arrays.sort(keys);
+		Path run = Files.createTempFile(tempDirectory, "shard" + shardIndex + "-", ".run");
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(run), 1 << 16))) {
+			for (long key : keys) {
+				int[] stats = shard.get(key);
+				out.writeLong(key);
+				out.writeInt(stats[0]);
+				out.writeInt(stats[1]);
+				out.writeInt(stats[2]);
+			}
+		}
+		runs.get(shardIndex).add(run);
+		shard.clear();
+	}
+
+	/**
+	 * One open run file during the final merge
+	 */
+	private static class RunReader {
+		final DataInputStream in;
+		long key;
+		int[] stats = new int[3];
+
+		RunReader(Path run) throws IOException {
+			in = new DataInputStream(new BufferedInputStream(Files.newInputStream(run), 1 << 16));
+		}
+
+		/**
+		 * Read the next record
+		 * @return false once the run is exhausted
+		 * @throws IOException if the run can't be read
+		 */
+		boolean advance() throws IOException {
+			try {
+				key = in.readLong();
+				stats[0] = in.readInt();
+				stats[1] = in.readInt();
+				stats[2] = in.readInt();
+				return true;
+			} catch (EOFException e) {
+				in.close();
+				return false;
+			}
+		}
+	}
+
+	/**
+	 * Spill every shard, then merge each shard's runs in turn into the index file
+	 * @param output the index file
+	 * @return the number of distinct positions written
+	 * @throws IOException if reading a run or writing the index fails
+	 */
+	private long writeIndex(Path output) throws IOException {
+		for (int i = 0; i < shards.size(); i++)
+			spill(i, shards.get(i));
+
+		long count = 0;
+		try (FileChannel channel = FileChannel.open(output, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			channel.position(OpeningIndex.HEADER_BYTES);
+			ByteBuffer buffer = ByteBuffer.allocateDirect(OpeningIndex.RECORD_BYTES * 4096);
+			for (List<Path> shardRuns : runs) {
+				PriorityQueue<RunReader> merge = new PriorityQueue<>((a, b) -> Long.compare(a.key, b.key));
+				for (Path run : shardRuns) {
+					RunReader reader = new RunReader(run);
+					if (reader.advance())
+						merge.add(reader);
+				}
+				while (!merge.isEmpty()) {
+					RunReader first = merge.poll();
+					long key = first.key;
+					int whiteWins = first.stats[0], draws = first.stats[1], blackWins = first.stats[2];
+					if (first.advance())
+						merge.add(first);
+					while (!merge.isEmpty() && merge.peek().key == key) {
+						RunReader same = merge.poll();
+						whiteWins += same.stats[0];
+						draws += same.stats[1];
+						blackWins += same.stats[2];
+						if (same.advance())
+							merge.add(same);
+					}
+					if (!buffer.hasRemaining())
+						drain(channel, buffer);
+					buffer.putLong(key).putInt(whiteWins).putInt(draws).putInt(blackWins);
+					count++;
+				}
+			}
+			drain(channel, buffer);
+
+			ByteBuffer header = ByteBuffer.allocate(OpeningIndex.HEADER_BYTES);
+			header.putInt(OpeningIndex.MAGIC).putInt(OpeningIndex.VERSION).putLong(count).flip();
+			channel.position(0);
+			while (header.hasRemaining())
+				channel.write(header);
+		}
+		return count;
+	}
+
+	/**
+	 * Write out and empty a buffer
+	 * @param channel where to write
+	 * @param buffer the buffer, in write mode
+	 * @throws IOException if writing fails
+	 */
+	private static void drain(FileChannel channel, ByteBuffer buffer) throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining())
+			channel.write(buffer);
+		buffer.clear();
+	}
+}
@@ -0,0 +1,168 @@
+package org.j3lsmp.chessengine;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Searches on the opponent's time. Once the engine has moved, the reply it expects (the next move of its principal
+ * variation, read from the transposition table) is assumed played and the resulting position is searched in the
+ * background for up to {@link #TIME_FACTOR} times the engine's own time per move, so a player who walks away doesn't
+ * leave it using every core indefinitely. If the opponent does play that move, the next move search takes over the running
+ * ponder search and just gives it a deadline, so everything searched while the opponent thought is kept. If they play
+ * something else the ponder search is stopped, and what it stored in the transposition table stays for later searches
+ *
+ * @author Jaden
+ * @since 0.0.1
+ */
+class Ponderer {
+	/**
+	 * The longest a ponder search runs, as a multiple of the time the engine had for the move before it
+	 */
+	static final int TIME_FACTOR = 10;
+
+	/**
+	 * The longest a ponder search runs however long the engine's moves are, in milliseconds
+	 */
+	static final long MAX_TIME_MS = 300_000;
+
+	/**
+	 * The searcher pondering, whose transposition table provides the expected reply and keeps what pondering finds
+	 */
+	private final MoveSearcher searcher;
+
+	/**
+	 * Runs the ponder search, which waits on {@link MoveSearcher#threadPool} like any other search
+	 */
+	private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "ponder");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	/**
+	 * Whether pondering is switched on. While off, or while {@link MoveSearcher#stubEngine} is on,
+	 * {@link #start(ChessBoard, long)} does nothing
+	 */
+	volatile boolean enabled = true;
+
+	/**
+	 * Zobrist hash of the position being pondered, after the expected reply
+	 */
+	private long ponderKey;
+
+	/**
+	 * The running or finished ponder search, or null if not pondering
+	 */
+	private SearchContext context;
+
+	/**
+	 * The result of the ponder search once it finishes
+	 */
+	private CompletableFuture<SearchResult> result;
+
+	/**
+	 * Whether the opponent played the expected reply
+	 */
+	private boolean hit;
+
+	/**
+	 * Creates a ponderer for a searcher
+	 * @param searcher the searcher that plays the moves being pondered on
+	 */
+	Ponderer(MoveSearcher searcher) {
+		this.searcher = searcher;
+	}
+
+	/**
+	 * Start pondering after the engine moves, cancelling any previous ponder search
+	 * @param board the board after the engine's move, with the opponent to play. It isn't modified
+	 * @param timeLimitMs the time the engine had for that move, which bounds how long the ponder search runs
+	 */
+	synchronized void start(ChessBoard board, long timeLimitMs) {
+		cancel();
+		if (!enabled || MoveSearcher.stubEngine)
+			return;
+		TranspositionEntry entry = searcher.transpositionTable.get(board.computeZobristHash());
+		if (entry == null || entry.move == null || !board.isLegal(entry.move))
+			return;
+
+		ChessBoard ponderBoard = new ChessBoard(board, entry.move);
+		if (ponderBoard.generateMoves().isEmpty())
+			return; // The expected reply ends the game
+		searcher.transpositionTable.newSearch();
+		ponderKey = ponderBoard.computeZobristHash();
+		long ponderTimeMs = Math.min(Math.max(1, timeLimitMs) * TIME_FACTOR, MAX_TIME_MS);
+		context = new SearchContext(searcher, SearchLimits.ofTime(ponderTimeMs));
+		hit = false;
+		SearchContext ponderContext = context;
+		result = CompletableFuture.supplyAsync(() -> searcher.search(ponderBoard, ponderContext), executor);
+	}
+
+	/**
+	 * Tell the ponderer the opponent moved. On a miss the ponder search is stopped, on a hit it keeps running until
+	 * {@link #finish(ChessBoard, long)}
+	 * @param board the board after the opponent's move
+	 */
+	synchronized void opponentMoved(ChessBoard board) {
+		if (context == null)
+			return;
+		if (board.computeZobristHash() == ponderKey)
+			hit = true;
+		else
+			cancel();
+	}
+
+	/**
+	 * Take over the ponder search for the engine's move, if it was searching this position
+	 * @param board the board the engine is to move on
+	 * @param timeLimitMs the time the engine has for its move, from now
+	 * @return the search's result once it reaches the new deadline, or null if it wasn't pondering this position
+	 */
+	SearchResult finish(ChessBoard board, long timeLimitMs) {
+		SearchContext ponderContext;
+		CompletableFuture<SearchResult> ponderResult;
+		synchronized (this) {
+			if (context == null || !hit || board.computeZobristHash() != ponderKey) {
+				cancel();
+				return null;
+			}
+			ponderContext = context;
+			ponderResult = result;
+			context = null;
+			result = null;
+		}
+		ponderContext.setDeadline(System.currentTimeMillis() + timeLimitMs);
+		return await(ponderResult);
+	}
+
+	/**
+	 * Stop any ponder search and wait for it to wind down, so it doesn't compete with the next search for threads
+	 */
+	synchronized void cancel() {
+		if (context == null)
+			return;
+		context.stop();
+		await(result);
+		context = null;
+		result = null;
+	}
+
+	/**
+	 * Wait for a ponder search to finish
+	 * @param search the search
+	 * @return its result, or null if it failed
+	 */
+	private static SearchResult await(CompletableFuture<SearchResult> search) {
+		try {
+			return search.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		} catch (ExecutionException e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+}
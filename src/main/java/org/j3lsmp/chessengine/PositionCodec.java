@@ -0,0 +1,115 @@
+package org.j3lsmp.chessengine;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A compact binary form of a position, at most 26 bytes against around 60 for FEN and several hundred for
+ * {@link ChessBoard#boardAsArray()} as JSON. It is written straight from the bitboards:
+ * 
+ * <ul>
+ * <li>one byte of flags, bit 0 set when white is to move and bits 1-4 the castling rights as in
+ * {@link ChessBoard#castlingRights}</li>
+ * <li>one byte with the en passant file plus one, or 0 if none</li>
+ * <li>eight bytes with the bitboard of occupied squares</li>
+ * <li>four bits for each occupied square from a1 upwards, high half of each byte first: the piece type from 1 to 6,
+ * plus 8 for a black piece</li>
+ * </ul>
+ * 
+ * The move counters aren't kept, as the board doesn't track them
+ * 
+ * @author Jaden
+ * @since 0.0.1
+ */
+class PositionCodec {
+	/**
+	 * The most bytes an encoded position can take
+	 */
+	static final int MAX_BYTES = 2 + 8 + 16;
+
+	/**
+	 * Encode a position
+	 * @param board the board
+	 * @return the position's bytes
+	 */
+	static byte[] encode(ChessBoard board) {
+		ByteBuffer buffer = ByteBuffer.allocate(MAX_BYTES);
+		encode(board, buffer);
+		byte[] bytes = new byte[buffer.position()];
+		buffer.flip().get(bytes);
+		return bytes;
+	}
+
+	/**
+	 * Encode a position into a buffer
+	 * @param board the board
+	 * @param buffer the buffer to write to, with at least {@link #MAX_BYTES} remaining
+	 */
+	static void encode(ChessBoard board, ByteBuffer buffer) {
+		long occupied = board.whitePieces | board.blackPieces;
+		buffer.put((byte) ((board.isWhiteTurn ? 1 : 0) | board.castlingRights << 1));
+		buffer.put((byte) (board.enPassantFile + 1));
+		buffer.putLong(occupied);
+
+		int packed = 0;
+		boolean high = true;
+		for (long bits = occupied; bits != 0; bits &= bits - 1) {
+			byte piece = board.pieceAt(Long.numberOfTrailingZeros(bits));
+			int nibble = piece > 0 ? piece : 8 - piece;
+			if (high) {
+				packed = nibble << 4;
+			} else {
+				buffer.put((byte) (packed | nibble));
+			}
+			high = !high;
+		}
+		if (!high)
+			buffer.put((byte) packed);
+	}
+
+	/**
+	 * Decode a position
+	 * @param bytes the position's bytes
+	 * @return the board
+	 * @throws IllegalArgumentException if the bytes aren't a position
+	 */
+	static ChessBoard decode(byte[] bytes) {
+		return decode(ByteBuffer.wrap(bytes));
+	}
+
+	/**
+	 * Decode a position from a buffer
+	 * @param buffer the buffer, positioned at the start of the position and left just after it
+	 * @return the board
+	 * @throws IllegalArgumentException if the bytes aren't a position
+	 */
+	static ChessBoard decode(ByteBuffer buffer) {
+		if (buffer.remaining() < 10)
+			throw new IllegalArgumentException("Position is truncated");
+		ChessBoard board = new ChessBoard();
+		int flags = buffer.get();
+		board.isWhiteTurn = (flags & 1) != 0;
+		board.castlingRights = flags >> 1 & 0xF;
+		board.enPassantFile = buffer.get() - 1;
+		long occupied = buffer.getLong();
+		if (buffer.remaining() < (Long.bitCount(occupied) + 1) / 2)
+			throw new IllegalArgumentException("Position is truncated");
+
+		int packed = 0;
+		boolean high = true;
+		for (long bits = occupied; bits != 0; bits &= bits - 1) {
+			int nibble;
+			if (high) {
+				packed = buffer.get();
+				nibble = packed >> 4 & 0xF;
+			} else {
+				nibble = packed & 0xF;
+			}
+			high = !high;
+			int type = nibble & 7;
+			if (type < 1 || type > 6)
+				throw new IllegalArgumentException("Not a piece: " + nibble);
+			board.togglePiece((byte) ((nibble & 8) != 0 ? -type : type), bits & -bits);
+		}
+		return board;
+	}
+}
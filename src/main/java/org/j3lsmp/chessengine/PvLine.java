@@ -0,0 +1,15 @@
+package org.j3lsmp.chessengine;
+
+import java.util.List;
+
+/**
+ * One line of a multi-PV search by {@link MoveSearcher#searchMultiPv(ChessBoard, SearchLimits, int)}
+ * 
+ * @param move the root move the line starts with
+ * @param score the evaluation of the board after the move, negative favors black, positive favors white
+ * @param pv the principal variation, the moves both sides are expected to play starting with {@link #move}
+ * 
+ * @author Jaden
+ * @since 0.0.1
+ */
+record PvLine(Move move, int score, List<Move> pv) {}
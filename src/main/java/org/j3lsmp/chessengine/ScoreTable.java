@@ -0,0 +1,106 @@
+package org.j3lsmp.chessengine;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A fixed-size table of 32 bit scores mapped from 64 bit hashes, shared by every search thread without locking. Each
+ * entry is one long: the upper 31 bits of the hash it was stored under, a bit marking it occupied, and the score in the
+ * lower 32 bits. Entries are read and written whole with opaque access, which unlike plain access to a long is never
+ * split into two 32 bit halves, so a racing write can never pair a hash with another hash's score. A new score
+ * replaces whatever shared its slot
+ *
+ * @author Jaden
+ * @since 0.0.1
+ */
+class ScoreTable {
+	/**
+	 * Returned by {@link #get(long)} when the table doesn't have a hash. No score stored is this low
+	 */
+	static final int MISSING = Integer.MIN_VALUE;
+
+	/**
+	 * The bits of an entry holding the upper 31 bits of the hash it was stored under
+	 */
+	private static final long KEY_BITS = 0xFFFFFFFE00000000l;
+
+	/**
+	 * The bit of an entry set once something is stored in it, so an empty entry never matches a hash, whatever its
+	 * score
+	 */
+	private static final long OCCUPIED = 1l << 32;
+
+	/**
+	 * Opaque access to {@link #entries}
+	 */
+	private static final VarHandle ENTRIES = MethodHandles.arrayElementVarHandle(long[].class);
+
+	/**
+	 * Entries of the table
+	 */
+	private final long[] entries;
+
+	/**
+	 * Mask from a hash to an index in {@link #entries}
+	 */
+	private final int mask;
+
+	/**
+	 * Lookup statistics
+	 */
+	private final LongAdder probes = new LongAdder(), hits = new LongAdder();
+
+	/**
+	 * Constructs an empty table
+	 * @param size the number of entries, rounded up to a power of two
+	 */
+	ScoreTable(int size) {
+		int capacity = Integer.highestOneBit(Math.max(1, size - 1) << 1);
+		entries = new long[capacity];
+		mask = capacity - 1;
+	}
+
+	/**
+	 * Get the score stored under a hash
+	 * @param hash the hash
+	 * @return the score, or {@link #MISSING} if it isn't stored
+	 */
+	int get(long hash) {
+		probes.increment();
+		long entry = (long) ENTRIES.getOpaque(entries, (int) hash & mask);
+		if ((entry & (KEY_BITS | OCCUPIED)) == ((hash & KEY_BITS) | OCCUPIED)) {
+			hits.increment();
+			return (int) entry;
+		}
+		return MISSING;
+	}
+
+	/**
+	 * Store a score under a hash, replacing whatever shared its slot
+	 * @param hash the hash
+	 * @param value the score
+	 */
+	void put(long hash, int value) {
+		ENTRIES.setOpaque(entries, (int) hash & mask, (hash & KEY_BITS) | OCCUPIED | (value & 0xFFFFFFFFl));
+	}
+
+	/**
+	 * Returns the fraction of lookups that found a stored score
+	 * @return hit rate from 0 to 1, or 0 if nothing has been looked up
+	 */
+	double hitRate() {
+		long total = probes.sum();
+		return total == 0 ? 0 : (double) hits.sum() / total;
+	}
+
+	/**
+	 * Empty the table and reset its statistics
+	 */
+	void clear() {
+		Arrays.fill(entries, 0l);
+		probes.reset();
+		hits.reset();
+	}
+}
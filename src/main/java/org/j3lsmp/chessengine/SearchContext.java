@@ -0,0 +1,110 @@
+package org.j3lsmp.chessengine;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * State shared by every {@link IterativeDeepeningTask} of one search, so any number of searches can run on
+ * {@link MoveSearcher#threadPool} at once without mixing up their limits or statistics
+ * 
+ * @author Jaden
+ * @since 0.0.1
+ */
+class SearchContext {
+	/**
+	 * The searcher running this search
+	 */
+	final MoveSearcher searcher;
+	
+	/**
+	 * When this search should stop
+	 */
+	final SearchLimits limits;
+	
+	/**
+	 * The time this search started
+	 */
+	final long startTime;
+	
+	/**
+	 * Statistics for this search
+	 */
+	final LongAdder nodes = new LongAdder(), evaluations = new LongAdder(), evaluationCacheHits = new LongAdder();
+	
+	/**
+	 * Two quiet moves per ply that most recently caused a beta cutoff, tried early by {@link MovePicker} in sibling nodes
+	 */
+	final Move[][] killerMoves = new Move[MoveSearcher.MAX_PLY][2];
+	
+	/**
+	 * Set once any limit is reached, so every running task winds down
+	 */
+	private volatile boolean stopped;
+	
+	/**
+	 * The time by which the search must stop, or {@link Long#MAX_VALUE} for none. Starts from the time limit, and can be
+	 * moved while the search runs, as when a ponder search is given a budget once the opponent plays the expected move
+	 */
+	private volatile long deadline;
+	
+	/**
+	 * Creates the state for a search starting now
+	 * @param searcher the searcher running the search
+	 * @param limits when the search should stop
+	 */
+	SearchContext(MoveSearcher searcher, SearchLimits limits) {
+		this.searcher = searcher;
+		this.limits = limits;
+		this.startTime = System.currentTimeMillis(); //Yes, we'll be liable to leap seconds, etc., but a nanoTime() call takes much longer
+		this.deadline = limits.timeMs() > 0 ? startTime + limits.timeMs() : Long.MAX_VALUE;
+	}
+	
+	/**
+	 * The time by which the search must stop
+	 * @return the deadline in milliseconds since the epoch, or {@link Long#MAX_VALUE} for none
+	 */
+	long deadline() {
+		return deadline;
+	}
+	
+	/**
+	 * Move the time by which the search must stop
+	 * @param deadline the new deadline in milliseconds since the epoch, or {@link Long#MAX_VALUE} for none
+	 */
+	void setDeadline(long deadline) {
+		this.deadline = deadline;
+	}
+	
+	/**
+	 * Whether the search has used up its time or node allowance, or been stopped
+	 * @return true if the search should stop
+	 */
+	boolean shouldStop() {
+		if (stopped)
+			return true;
+		if (System.currentTimeMillis() >= deadline || (limits.nodes() > 0 && nodes.sum() >= limits.nodes()))
+			stopped = true;
+		return stopped;
+	}
+	
+	/**
+	 * Stop the search as soon as possible
+	 */
+	void stop() {
+		stopped = true;
+	}
+	
+	/**
+	 * Remember a quiet move that caused a beta cutoff, so it's tried early in other nodes at the same ply
+	 * @param ply the distance from the root of the search
+	 * @param move the move
+	 */
+	void storeKiller(int ply, Move move) {
+		if (ply >= MoveSearcher.MAX_PLY)
+			return;
+		Move[] killers = killerMoves[ply];
+		if (!move.equals(killers[0])) {
+			killers[1] = killers[0];
+			killers[0] = move;
+		}
+	}
+}
@@ -0,0 +1,254 @@
+package org.j3lsmp.chessengine;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Percentage;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Java Flight Recorder event spanning one call to {@link MoveSearcher#search(ChessBoard, SearchLimits)}, from start to
+ * stop. Recording is switched on and off by the profile in <code>jfr/chess-search.jfc</code>, and costs next to nothing
+ * while off
+ *
+ * @author Jaden
+ * @since 0.0.1
+ */
+@Name("org.j3lsmp.chessengine.Search")
+@Label("Search")
+@Category({"Chess Engine", "Search"})
+@Description("One move search, from start to stop")
+@StackTrace(false)
+class SearchEvent extends Event {
+	/**
+	 * The position searched
+	 */
+	@Label("Position")
+	String fen;
+
+	/**
+	 * The deepest iteration the search was allowed, 0 for none
+	 */
+	@Label("Depth Limit")
+	int depthLimit;
+
+	/**
+	 * The time the search was allowed, in milliseconds, 0 for none
+	 */
+	@Label("Time Limit")
+	@Timespan(Timespan.MILLISECONDS)
+	long timeLimit;
+
+	/**
+	 * The nodes the search was allowed, 0 for none
+	 */
+	@Label("Node Limit")
+	long nodeLimit;
+
+	/**
+	 * The move chosen, in UCI notation
+	 */
+	@Label("Best Move")
+	String bestMove;
+
+	/**
+	 * What the search ended with
+	 */
+	@Label("Score")
+	int score;
+
+	/**
+	 * The deepest iteration started
+	 */
+	@Label("Depth Reached")
+	int depth;
+
+	/**
+	 * Nodes visited by the search
+	 */
+	@Label("Nodes")
+	long nodes;
+
+	/**
+	 * Boards statically evaluated by the search
+	 */
+	@Label("Evaluations")
+	long evaluations;
+
+	/**
+	 * Boards whose evaluation was found in the evaluation cache instead
+	 */
+	@Label("Evaluation Cache Hits")
+	long evaluationCacheHits;
+}
+
+/**
+ * Java Flight Recorder event for each depth of iterative deepening, from when the iteration started until it finished
+ * or was stopped
+ *
+ * @author Jaden
+ * @since 0.0.1
+ */
+@Name("org.j3lsmp.chessengine.DepthCompleted")
+@Label("Depth Completed")
+@Category({"Chess Engine", "Search"})
+@Description("One iteration of iterative deepening")
+@StackTrace(false)
+class DepthCompletedEvent extends Event {
+	/**
+	 * The depth of the iteration
+	 */
+	@Label("Depth")
+	int depth;
+
+	/**
+	 * The score of the iteration's best move
+	 */
+	@Label("Score")
+	int score;
+
+	/**
+	 * Nodes visited by the whole search so far
+	 */
+	@Label("Nodes")
+	long nodes;
+
+	/**
+	 * Time since the search started
+	 */
+	@Label("Elapsed")
+	@Timespan(Timespan.MILLISECONDS)
+	long elapsed;
+
+	/**
+	 * Whether the iteration was cut short by a limit, in which case its result is partial
+	 */
+	@Label("Interrupted")
+	boolean interrupted;
+}
+
+/**
+ * Java Flight Recorder event with the state of a {@link TranspositionTable} after a search. Counters run from when the
+ * table was created
+ *
+ * @author Jaden
+ * @since 0.0.1
+ */
+@Name("org.j3lsmp.chessengine.TranspositionTable")
+@Label("Transposition Table")
+@Category({"Chess Engine", "Transposition Table"})
+@Description("Fill and hit rate of a transposition table after a search")
+@StackTrace(false)
+class TranspositionTableEvent extends Event {
+	/**
+	 * Positions stored in the table
+	 */
+	@Label("Entries")
+	long entries;
+
+	/**
+	 * Rough memory held by the entries
+	 */
+	@Label("Estimated Size")
+	@DataAmount
+	long estimatedBytes;
+
+	/**
+	 * Lookups made in the table
+	 */
+	@Label("Probes")
+	long probes;
+
+	/**
+	 * Lookups that found an entry
+	 */
+	@Label("Hits")
+	long hits;
+
+	/**
+	 * The fraction of lookups that found an entry
+	 */
+	@Label("Hit Rate")
+	@Percentage
+	double hitRate;
+
+	/**
+	 * Entries offered to the table
+	 */
+	@Label("Stores")
+	long stores;
+
+	/**
+	 * Stores that replaced an existing entry for the same position
+	 */
+	@Label("Overwrites")
+	long overwrites;
+
+	/**
+	 * Stores dropped because the existing entry, from the same generation, was searched deeper
+	 */
+	@Label("Rejected Stores")
+	long rejected;
+
+	/**
+	 * Stale entries removed by the background sweep
+	 */
+	@Label("Swept")
+	long swept;
+
+	/**
+	 * The table's current generation, the number of move searches started with it
+	 */
+	@Label("Generation")
+	int generation;
+}
+
+/**
+ * Java Flight Recorder event for each decision on whether to start another depth of iterative deepening
+ *
+ * @author Jaden
+ * @since 0.0.1
+ */
+@Name("org.j3lsmp.chessengine.TimeManager")
+@Label("Time Manager Decision")
+@Category({"Chess Engine", "Search"})
+@Description("Whether the search went on to another depth, and why")
+@StackTrace(false)
+class TimeManagerEvent extends Event {
+	/**
+	 * The depth just completed
+	 */
+	@Label("Depth")
+	int depth;
+
+	/**
+	 * Time since the search started
+	 */
+	@Label("Elapsed")
+	@Timespan(Timespan.MILLISECONDS)
+	long elapsed;
+
+	/**
+	 * The time the search was allowed at this point, in milliseconds, 0 for none. Grows when a ponder search is hit
+	 */
+	@Label("Time Limit")
+	@Timespan(Timespan.MILLISECONDS)
+	long timeLimit;
+
+	/**
+	 * How long the next depth was expected to take
+	 */
+	@Label("Predicted Next Depth")
+	@Timespan(Timespan.MILLISECONDS)
+	long predicted;
+
+	/**
+	 * The {@link MoveSearcher.DeepeningDecision#label} of the decision made
+	 */
+	@Label("Decision")
+	String decision;
+}
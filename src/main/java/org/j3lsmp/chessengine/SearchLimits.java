@@ -0,0 +1,24 @@
+package org.j3lsmp.chessengine;
+
+/**
+ * When a search should stop. Any limit of 0 is unlimited, and the search stops at whichever other limit it reaches
+ * first
+ * 
+ * @param depth the deepest iteration to search, capped at {@link MoveSearcher#MAX_DEPTH}
+ * @param timeMs the time allowed for the search, in milliseconds
+ * @param nodes the number of boards the search may visit
+ * 
+ * @author Jaden
+ * @since 0.0.1
+ */
+record SearchLimits(int depth, long timeMs, long nodes) {
+	
+	/**
+	 * Limits a search by time alone
+	 * @param timeMs the time allowed for the search, in milliseconds
+	 * @return the limits
+	 */
+	static SearchLimits ofTime(long timeMs) {
+		return new SearchLimits(0, timeMs, 0);
+	}
+}
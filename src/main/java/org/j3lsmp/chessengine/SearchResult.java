@@ -0,0 +1,28 @@
+package org.j3lsmp.chessengine;
+
+/**
+ * The outcome of a search by {@link MoveSearcher}
+ * 
+ * @param bestMove the best move found, or null if the board has no legal moves
+ * @param score the evaluation of the board after the best move, negative favors black, positive favors white
+ * @param depth the deepest iteration completed, 0 if the search was stopped during the first
+ * @param nodes the number of boards visited
+ * @param evaluations the number of boards statically evaluated
+ * @param evaluationCacheHits the number of boards whose evaluation was found in {@link MoveSearcher#evaluationCache}
+ * instead
+ * @param timeMs the time the search took, in milliseconds
+ * 
+ * @author Jaden
+ * @since 0.0.1
+ */
+record SearchResult(Move bestMove, int score, int depth, long nodes, long evaluations, long evaluationCacheHits, long timeMs) {
+	
+	/**
+	 * The fraction of boards needing an evaluation that found it in {@link MoveSearcher#evaluationCache}
+	 * @return hit rate from 0 to 1, or 0 if nothing was evaluated
+	 */
+	double evaluationCacheHitRate() {
+		long total = evaluations + evaluationCacheHits;
+		return total == 0 ? 0 : (double) evaluationCacheHits / total;
+	}
+}
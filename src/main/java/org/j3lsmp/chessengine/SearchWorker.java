@@ -0,0 +1,264 @@
+package org.j3lsmp.chessengine;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * One process of a {@link DistributedSearch}. It connects to the coordinator, and for each search it is sent searches
+ * its share of the root moves with its own {@link MoveSearcher}, one depth at a time across all of them, reporting
+ * each move's score and principal variation at each depth as soon as it has them. Deep transposition table entries it
+ * stores are batched up and sent to the coordinator, which passes them on to the other workers
+ *
+ * <p>Started by the coordinator, or by hand to join one on another machine:
+ * <code>java -cp chess-engine.jar org.j3lsmp.chessengine.SearchWorker host port [shareDepth]</code>
+ *
+ * @author Jaden
+ * @since 0.0.1
+ */
+public class SearchWorker {
+	/**
+	 * How often shared entries are sent, at most
+	 */
+	private static final long SHARE_INTERVAL_MS = 50;
+
+	/**
+	 * The searcher, whose table also receives the entries other workers share
+	 */
+	private final MoveSearcher searcher = new MoveSearcher(true);
+
+	/**
+	 * The connection to the coordinator
+	 */
+	private final DataInputStream in;
+	private final DataOutputStream out;
+
+	/**
+	 * Entries waiting to be shared
+	 */
+	private final LinkedBlockingQueue<DistributedProtocol.SharedEntry> outgoing = new LinkedBlockingQueue<>();
+
+	/**
+	 * Runs one search at a time, so the connection stays free to receive stops and shared entries
+	 */
+	private final ExecutorService searchThread = Executors.newSingleThreadExecutor();
+
+	/**
+	 * The search running now, or null
+	 */
+	private volatile SearchContext current;
+
+	/**
+	 * The stop flags of the searches running or waiting to run. Each search has its own, so a search sent after a stop
+	 * can't clear the stop of one still queued or running
+	 */
+	private final Set<AtomicBoolean> pending = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * Connects to a coordinator
+	 * @param socket the connection
+	 * @param shareDepth the shallowest table entries to share with the other workers
+	 * @throws IOException if the connection can't be used
+	 */
+	SearchWorker(Socket socket, int shareDepth) throws IOException {
+		socket.setTcpNoDelay(true);
+		in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+		out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+		searcher.transpositionTable.shareDepth = shareDepth;
+		searcher.transpositionTable.shareListener = (key, entry) -> outgoing.add(new DistributedProtocol.SharedEntry(key, entry));
+	}
+
+	/**
+	 * Entry method for a worker
+	 * @param args the coordinator's host and port, then optionally the shallowest table entries to share
+	 * @throws Exception if the coordinator can't be reached
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length < 2) {
+			System.err.println("Usage: SearchWorker <host> <port> [shareDepth]");
+			System.exit(1);
+		}
+		int shareDepth = args.length > 2 ? Integer.parseInt(args[2]) : DistributedSearch.DEFAULT_SHARE_DEPTH;
+		try (Socket socket = new Socket(args[0], Integer.parseInt(args[1]))) {
+			new SearchWorker(socket, shareDepth).run();
+		}
+		System.exit(0);
+	}
+
+	/**
+	 * Serve the coordinator until it says to quit or disconnects
+	 * @throws IOException if the connection fails
+	 */
+	void run() throws IOException {
+		Thread sharer = new Thread(this::shareEntries, "entry-sharer");
+		sharer.setDaemon(true);
+		sharer.start();
+		try {
+			while (true) {
+				byte type = in.readByte();
+				switch (type) {
+				case DistributedProtocol.SEARCH:
+					int id = in.readInt();
+					ChessBoard board = DistributedProtocol.readPosition(in);
+					int depthLimit = in.readInt();
+					long timeMs = in.readLong();
+					int count = in.readUnsignedShort();
+					List<Move> moves = new ArrayList<>(count);
+					int[] indices = new int[count];
+					for (int i = 0; i < count; i++) {
+						moves.add(DistributedProtocol.readMove(in));
+						indices[i] = in.readUnsignedShort();
+					}
+					long deadline = timeMs > 0 ? System.currentTimeMillis() + timeMs : Long.MAX_VALUE;
+					AtomicBoolean stopped = new AtomicBoolean();
+					pending.add(stopped);
+					searchThread.execute(() -> {
+						try {
+							search(id, board, moves, indices, depthLimit, deadline, stopped);
+						} finally {
+							pending.remove(stopped);
+						}
+					});
+					break;
+				case DistributedProtocol.STOP:
+					stop();
+					break;
+				case DistributedProtocol.ENTRIES:
+					for (DistributedProtocol.SharedEntry shared : DistributedProtocol.readEntries(in))
+						searcher.transpositionTable.putShared(shared.zobristKey(), shared.entry());
+					break;
+				case DistributedProtocol.QUIT:
+					return;
+				default:
+					throw new IOException("Unknown message type " + type);
+				}
+			}
+		} catch (EOFException e) {
+			// The coordinator went away
+		} finally {
+			stop();
+			searchThread.shutdownNow();
+		}
+	}
+
+	/**
+	 * Abandon the search running now and any waiting to run
+	 */
+	private void stop() {
+		for (AtomicBoolean stopped : pending)
+			stopped.set(true);
+		SearchContext context = current;
+		if (context != null)
+			context.stop();
+	}
+
+	/**
+	 * Search root moves with iterative deepening, deepening all of them together so every move has a score at the same
+	 * depth whenever time runs out. Each move's position is searched to one less than the depth, and depth 1 is just
+	 * the evaluation after the move
+	 * @param id the search's id, sent back with its results
+	 * @param board the root position
+	 * @param moves the root moves to search
+	 * @param indices each move's index among all the root moves
+	 * @param depthLimit the deepest depth, 0 for none
+	 * @param deadline when to stop, in milliseconds since the epoch
+	 * @param stopped set to abandon this search
+	 */
+	private void search(int id, ChessBoard board, List<Move> moves, int[] indices, int depthLimit, long deadline,
+			AtomicBoolean stopped) {
+		long nodes = 0;
+		int maxDepth = depthLimit > 0 ? Math.min(depthLimit, MoveSearcher.MAX_DEPTH) : MoveSearcher.MAX_DEPTH;
+		searcher.transpositionTable.newSearch();
+		try {
+			deepening: for (int depth = 1; depth <= maxDepth; depth++) {
+				for (int i = 0; i < moves.size(); i++) {
+					if (stopped.get() || System.currentTimeMillis() >= deadline)
+						break deepening;
+					Move move = moves.get(i);
+					ChessBoard child = new ChessBoard(board, move);
+					List<Move> pv = new ArrayList<>();
+					int score;
+					if (child.generateMoves().isEmpty()) {
+						// Mate or stalemate, nothing to search
+						score = !child.isInCheck() ? 0 : child.isWhiteTurn ? -MoveSearcher.MATE_VALUE : MoveSearcher.MATE_VALUE;
+						pv.add(move);
+					} else if (depth == 1) {
+						score = child.calculateBoardValue();
+						pv.add(move);
+					} else {
+						SearchContext context = new SearchContext(searcher, new SearchLimits(depth - 1, 0, 0));
+						context.setDeadline(deadline);
+						current = context;
+						if (stopped.get())
+							context.stop();
+						SearchResult result = searcher.search(child, context);
+						current = null;
+						nodes += result.nodes();
+						if (context.shouldStop() || result.bestMove() == null)
+							break deepening; // Partial, so no better than the last depth
+						score = result.score();
+						pv.add(move);
+						pv.addAll(searcher.principalVariation(child, result.bestMove(), depth - 1));
+					}
+					synchronized (out) {
+						out.writeByte(DistributedProtocol.PROGRESS);
+						out.writeInt(id);
+						out.writeShort(indices[i]);
+						out.writeByte(depth);
+						out.writeInt(score);
+						out.writeLong(nodes);
+						out.writeByte(pv.size());
+						for (Move pvMove : pv)
+							DistributedProtocol.writeMove(out, pvMove);
+						out.flush();
+					}
+				}
+			}
+			synchronized (out) {
+				out.writeByte(DistributedProtocol.DONE);
+				out.writeInt(id);
+				out.writeLong(nodes);
+				out.flush();
+			}
+		} catch (IOException e) {
+			System.err.println("Lost the coordinator: " + e);
+			stop();
+		}
+	}
+
+	/**
+	 * Send shared entries to the coordinator in batches, until the process exits
+	 */
+	private void shareEntries() {
+		List<DistributedProtocol.SharedEntry> batch = new ArrayList<>();
+		try {
+			while (true) {
+				DistributedProtocol.SharedEntry first = outgoing.take();
+				batch.add(first);
+				Thread.sleep(SHARE_INTERVAL_MS); // Let a batch build up
+				outgoing.drainTo(batch, DistributedProtocol.MAX_ENTRIES_PER_MESSAGE - 1);
+				synchronized (out) {
+					DistributedProtocol.writeEntries(out, batch);
+					out.flush();
+				}
+				batch.clear();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (IOException e) {
+			// The coordinator went away, and run() will notice
+		}
+	}
+}
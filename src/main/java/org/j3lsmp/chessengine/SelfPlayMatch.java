@@ -0,0 +1,404 @@
+package org.j3lsmp.chessengine;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Headless match between two {@link MoveSearcher} configurations, to tell whether a change makes the engine stronger.
+ * Games run concurrently, one per thread, each with single-threaded searches so throughput scales with core count.
+ * Every opening is a few random moves from the starting position and is played twice with colours swapped. Finished
+ * games are appended to a PGN file, and the Elo difference and SPRT status are printed after every game
+ *
+ * <p>Run without Spring, for example
+ * <code>java -cp target/classes org.j3lsmp.chessengine.SelfPlayMatch --games 2000 --a nodes=20000 --b nodes=10000 --pgn match.pgn</code>
+ *
+ * <p>Options, all optional:
+ * <ul>
+ * <li><code>--a</code>, <code>--b</code> the two configurations, as comma separated limits like
+ * <code>depth=6,timeMs=100,nodes=20000</code>. Default <code>nodes=20000</code></li>
+ * <li><code>--games</code> the most games to play. Default 1000</li>
+ * <li><code>--concurrency</code> games played at once. Default the number of cores</li>
+ * <li><code>--openingPlies</code> random moves played before the engines take over. Default 8</li>
+ * <li><code>--seed</code> seed for the random openings. Default 1</li>
+ * <li><code>--pgn</code> file finished games are appended to. Default selfplay.pgn</li>
+ * <li><code>--elo0</code>, <code>--elo1</code> the SPRT hypotheses, that A is elo0 or elo1 stronger than B. The match
+ * stops early once one is accepted. Default 0 and 5</li>
+ * <li><code>--alpha</code>, <code>--beta</code> the SPRT error rates. Default 0.05</li>
+ * </ul>
+ *
+ * @author Jaden
+ * @since 0.0.1
+ * @see <a href="https://www.chessprogramming.org/Sequential_Probability_Ratio_Test">Reference</a>
+ */
+public class SelfPlayMatch {
+	/**
+	 * Longest game played before it's adjudicated a draw, in plies
+	 */
+	private static final int MAX_PLIES = 400;
+
+	/**
+	 * How a finished game ended
+	 * @param result the PGN result, "1-0", "0-1" or "1/2-1/2"
+	 * @param termination why the game ended
+	 * @param moves the moves of the game in standard algebraic notation
+	 */
+	record GameRecord(String result, String termination, List<String> moves) {}
+
+	/**
+	 * The configurations playing
+	 */
+	private final MoveSearcher engineA = new MoveSearcher(false), engineB = new MoveSearcher(false);
+
+	/**
+	 * Limits of each configuration
+	 */
+	private final SearchLimits limitsA, limitsB;
+
+	/**
+	 * Names of each configuration, for the PGN and the status line
+	 */
+	private final String nameA, nameB;
+
+	/**
+	 * Match settings
+	 */
+	private final int games, concurrency, openingPlies;
+	private final long seed;
+	private final double elo0, elo1, alpha, beta;
+
+	/**
+	 * Where finished games are written
+	 */
+	private final BufferedWriter pgn;
+
+	/**
+	 * Results from A's point of view
+	 */
+	private int wins, draws, losses;
+
+	/**
+	 * Games thrown away because a search stopped at its limits without a move, though there were legal moves. Any
+	 * move played in its place would be neither engine's, so the game is left out of the results
+	 */
+	private final AtomicInteger discarded = new AtomicInteger();
+
+	/**
+	 * Set once the SPRT accepts a hypothesis, so no more games are started
+	 */
+	private volatile boolean decided;
+
+	/**
+	 * Sets up a match from command line options
+	 * @param options option names without the leading dashes, mapped to values
+	 * @throws IOException if the PGN file can't be opened
+	 */
+	SelfPlayMatch(HashMap<String, String> options) throws IOException {
+		nameA = options.getOrDefault("a", "nodes=20000");
+		nameB = options.getOrDefault("b", "nodes=20000");
+		limitsA = parseLimits(nameA);
+		limitsB = parseLimits(nameB);
+		games = Integer.parseInt(options.getOrDefault("games", "1000"));
+		concurrency = Integer.parseInt(options.getOrDefault("concurrency", "" + Runtime.getRuntime().availableProcessors()));
+		openingPlies = Integer.parseInt(options.getOrDefault("openingPlies", "8"));
+		seed = Long.parseLong(options.getOrDefault("seed", "1"));
+		elo0 = Double.parseDouble(options.getOrDefault("elo0", "0"));
+		elo1 = Double.parseDouble(options.getOrDefault("elo1", "5"));
+		alpha = Double.parseDouble(options.getOrDefault("alpha", "0.05"));
+		beta = Double.parseDouble(options.getOrDefault("beta", "0.05"));
+		pgn = Files.newBufferedWriter(Path.of(options.getOrDefault("pgn", "selfplay.pgn")), StandardCharsets.UTF_8,
+				StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+	}
+
+	/**
+	 * Entry method for self-play matches
+	 * @param args options, see {@link SelfPlayMatch}
+	 * @throws Exception if the match can't be run
+	 */
+	public static void main(String[] args) throws Exception {
+		new SelfPlayMatch(parseOptions(args)).run();
+	}
+
+	/**
+	 * Reads <code>--name value</code> pairs
+	 * @param args the command line arguments
+	 * @return option names without the leading dashes, mapped to values
+	 */
+	static HashMap<String, String> parseOptions(String[] args) {
+		HashMap<String, String> options = new HashMap<>();
+		for (int i = 0; i < args.length; i++) {
+			if (!args[i].startsWith("--"))
+				throw new IllegalArgumentException("Expected an option, got " + args[i]);
+			String name = args[i].substring(2);
+			options.put(name, i + 1 < args.length && !args[i + 1].startsWith("--") ? args[++i] : "true");
+		}
+		return options;
+	}
+
+	/**
+	 * Reads limits written like <code>depth=6,timeMs=100,nodes=20000</code>
+	 * @param text the limits
+	 * @return the parsed limits, unset ones are unlimited
+	 */
+	static SearchLimits parseLimits(String text) {
+		int depth = 0;
+		long timeMs = 0, nodes = 0;
+		for (String part : text.split(",")) {
+			String[] pair = part.trim().split("=");
+			switch (pair[0]) {
+			case "depth":
+				depth = Integer.parseInt(pair[1]);
+				break;
+			case "timeMs":
+				timeMs = Long.parseLong(pair[1]);
+				break;
+			case "nodes":
+				nodes = Long.parseLong(pair[1]);
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown search limit " + pair[0]);
+			}
+		}
+		if (depth == 0 && timeMs == 0 && nodes == 0)
+			throw new IllegalArgumentException("A configuration needs at least one limit: " + text);
+		return new SearchLimits(depth, timeMs, nodes);
+	}
+
+	/**
+	 * Play the match until every game is done or the SPRT accepts a hypothesis
+	 * @throws InterruptedException if interrupted while waiting for games
+	 * @throws IOException if the PGN file can't be closed
+	 */
+	void run() throws InterruptedException, IOException {
+		System.out.printf("%s (A) vs %s (B), up to %d games, %d at a time%n", nameA, nameB, games, concurrency);
+		ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+		AtomicInteger nextGame = new AtomicInteger();
+		for (int thread = 0; thread < concurrency; thread++)
+			executor.execute(() -> {
+				int game;
+				while (!decided && (game = nextGame.getAndIncrement()) < games) {
+					boolean aIsWhite = game % 2 == 0;
+					GameRecord record = playGame(openingMoves(game / 2), aIsWhite);
+					if (record != null)
+						finishGame(game, aIsWhite, record);
+					else
+						System.out.printf("Game %d discarded, a search found no move (%d so far)%n", game + 1,
+								discarded.incrementAndGet());
+				}
+			});
+		executor.shutdown();
+		executor.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+		pgn.close();
+	}
+
+	/**
+	 * Chooses the random opening shared by a pair of games
+	 * @param pair the index of the pair of games
+	 * @return the opening moves
+	 */
+	private List<Move> openingMoves(int pair) {
+		Random random = new Random(seed * 1_000_003 + pair);
+		while (true) {
+			ChessBoard board = new ChessBoard();
+			board.resetBoard();
+			List<Move> opening = new ArrayList<>();
+			for (int ply = 0; ply < openingPlies; ply++) {
+				ArrayList<Move> moves = new ArrayList<>(board.generateMoves());
+				if (moves.isEmpty())
+					break;
+				moves.sort((a, b) -> ChessUtilities.moveToUci(a).compareTo(ChessUtilities.moveToUci(b))); // Sets aren't ordered, keep it reproducible
+				Move move = moves.get(random.nextInt(moves.size()));
+				opening.add(move);
+				board.performMove(move);
+			}
+			if (!board.generateMoves().isEmpty())
+				return opening;
+		}
+	}
+
+	/**
+	 * Play one game
+	 * @param opening the moves to start with
+	 * @param aIsWhite whether configuration A plays white
+	 * @return the finished game, or null if a search stopped without a move and the game should be thrown away
+	 */
+	GameRecord playGame(List<Move> opening, boolean aIsWhite) {
+		ChessBoard board = new ChessBoard();
+		board.resetBoard();
+		List<String> sanMoves = new ArrayList<>();
+		List<Long> history = new ArrayList<>(); // Hashes since the last capture or pawn move, for repetitions
+		history.add(board.computeZobristHash());
+
+		for (int ply = 0; ply < MAX_PLIES; ply++) {
+			Move move;
+			if (ply < opening.size()) {
+				move = opening.get(ply);
+			} else {
+				boolean aToMove = board.isWhiteTurn == aIsWhite;
+				move = (aToMove ? engineA : engineB).search(board, aToMove ? limitsA : limitsB).bestMove();
+			}
+			if (move == null) {
+				// Games that end are caught after the move that ends them, so this is a search cut short
+				if (board.generateMoves().isEmpty())
+					return board.isInCheck() ? new GameRecord(board.isWhiteTurn ? "0-1" : "1-0", "checkmate", sanMoves)
+							: new GameRecord("1/2-1/2", "stalemate", sanMoves);
+				return null;
+			}
+
+			boolean irreversible = board.isCapture(move) || move.piece() == 1 || move.piece() == -1;
+			sanMoves.add(Notation.toSan(board, move));
+			board.performMove(move);
+
+			if (irreversible)
+				history.clear();
+			long hash = board.computeZobristHash();
+			history.add(hash);
+
+			if (board.generateMoves().isEmpty())
+				return board.isInCheck() ? new GameRecord(board.isWhiteTurn ? "0-1" : "1-0", "checkmate", sanMoves)
+						: new GameRecord("1/2-1/2", "stalemate", sanMoves);
+			if (history.size() > 100)
+				return new GameRecord("1/2-1/2", "fifty move rule", sanMoves);
+			if (history.stream().filter(h -> h == hash).count() >= 3)
+				return new GameRecord("1/2-1/2", "threefold repetition", sanMoves);
+			if (insufficientMaterial(board))
+				return new GameRecord("1/2-1/2", "insufficient material", sanMoves);
+		}
+		return new GameRecord("1/2-1/2", "adjudicated at " + MAX_PLIES + " plies", sanMoves);
+	}
+
+	/**
+	 * Whether neither side has enough material left to checkmate: bare kings, or a single minor piece between them
+	 * @param board the board
+	 * @return true if the game is a dead draw
+	 */
+	static boolean insufficientMaterial(ChessBoard board) {
+		if ((board.pawns | board.rooks | board.queens) != 0)
+			return false;
+		return Long.bitCount(board.knights | board.bishops) <= 1;
+	}
+
+	/**
+	 * Record a finished game, write it to the PGN file and print the match status
+	 * @param game the index of the game
+	 * @param aIsWhite whether configuration A played white
+	 * @param record the finished game
+	 */
+	private synchronized void finishGame(int game, boolean aIsWhite, GameRecord record) {
+		if (record.result().equals("1/2-1/2"))
+			draws++;
+		else if (record.result().equals("1-0") == aIsWhite)
+			wins++;
+		else
+			losses++;
+
+		try {
+			writePgn(game, aIsWhite, record);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+
+		double llr = logLikelihoodRatio();
+		double lower = Math.log(beta / (1 - alpha)), upper = Math.log((1 - beta) / alpha);
+		String status = llr >= upper ? "H1 accepted" : llr <= lower ? "H0 accepted" : "continue";
+		System.out.printf("Games %d: +%d =%d -%d  Elo %s  LLR %.2f (%.2f, %.2f) %s%n", wins + draws + losses, wins, draws,
+				losses, eloEstimate(), llr, lower, upper, status);
+		if (discarded.get() > 0)
+			System.out.printf("  %d games discarded, a search found no move%n", discarded.get());
+		if (!status.equals("continue"))
+			decided = true;
+	}
+
+	/**
+	 * Append a game to the PGN file
+	 * @param game the index of the game
+	 * @param aIsWhite whether configuration A played white
+	 * @param record the finished game
+	 * @throws IOException if the file can't be written
+	 */
+	private void writePgn(int game, boolean aIsWhite, GameRecord record) throws IOException {
+		pgn.write("[Event \"Self-play match\"]\n");
+		pgn.write("[Site \"?\"]\n");
+		pgn.write("[Date \"" + LocalDate.now().format(DateTimeFormatter.ofPattern("yyyy.MM.dd")) + "\"]\n");
+		pgn.write("[Round \"" + (game + 1) + "\"]\n");
+		pgn.write("[White \"" + (aIsWhite ? "A " + nameA : "B " + nameB) + "\"]\n");
+		pgn.write("[Black \"" + (aIsWhite ? "B " + nameB : "A " + nameA) + "\"]\n");
+		pgn.write("[Result \"" + record.result() + "\"]\n");
+		pgn.write("[Termination \"" + record.termination() + "\"]\n\n");
+
+		StringBuilder line = new StringBuilder();
+		for (int ply = 0; ply < record.moves().size(); ply++) {
+			String token = (ply % 2 == 0 ? (ply / 2 + 1) + ". " : "") + record.moves().get(ply);
+			if (line.length() + token.length() >= 80) {
+				pgn.write(line.toString().stripTrailing() + "\n");
+				line.setLength(0);
+			}
+			line.append(token).append(' ');
+		}
+		pgn.write(line + record.result() + "\n\n");
+		pgn.flush();
+	}
+
+	/**
+	 * Estimate the Elo difference of A over B from the results so far, with a 95% confidence margin
+	 * @return the estimate as text
+	 */
+	private String eloEstimate() {
+		int n = wins + draws + losses;
+		double score = (wins + draws / 2.0) / n;
+		if (score <= 0 || score >= 1)
+			return score <= 0 ? "-inf" : "+inf";
+		double variance = (wins * Math.pow(1 - score, 2) + draws * Math.pow(0.5 - score, 2) + losses * Math.pow(score, 2)) / n;
+		double margin = 1.96 * Math.sqrt(variance / n);
+		double elo = eloFromScore(score);
+		double spread = (eloFromScore(Math.min(score + margin, 0.999)) - eloFromScore(Math.max(score - margin, 0.001))) / 2;
+		return String.format("%+.1f +/- %.1f", elo, spread);
+	}
+
+	/**
+	 * The logistic Elo difference that gives an expected score
+	 * @param score expected score between 0 and 1
+	 * @return the Elo difference
+	 */
+	static double eloFromScore(double score) {
+		return -400 * Math.log10(1 / score - 1);
+	}
+
+	/**
+	 * The expected score of a player some Elo stronger than their opponent
+	 * @param elo the Elo difference
+	 * @return the expected score between 0 and 1
+	 */
+	static double scoreFromElo(double elo) {
+		return 1 / (1 + Math.pow(10, -elo / 400));
+	}
+
+	/**
+	 * The generalised SPRT log-likelihood ratio of the results so far for H1 (A is elo1 stronger) against H0 (A is elo0
+	 * stronger), using the normal approximation to the trinomial results
+	 * @return the log-likelihood ratio, 0 until there's enough data
+	 */
+	double logLikelihoodRatio() {
+		int n = wins + draws + losses;
+		if (wins == 0 || losses == 0) // No variance in decisive results yet
+			return 0;
+		double score = (wins + draws / 2.0) / n;
+		double variance = (wins * Math.pow(1 - score, 2) + draws * Math.pow(0.5 - score, 2) + losses * Math.pow(score, 2)) / n;
+		double s0 = scoreFromElo(elo0), s1 = scoreFromElo(elo1);
+		return n * (s1 - s0) * (2 * score - s0 - s1) / (2 * variance);
+	}
+}
@@ -0,0 +1,449 @@
+package org.j3lsmp.chessengine;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tunes the evaluation's piece values and piece-square tables to a file of positions labelled with how their games
+ * ended, by Texel's method: the evaluation, squashed through a sigmoid into an expected score, should predict the
+ * result, so gradient descent minimises the mean squared error between the two
+ *
+ * <p>The hand-written evaluation is linear in those values, so each position only needs reading once. It becomes a
+ * sparse feature vector (how many of each piece each side has, and which squares they're on) plus the pawn structure
+ * term, which isn't tuned. The vectors are spilled to a temporary file in batches, memory-mapped, and every iteration
+ * streams through them in parallel, one batch per task, so tens of millions of positions take disk and page cache
+ * rather than heap. Only quiet positions are kept, with no check and no capture or promotion to play, as the
+ * evaluation can't see tactics and they'd only teach it noise
+ *
+ * <p>Each line of the input is a FEN (the first four fields are used) followed by the result from white's side, as
+ * <code>1-0</code>, <code>0-1</code>, <code>1/2-1/2</code> or a number from 0 to 1, optionally in brackets or quotes
+ * as EPD and most training sets write it. For example:
+ * <code>java -cp chess-engine.jar org.j3lsmp.chessengine.TexelTuner positions.epd tuned.txt --epochs 300</code>
+ *
+ * <p>Options: <code>--epochs</code> passes of gradient descent (200), <code>--learningRate</code> in centipawns (1),
+ * <code>--k</code> to fix the sigmoid's scale rather than fitting it to the starting values, <code>--threads</code>
+ * (every core), <code>--temp</code> a directory for the feature file (the system's). The result is written for
+ * {@link EvaluationParameters#load(Path)}
+ *
+ * @author Jaden
+ * @since 0.0.1
+ */
+public class TexelTuner {
+	/**
+	 * Tuned values: the material of pawn to queen, then a piece-square table for each of pawn to king
+	 */
+	static final int PARAMETERS = 5 + 6 * 64;
+
+	/**
+	 * Positions per batch, the unit of both reading and tuning work
+	 */
+	private static final int BATCH_POSITIONS = 4096;
+
+	/**
+	 * Largest encoded position: result, pawn structure, feature count, and up to 5 material and 32 square features
+	 */
+	private static final int MAX_RECORD_BYTES = 4 + 2 + 1 + 37 * 3;
+
+	/**
+	 * Converts the evaluation in centipawns into a win probability, along with the fitted scale
+	 */
+	private static final double LN10_OVER_400 = Math.log(10) / 400;
+
+	/**
+	 * A batch of encoded positions in the feature file
+	 * @param buffer the batch, mapped
+	 * @param positions how many positions it holds
+	 */
+	private record Batch(MappedByteBuffer buffer, int positions) {}
+
+	/**
+	 * Runs reading and tuning work
+	 */
+	private final ExecutorService pool;
+
+	/**
+	 * Worker threads
+	 */
+	private final int threads;
+
+	/**
+	 * Holds the encoded positions
+	 */
+	private final Path featureFile;
+
+	/**
+	 * Batches of the feature file, once written
+	 */
+	private final List<Batch> batches = new ArrayList<>();
+
+	/**
+	 * Positions kept, and lines skipped as unreadable or not quiet
+	 */
+	private final AtomicLong kept = new AtomicLong(), skipped = new AtomicLong();
+
+	/**
+	 * Creates a tuner
+	 * @param threads worker threads
+	 * @param temp directory for the feature file
+	 * @throws IOException if the feature file can't be created
+	 */
+	TexelTuner(int threads, Path temp) throws IOException {
+		this.threads = threads;
+		this.pool = Executors.newFixedThreadPool(threads);
+		this.featureFile = Files.createTempFile(temp, "texel", ".features");
+	}
+
+	/**
+	 * Entry method for tuning
+	 * @param args the positions, the parameter file to write, then options, see {@link TexelTuner}
+	 * @throws Exception if tuning fails
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length < 2) {
+			System.err.println("Usage: TexelTuner <positions> <parameter file> [--epochs n] [--learningRate r] [--k k] [--threads n] [--temp dir]");
+			System.exit(1);
+		}
+		HashMap<String, String> options = SelfPlayMatch.parseOptions(Arrays.copyOfRange(args, 2, args.length));
+		TexelTuner tuner = new TexelTuner(Integer.parseInt(options.getOrDefault("threads", "" + Runtime.getRuntime().availableProcessors())),
+				Path.of(options.getOrDefault("temp", System.getProperty("java.io.tmpdir"))));
+		try {
+			long start = System.currentTimeMillis();
+			tuner.read(Path.of(args[0]));
+			System.out.printf("Read %d quiet positions (%d lines skipped) in %d ms%n", tuner.kept.get(), tuner.skipped.get(),
+					System.currentTimeMillis() - start);
+			if (tuner.kept.get() == 0)
+				throw new IOException("No usable positions in " + args[0]);
+
+			double[] parameters = current();
+			double k = options.containsKey("k") ? Double.parseDouble(options.get("k")) : tuner.fitK(parameters);
+			double before = tuner.loss(parameters, k, null);
+			System.out.printf("K = %.4f, starting error %.6f%n", k, before);
+			double after = tuner.tune(parameters, k, Integer.parseInt(options.getOrDefault("epochs", "200")),
+					Double.parseDouble(options.getOrDefault("learningRate", "1")));
+
+			EvaluationParameters.write(Path.of(args[1]), toArrays(parameters), String.format(
+					"Tuned by TexelTuner on %d positions from %s%nK = %.4f, error %.6f -> %.6f", tuner.kept.get(),
+					Path.of(args[0]).getFileName(), k, before, after));
+			System.out.printf("Error %.6f -> %.6f, written to %s in %d ms%n", before, after, args[1],
+					System.currentTimeMillis() - start);
+		} finally {
+			tuner.close();
+		}
+		System.exit(0);
+	}
+
+	/**
+	 * The evaluation's current values, as a parameter vector
+	 * @return the vector
+	 */
+	static double[] current() {
+		double[] parameters = new double[PARAMETERS];
+		for (int type = 0; type < 5; type++)
+			parameters[type] = BoardFields.PIECE_VALUES[type];
+		int[][] arrays = EvaluationParameters.arrays();
+		for (int type = 0; type < 6; type++)
+			for (int square = 0; square < 64; square++)
+				parameters[5 + type * 64 + square] = arrays[type + 1][square];
+		return parameters;
+	}
+
+	/**
+	 * Round a parameter vector into the evaluation's arrays
+	 * @param parameters the vector
+	 * @return values for each of {@link EvaluationParameters#NAMES}
+	 */
+	static int[][] toArrays(double[] parameters) {
+		int[][] arrays = EvaluationParameters.arrays();
+		int[][] values = new int[arrays.length][];
+		values[0] = BoardFields.PIECE_VALUES.clone(); // The king's value isn't tuned
+		for (int type = 0; type < 5; type++)
+			values[0][type] = (int) Math.round(parameters[type]);
+		for (int type = 0; type < 6; type++) {
+			values[type + 1] = new int[64];
+			for (int square = 0; square < 64; square++)
+				values[type + 1][square] = (int) Math.round(parameters[5 + type * 64 + square]);
+		}
+		return values;
+	}
+
+	/**
+	 * Read and encode every position of the input, in parallel, into the feature file
+	 * @param input the positions
+	 * @throws IOException if reading or writing fails
+	 * @throws InterruptedException if interrupted while waiting for the workers
+	 */
+	void read(Path input) throws IOException, InterruptedException {
+		Semaphore inFlight = new Semaphore(threads * 2);
+		List<Future<?>> writes = new ArrayList<>();
+		try (BufferedReader reader = Files.newBufferedReader(input);
+				FileChannel channel = FileChannel.open(featureFile, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			List<String> lines = new ArrayList<>(BATCH_POSITIONS);
+			for (String line = reader.readLine(); ; line = reader.readLine()) {
+				if (line != null && !line.isBlank())
+					lines.add(line);
+				if (lines.size() == BATCH_POSITIONS || (line == null && !lines.isEmpty())) {
+					List<String> batch = lines;
+					lines = new ArrayList<>(BATCH_POSITIONS);
+					inFlight.acquire();
+					writes.add(pool.submit(() -> {
+						try {
+							encode(batch, channel);
+						} finally {
+							inFlight.release();
+						}
+						return null;
+					}));
+				}
+				if (line == null)
+					break;
+			}
+			for (Future<?> write : writes)
+				write.get();
+		} catch (ExecutionException e) {
+			throw new IOException("Reading positions failed", e.getCause());
+		}
+	}
+
+	/**
+	 * Encode a batch of input lines and append them to the feature file as one batch
+	 * @param lines the lines
+	 * @param channel the feature file
+	 * @throws IOException if writing fails
+	 */
+	private void encode(List<String> lines, FileChannel channel) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(lines.size() * MAX_RECORD_BYTES);
+		int positions = 0;
+		for (String line : lines) {
+			if (encode(line, buffer))
+				positions++;
+			else
+				skipped.incrementAndGet();
+		}
+		if (positions == 0)
+			return;
+		buffer.flip();
+		synchronized (batches) {
+			long offset = channel.size();
+			int length = buffer.remaining();
+			while (buffer.hasRemaining())
+				channel.write(buffer, offset + buffer.position());
+			batches.add(new Batch(channel.map(FileChannel.MapMode.READ_ONLY, offset, length), positions));
+		}
+		kept.addAndGet(positions);
+	}
+
+	/**
+	 * Encode one position: its result as a float, the pawn structure term as a short, then a count byte and that many
+	 * features, each a parameter index (short) and coefficient (byte)
+	 * @param line the input line
+	 * @param buffer where to write it
+	 * @return false if the line couldn't be read or the position isn't quiet
+	 */
+	private static boolean encode(String line, ByteBuffer buffer) {
+		String[] fields = line.strip().split("\\s+");
+		if (fields.length < 5)
+			return false;
+		double result = parseResult(fields[fields.length - 1]);
+		if (Double.isNaN(result))
+			return false;
+		ChessBoard board;
+		try {
+			board = new ChessBoard(String.join(" ", fields[0], fields[1], fields[2], fields[3]));
+		} catch (IllegalArgumentException e) {
+			return false;
+		}
+		if (board.isInCheck())
+			return false;
+		for (Move move : board.generateMoves())
+			if (board.isCapture(move) || move.promotion() != 0)
+				return false;
+
+		buffer.putFloat((float) result);
+		buffer.putShort((short) ChessBoard.evaluatePawnStructure(board.pieces(1, true), board.pieces(1, false)));
+		int countAt = buffer.position();
+		buffer.put((byte) 0);
+		int features = 0;
+		for (int type = 0; type < 6; type++) {
+			long white = board.pieces(type + 1, true), black = board.pieces(type + 1, false);
+			int material = Long.bitCount(white) - Long.bitCount(black);
+			if (type < 5 && material != 0) {
+				buffer.putShort((short) type).put((byte) material);
+				features++;
+			}
+			// Both colours read the same table, as in the hand-written evaluation
+			for (long pieces = white; pieces != 0; pieces &= pieces - 1, features++)
+				buffer.putShort((short) (5 + type * 64 + Long.numberOfTrailingZeros(pieces))).put((byte) 1);
+			for (long pieces = black; pieces != 0; pieces &= pieces - 1, features++)
+				buffer.putShort((short) (5 + type * 64 + Long.numberOfTrailingZeros(pieces))).put((byte) -1);
+		}
+		buffer.put(countAt, (byte) features);
+		return true;
+	}
+
+	/**
+	 * Read a game result
+	 * @param text the result, like <code>1-0</code>, <code>"1/2-1/2";</code> or <code>[0.5]</code>
+	 * @return the score for white, or NaN if it isn't a result
+	 */
+	static double parseResult(String text) {
+		String result = text.replaceAll("[\\[\\]\";]", "");
+		switch (result) {
+		case "1-0":
+			return 1;
+		case "0-1":
+			return 0;
+		case "1/2-1/2":
+			return 0.5;
+		default:
+			try {
+				double value = Double.parseDouble(result);
+				return value >= 0 && value <= 1 ? value : Double.NaN;
+			} catch (NumberFormatException e) {
+				return Double.NaN;
+			}
+		}
+	}
+
+	/**
+	 * Find the sigmoid scale that best fits the results to a parameter vector, by golden section search
+	 * @param parameters the vector
+	 * @return the scale
+	 * @throws Exception if a worker fails
+	 */
+	double fitK(double[] parameters) throws Exception {
+		double low = 0.05, high = 3, ratio = (Math.sqrt(5) - 1) / 2;
+		double a = high - ratio * (high - low), b = low + ratio * (high - low);
+		double lossA = loss(parameters, a, null), lossB = loss(parameters, b, null);
+		while (high - low > 0.001) {
+			if (lossA < lossB) {
+				high = b;
+				b = a;
+				lossB = lossA;
+				a = high - ratio * (high - low);
+				lossA = loss(parameters, a, null);
+			} else {
+				low = a;
+				a = b;
+				lossA = lossB;
+				b = low + ratio * (high - low);
+				lossB = loss(parameters, b, null);
+			}
+		}
+		return (low + high) / 2;
+	}
+
+	/**
+	 * Run gradient descent, with Adam's per-parameter step sizes as the tables' squares see very different amounts of
+	 * data
+	 * @param parameters the starting vector, updated in place
+	 * @param k the sigmoid scale
+	 * @param epochs passes over the positions
+	 * @param learningRate the largest step, in centipawns
+	 * @return the final error
+	 * @throws Exception if a worker fails
+	 */
+	double tune(double[] parameters, double k, int epochs, double learningRate) throws Exception {
+		double beta1 = 0.9, beta2 = 0.999, epsilon = 1e-8;
+		double[] gradient = new double[PARAMETERS], mean = new double[PARAMETERS], variance = new double[PARAMETERS];
+		double error = 0;
+		for (int epoch = 1; epoch <= epochs; epoch++) {
+			error = loss(parameters, k, gradient);
+			for (int i = 0; i < PARAMETERS; i++) {
+				mean[i] = beta1 * mean[i] + (1 - beta1) * gradient[i];
+				variance[i] = beta2 * variance[i] + (1 - beta2) * gradient[i] * gradient[i];
+				double meanHat = mean[i] / (1 - Math.pow(beta1, epoch)), varianceHat = variance[i] / (1 - Math.pow(beta2, epoch));
+				parameters[i] -= learningRate * meanHat / (Math.sqrt(varianceHat) + epsilon);
+			}
+			if (epoch % 10 == 0 || epoch == epochs)
+				System.out.printf("epoch %d: error %.6f%n", epoch, error);
+		}
+		return error;
+	}
+
+	/**
+	 * Compute the mean squared error of a parameter vector over every position, in parallel, and optionally its
+	 * gradient
+	 * @param parameters the vector
+	 * @param k the sigmoid scale
+	 * @param gradient where to put the gradient, or null to skip it
+	 * @return the error
+	 * @throws Exception if a worker fails
+	 */
+	double loss(double[] parameters, double k, double[] gradient) throws Exception {
+		List<Callable<double[]>> tasks = new ArrayList<>(batches.size());
+		for (Batch batch : batches)
+			tasks.add(() -> loss(batch, parameters, k, gradient != null));
+		double error = 0;
+		if (gradient != null)
+			Arrays.fill(gradient, 0);
+		for (Future<double[]> result : pool.invokeAll(tasks)) {
+			double[] partial = result.get();
+			error += partial[PARAMETERS];
+			if (gradient != null)
+				for (int i = 0; i < PARAMETERS; i++)
+					gradient[i] += partial[i];
+		}
+		long positions = kept.get();
+		if (gradient != null)
+			for (int i = 0; i < PARAMETERS; i++)
+				gradient[i] /= positions;
+		return error / positions;
+	}
+
+	/**
+	 * Sum the squared error, and optionally its gradient, over one batch
+	 * @param batch the batch
+	 * @param parameters the parameter vector
+	 * @param k the sigmoid scale
+	 * @param withGradient whether to compute the gradient
+	 * @return the gradient, then the summed error in the last element
+	 */
+	private static double[] loss(Batch batch, double[] parameters, double k, boolean withGradient) {
+		double[] sums = new double[PARAMETERS + 1];
+		ByteBuffer buffer = batch.buffer();
+		int offset = 0;
+		for (int position = 0; position < batch.positions(); position++) {
+			double result = buffer.getFloat(offset);
+			double eval = buffer.getShort(offset + 4);
+			int features = buffer.get(offset + 6) & 0xFF, first = offset + 7;
+			for (int f = 0; f < features; f++)
+				eval += buffer.get(first + 3 * f + 2) * parameters[buffer.getShort(first + 3 * f)];
+			double expected = 1 / (1 + Math.pow(10, -k * eval / 400));
+			double difference = result - expected;
+			sums[PARAMETERS] += difference * difference;
+			if (withGradient) {
+				double slope = -2 * difference * expected * (1 - expected) * k * LN10_OVER_400;
+				for (int f = 0; f < features; f++)
+					sums[buffer.getShort(first + 3 * f)] += slope * buffer.get(first + 3 * f + 2);
+			}
+			offset = first + 3 * features;
+		}
+		return sums;
+	}
+
+	/**
+	 * Stop the workers and delete the feature file
+	 * @throws IOException if it can't be deleted
+	 */
+	void close() throws IOException {
+		pool.shutdownNow();
+		Files.deleteIfExists(featureFile);
+	}
+}
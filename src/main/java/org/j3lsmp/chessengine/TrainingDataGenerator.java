@@ -0,0 +1,325 @@
+package org.j3lsmp.chessengine;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Plays games against itself at a fixed number of nodes per move and records every searched position, with its
+ * search score and the game's result, as training data for the evaluation. Games run one per thread, each with its
+ * own single-threaded {@link MoveSearcher}, and start from a few random moves so they don't repeat
+ *
+ * <p>Records are {@link #RECORD_BYTES} each, so a file can be split, shuffled or sampled by offset:
+ * <ul>
+ * <li>bytes 0-25: the position, as {@link PositionCodec} writes it, padded with zeros</li>
+ * <li>bytes 26-27: the search score from white's side, as a short, mates clamped to {@link #MATE_SCORE}</li>
+ * <li>byte 28: the result, 2 if white won, 1 for a draw and 0 if black won</li>
+ * <li>bytes 29-31: the move played, its origin and destination squares and the promotion piece type, or 0</li>
+ * </ul>
+ *
+ * <p>Each game's records are built in a buffer the thread reuses, then copied into the thread's output buffer once
+ * the result is known. Output buffers are written to the file when full, or when {@link #FLUSH_INTERVAL_MS} has passed
+ * since the last write, so nothing is allocated per position and a crash loses at most a few seconds of games. For
+ * example: <code>java -cp chess-engine.jar org.j3lsmp.chessengine.TrainingDataGenerator --output data.bin --positions 10000000</code>
+ *
+ * <p>Options: <code>--output</code> the file, appended to (training.bin), <code>--positions</code> to stop after,
+ * give or take the games in progress (1,000,000), <code>--nodes</code> per move (5000), <code>--threads</code> (every core), <code>--openingPlies</code>
+ * random moves to start each game (8), <code>--seed</code> for the random openings (1)
+ *
+ * @author Jaden
+ * @since 0.0.1
+ */
+public class TrainingDataGenerator {
+	/**
+	 * Size of each record, in bytes
+	 */
+	static final int RECORD_BYTES = 32;
+
+	/**
+	 * Where each field starts in a record
+	 */
+	static final int SCORE_OFFSET = 26, RESULT_OFFSET = 28, MOVE_OFFSET = 29;
+
+	/**
+	 * Scores are clamped to plus or minus this, which is also what a mate is recorded as
+	 */
+	static final int MATE_SCORE = 32000;
+
+	/**
+	 * Longest game played before it's adjudicated a draw, in plies
+	 */
+	private static final int MAX_PLIES = 400;
+
+	/**
+	 * Records each thread collects before writing them out
+	 */
+	private static final int RECORDS_PER_WRITE = 4096;
+
+	/**
+	 * Longest a thread holds finished games before writing them out, and how often the file is forced to disk
+	 */
+	private static final long FLUSH_INTERVAL_MS = 5000;
+
+	/**
+	 * One record of a file
+	 * @param board the position
+	 * @param score the search score, positive favors white
+	 * @param result 2 if white won, 1 for a draw and 0 if black won
+	 * @param move the move played
+	 */
+	record Sample(ChessBoard board, int score, int result, Move move) {}
+
+	/**
+	 * The file written to
+	 */
+	private final FileChannel channel;
+
+	/**
+	 * Generation settings
+	 */
+	private final long targetPositions;
+	private final int nodes, threads, openingPlies;
+	private final long seed;
+
+	/**
+	 * Positions written, games played, and games thrown away because a search found no move, so far
+	 */
+	private final AtomicLong written = new AtomicLong();
+	private final AtomicInteger games = new AtomicInteger(), discarded = new AtomicInteger();
+
+	/**
+	 * When the file was last forced to disk
+	 */
+	private long lastForced = System.currentTimeMillis();
+
+	/**
+	 * Sets up generation from command line options
+	 * @param options option names without the leading dashes, mapped to values
+	 * @throws IOException if the output file can't be opened
+	 */
+	TrainingDataGenerator(HashMap<String, String> options) throws IOException {
+		channel = FileChannel.open(Path.of(options.getOrDefault("output", "training.bin")), StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+		targetPositions = Long.parseLong(options.getOrDefault("positions", "1000000"));
+		nodes = Integer.parseInt(options.getOrDefault("nodes", "5000"));
+		threads = Integer.parseInt(options.getOrDefault("threads", "" + Runtime.getRuntime().availableProcessors()));
+		openingPlies = Integer.parseInt(options.getOrDefault("openingPlies", "8"));
+		seed = Long.parseLong(options.getOrDefault("seed", "1"));
+	}
+
+	/**
+	 * Entry method for generating training data
+	 * @param args options, see {@link TrainingDataGenerator}
+	 * @throws Exception if generation fails
+	 */
+	public static void main(String[] args) throws Exception {
+		new TrainingDataGenerator(SelfPlayMatch.parseOptions(args)).run();
+		System.exit(0);
+	}
+
+	/**
+	 * Play games until enough positions have been written
+	 * @throws InterruptedException if interrupted while waiting for the games
+	 * @throws IOException if the file can't be closed
+	 */
+	void run() throws InterruptedException, IOException {
+		System.out.printf("Generating %d positions at %d nodes per move on %d threads%n", targetPositions, nodes, threads);
+		long start = System.currentTimeMillis();
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		for (int thread = 0; thread < threads; thread++)
+			executor.execute(() -> {
+				try {
+					generate();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			});
+		executor.shutdown();
+		executor.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+		channel.force(false);
+		channel.close();
+		long elapsed = Math.max(1, System.currentTimeMillis() - start);
+		System.out.printf("Wrote %d positions from %d games (%d discarded) in %d s, %.0f positions/hour%n", written.get(),
+				games.get() - discarded.get(), discarded.get(), elapsed / 1000, written.get() * 3_600_000.0 / elapsed);
+	}
+
+	/**
+	 * Play games on this thread until enough positions have been written
+	 * @throws IOException if writing fails
+	 */
+	private void generate() throws IOException {
+		MoveSearcher searcher = new MoveSearcher(false);
+		SearchLimits limits = new SearchLimits(0, 0, nodes);
+		ByteBuffer game = ByteBuffer.allocateDirect(MAX_PLIES * RECORD_BYTES);
+		ByteBuffer output = ByteBuffer.allocateDirect(RECORDS_PER_WRITE * RECORD_BYTES);
+		long lastWrite = System.currentTimeMillis();
+		while (written.get() < targetPositions) {
+			int result = playGame(searcher, limits, openingMoves(games.getAndIncrement()), game);
+			if (result < 0) {
+				discarded.incrementAndGet();
+				game.clear();
+				continue;
+			}
+			game.flip();
+			for (int record = 0; record < game.limit(); record += RECORD_BYTES)
+				game.put(record + RESULT_OFFSET, (byte) result);
+			while (game.hasRemaining()) {
+				if (!output.hasRemaining())
+					lastWrite = write(output);
+				int length = Math.min(game.remaining(), output.remaining());
+				output.put(output.position(), game, game.position(), length);
+				output.position(output.position() + length);
+				game.position(game.position() + length);
+			}
+			game.clear();
+			if (System.currentTimeMillis() - lastWrite >= FLUSH_INTERVAL_MS)
+				lastWrite = write(output);
+		}
+		write(output);
+	}
+
+	/**
+	 * Write a thread's collected records to the file and empty its buffer, forcing the file to disk if it's been a
+	 * while
+	 * @param output the thread's buffer
+	 * @return when the write happened
+	 * @throws IOException if writing fails
+	 */
+	private long write(ByteBuffer output) throws IOException {
+		output.flip();
+		long now = System.currentTimeMillis();
+		synchronized (channel) {
+			while (output.hasRemaining())
+				channel.write(output);
+			if (now - lastForced >= FLUSH_INTERVAL_MS) {
+				channel.force(false);
+				lastForced = now;
+				System.out.printf("%d positions from %d games%n", written.get(), games.get());
+			}
+		}
+		written.addAndGet(output.limit() / RECORD_BYTES);
+		output.clear();
+		return now;
+	}
+
+	/**
+	 * Choose the random opening of a game
+	 * @param game the index of the game
+	 * @return the opening moves
+	 */
+	private List<Move> openingMoves(int game) {
+		Random random = new Random(seed * 1_000_003 + game);
+		while (true) {
+			ChessBoard board = new ChessBoard();
+			board.resetBoard();
+			List<Move> opening = new ArrayList<>();
+			for (int ply = 0; ply < openingPlies; ply++) {
+				ArrayList<Move> moves = new ArrayList<>(board.generateMoves());
+				if (moves.isEmpty())
+					break;
+				moves.sort((a, b) -> ChessUtilities.moveToUci(a).compareTo(ChessUtilities.moveToUci(b))); // Sets aren't ordered, keep it reproducible
+				Move move = moves.get(random.nextInt(moves.size()));
+				opening.add(move);
+				board.performMove(move);
+			}
+			if (!board.generateMoves().isEmpty())
+				return opening;
+		}
+	}
+
+	/**
+	 * Play one game, recording every position searched. Results are left for the caller to fill in
+	 * @param searcher the searcher playing both sides
+	 * @param limits the limits of every search
+	 * @param opening the moves to start with, which aren't recorded
+	 * @param game where to write the records
+	 * @return the result, as recorded, or -1 if a search stopped without a move and the game should be thrown away, as
+	 * its result isn't known
+	 */
+	private static int playGame(MoveSearcher searcher, SearchLimits limits, List<Move> opening, ByteBuffer game) {
+		ChessBoard board = new ChessBoard();
+		board.resetBoard();
+		List<Long> history = new ArrayList<>(); // Hashes since the last capture or pawn move, for repetitions
+		history.add(board.computeZobristHash());
+
+		for (int ply = 0; ply < MAX_PLIES; ply++) {
+			Move move;
+			if (ply < opening.size()) {
+				move = opening.get(ply);
+			} else {
+				SearchResult result = searcher.search(board, limits);
+				move = result.bestMove();
+				if (move == null) {
+					// Games that end are caught after the move that ends them, so this is a search cut short
+					if (board.generateMoves().isEmpty())
+						return !board.isInCheck() ? 1 : board.isWhiteTurn ? 0 : 2;
+					return -1;
+				}
+				write(game, board, result.score(), 0, move); // The result is filled in once known
+			}
+
+			boolean irreversible = board.isCapture(move) || move.piece() == 1 || move.piece() == -1;
+			board.performMove(move);
+			if (irreversible)
+				history.clear();
+			long hash = board.computeZobristHash();
+			history.add(hash);
+
+			if (board.generateMoves().isEmpty())
+				return !board.isInCheck() ? 1 : board.isWhiteTurn ? 0 : 2;
+			if (history.size() > 100 || SelfPlayMatch.insufficientMaterial(board)
+					|| history.stream().filter(h -> h == hash).count() >= 3)
+				return 1;
+		}
+		return 1;
+	}
+
+	/**
+	 * Write one record
+	 * @param buffer the buffer, left at the start of the next record
+	 * @param board the position
+	 * @param score the search score, positive favors white, clamped to {@link #MATE_SCORE}
+	 * @param result 2 if white won, 1 for a draw and 0 if black won
+	 * @param move the move played
+	 */
+	static void write(ByteBuffer buffer, ChessBoard board, int score, int result, Move move) {
+		int start = buffer.position();
+		PositionCodec.encode(board, buffer);
+		while (buffer.position() < start + SCORE_OFFSET)
+			buffer.put((byte) 0);
+		buffer.putShort((short) Math.max(-MATE_SCORE, Math.min(MATE_SCORE, score)));
+		buffer.put((byte) result);
+		buffer.put((byte) Long.numberOfTrailingZeros(move.from()));
+		buffer.put((byte) Long.numberOfTrailingZeros(move.to()));
+		buffer.put((byte) Math.abs(move.promotion()));
+	}
+
+	/**
+	 * Read one record
+	 * @param buffer the buffer, positioned at the start of a record and left at the start of the next
+	 * @return the record
+	 * @throws IllegalArgumentException if it isn't a record
+	 */
+	static Sample read(ByteBuffer buffer) {
+		int start = buffer.position();
+		ChessBoard board = PositionCodec.decode(buffer);
+		int score = buffer.getShort(start + SCORE_OFFSET), result = buffer.get(start + RESULT_OFFSET);
+		int from = buffer.get(start + MOVE_OFFSET), to = buffer.get(start + MOVE_OFFSET + 1);
+		int promotion = buffer.get(start + MOVE_OFFSET + 2);
+		byte piece = board.pieceAt(from);
+		Move move = new Move(1l << from, 1l << to, piece, (byte) (piece > 0 ? promotion : -promotion));
+		buffer.position(start + RECORD_BYTES);
+		return new Sample(board, score, result, move);
+	}
+}
@@ -1,10 +1,25 @@
 package org.j3lsmp.chessengine;
 
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
 
 /**
  * A table mapping zobrist hashes of board states to previously computed evaluations of them
  * 
+ * <p>Entries are stamped with the generation, a counter bumped by {@link #newSearch()} at the start of each move
+ * search, in which they were last stored or used. {@link MoveSearcher} bumps it itself for every search it's given
+ * limits for, so everything searching through it ages its table. Entries from earlier generations are replaced
+ * regardless of depth, and a background sweep removes entries left untouched for {@link #STALE_GENERATIONS}
+ * generations, so positions long gone from the game don't crowd out current ones
+ * 
  * @author Jaden
  * @since 0.0.1
  */
@@ -15,26 +30,176 @@ public class TranspositionTable {
 	private final ConcurrentHashMap<Long, TranspositionEntry> table = new ConcurrentHashMap<>();
 	
 	/**
-	 * Add the computed valuation to the table, unless an existing entry exists that was evaluated to a greater depth
+	 * Rough heap cost of one entry: the map node, the boxed key, the entry and its move
+	 */
+	private static final long ESTIMATED_ENTRY_BYTES = 112;
+	
+	/**
+	 * Activity counters since the table was created, reported by {@link #recordEvent()}
+	 */
+	private final LongAdder probes = new LongAdder(), hits = new LongAdder(), stores = new LongAdder(),
+			overwrites = new LongAdder(), rejected = new LongAdder(), swept = new LongAdder();
+	
+	/**
+	 * How many generations an entry may go unused before the sweep removes it
+	 */
+	static final int STALE_GENERATIONS = 8;
+	
+	/**
+	 * How often the sweep runs, and the most entries it visits each time, so it never holds up searches for long
+	 */
+	private static final long SWEEP_INTERVAL_MS = 250;
+	private static final int SWEEP_BATCH = 50_000;
+	
+	/**
+	 * Runs the sweep of every table
+	 */
+	private static final ScheduledExecutorService sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "transposition-sweep");
+		thread.setDaemon(true);
+		return thread;
+	});
+	
+	/**
+	 * The current generation
+	 */
+	private volatile int generation;
+	
+	/**
+	 * Where the sweep got to in the table, picked up on the next run. Only used by the sweeper thread
+	 */
+	private Iterator<Map.Entry<Long, TranspositionEntry>> sweepCursor;
+	
+	/**
+	 * Told about every entry this table stores at {@link #shareDepth} or deeper, or null for nobody. Lets a
+	 * {@link SearchWorker} pass its most expensive results on to the other workers. Called on the searching thread, so it
+	 * should return quickly
+	 */
+	volatile BiConsumer<Long, TranspositionEntry> shareListener;
+	
+	/**
+	 * The shallowest entry {@link #shareListener} is told about
+	 */
+	volatile int shareDepth;
+	
+	/**
+	 * Creates an empty table and starts sweeping it. The sweep holds the table weakly, and stops once the table is
+	 * garbage collected
+	 */
+	TranspositionTable() {
+		WeakReference<TranspositionTable> reference = new WeakReference<>(this);
+		ScheduledFuture<?>[] sweep = new ScheduledFuture<?>[1];
+		synchronized (sweep) {
+			sweep[0] = sweeper.scheduleWithFixedDelay(() -> {
+				TranspositionTable table = reference.get();
+				if (table != null)
+					table.sweep(SWEEP_BATCH);
+				else
+					synchronized (sweep) {
+						sweep[0].cancel(false);
+					}
+			}, SWEEP_INTERVAL_MS, SWEEP_INTERVAL_MS, TimeUnit.MILLISECONDS);
+		}
+	}
+	
+	/**
+	 * Start a new generation, called before each move search. Entries stored or used from now on belong to it
+	 */
+	void newSearch() {
+		generation++;
+	}
+	
+	/**
+	 * The current generation
+	 * @return the number of move searches started so far
+	 */
+	int generation() {
+		return generation;
+	}
+	
+	/**
+	 * Add the computed valuation to the table, unless an existing entry from the current generation was evaluated to a
+	 * greater depth
 	 * @param zobristKey Zobrist hash of the board state
-	 * @param newEntry table entry to be (potentially) added
+	 * @param newEntry table entry to be (potentially) added, stamped with the current generation
 	 */
 	void put(long zobristKey, TranspositionEntry newEntry) {
-		table.compute(zobristKey, (key, existingEntry) -> {
-			if (existingEntry == null || newEntry.depth > existingEntry.depth) {
+		BiConsumer<Long, TranspositionEntry> listener = shareListener;
+		if (store(zobristKey, newEntry) && listener != null && newEntry.depth >= shareDepth)
+			listener.accept(zobristKey, newEntry);
+	}
+	
+	/**
+	 * Add an entry computed elsewhere, like another process, under the same rules as {@link #put(long, TranspositionEntry)}
+	 * but without passing it on to {@link #shareListener}
+	 * @param zobristKey Zobrist hash of the board state
+	 * @param newEntry table entry to be (potentially) added
+	 */
+	void putShared(long zobristKey, TranspositionEntry newEntry) {
+		store(zobristKey, newEntry);
+	}
+	
+	/**
+	 * Body of {@link #put(long, TranspositionEntry)}
+	 * @param zobristKey Zobrist hash of the board state
+	 * @param newEntry table entry to be (potentially) added
+	 * @return true if the entry was stored
+	 */
+	private boolean store(long zobristKey, TranspositionEntry newEntry) {
+		stores.increment();
+		int currentGeneration = generation;
+		newEntry.generation = currentGeneration;
+		return table.compute(zobristKey, (key, existingEntry) -> {
+			if (existingEntry == null)
+				return newEntry;
+			if (existingEntry.generation != currentGeneration || newEntry.depth > existingEntry.depth) {
+				overwrites.increment();
 				return newEntry;
 			}
+			rejected.increment();
 			return existingEntry;
-		});
+		}) == newEntry;
 	}
 	
 	/**
-	 * Get the valuation associated with the given hash
+	 * Get the valuation associated with the given hash. A found entry is moved into the current generation, as a
+	 * position reached again is still part of the game
 	 * @param zobristKey the hash
 	 * @return the associated valuation (or null if none exists)
 	 */
 	TranspositionEntry get(long zobristKey) {
-		return table.get(zobristKey);
+		probes.increment();
+		TranspositionEntry entry = table.get(zobristKey);
+		if (entry != null) {
+			hits.increment();
+			int currentGeneration = generation;
+			if (entry.generation != currentGeneration)
+				entry.generation = currentGeneration;
+		}
+		return entry;
+	}
+	
+	/**
+	 * Remove stale entries from the next part of the table, starting over from the beginning once the whole table has
+	 * been visited. Iteration over the map is weakly consistent, so searches carry on storing and reading meanwhile
+	 * @param batch the most entries to visit
+	 * @return the number of entries removed
+	 */
+	int sweep(int batch) {
+		int oldest = generation - STALE_GENERATIONS;
+		int removed = 0;
+		for (int i = 0; i < batch; i++) {
+			if (sweepCursor == null || !sweepCursor.hasNext()) {
+				sweepCursor = table.entrySet().iterator();
+				if (!sweepCursor.hasNext())
+					break;
+			}
+			Map.Entry<Long, TranspositionEntry> entry = sweepCursor.next();
+			if (entry.getValue().generation - oldest < 0 && table.remove(entry.getKey(), entry.getValue()))
+				removed++;
+		}
+		swept.add(removed);
+		return removed;
 	}
 	
 	/**
@@ -44,6 +209,26 @@ public class TranspositionTable {
 	int size() {
 		return table.size();
 	}
+	
+	/**
+	 * Emit a {@link TranspositionTableEvent} with the table's fill and activity, if flight recording is capturing them
+	 */
+	void recordEvent() {
+		TranspositionTableEvent event = new TranspositionTableEvent();
+		if (!event.isEnabled())
+			return;
+		event.entries = table.size();
+		event.estimatedBytes = event.entries * ESTIMATED_ENTRY_BYTES;
+		event.probes = probes.sum();
+		event.hits = hits.sum();
+		event.hitRate = event.probes == 0 ? 0 : (double) event.hits / event.probes;
+		event.stores = stores.sum();
+		event.overwrites = overwrites.sum();
+		event.rejected = rejected.sum();
+		event.swept = swept.sum();
+		event.generation = generation;
+		event.commit();
+	}
 }
 
 /**
@@ -57,6 +242,15 @@ class TranspositionEntry {
 	 * Values of this entry
 	 */
 	int value, depth, flag;
+	/**
+	 * The best move found from this board state, or null if none was
+	 */
+	Move move;
+	/**
+	 * The generation of {@link TranspositionTable} in which this entry was last stored or used. Updated without
+	 * synchronization, a stale read only delays the entry's sweep or replacement
+	 */
+	int generation;
 	/**
 	 * Potential values for {@link flag}, whether this table entry is an exact valuation or a bound on potential valuations
 	 */
@@ -67,10 +261,12 @@ class TranspositionEntry {
 	 * @param value the valuation of the table with a particular hash
 	 * @param depth the depth to which the valuation was calculated
 	 * @param flag what we know about the valuation
+	 * @param move the best move found, or null
 	 */
-	TranspositionEntry(int value, int depth, int flag) {
+	TranspositionEntry(int value, int depth, int flag, Move move) {
 		this.value = value;
 		this.depth = depth;
 		this.flag = flag;
+		this.move = move;
 	}
 }
\ No newline at end of file
@@ -0,0 +1,79 @@
+package org.j3lsmp.chessengine;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Runs a network's output layer with the incubating Vector API: accumulators are clipped a whole vector of shorts at a
+ * time, widened to ints, and multiplied into a running sum with the output weights. Only loaded by
+ * {@link NnueNetwork} when <code>jdk.incubator.vector</code> is in the boot layer
+ *
+ * @author Jaden
+ * @since 0.0.1
+ */
+class VectorNnueNetwork extends NnueNetwork {
+	/**
+	 * The widest short vectors this CPU supports
+	 */
+	private static final VectorSpecies<Short> SHORTS = ShortVector.SPECIES_PREFERRED;
+
+	/**
+	 * Int vectors of the same width, each holding half of a short vector once widened
+	 */
+	private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED;
+
+	/**
+	 * How much of the hidden layer whole vectors cover, the rest is done one value at a time
+	 */
+	private final int vectorBound;
+
+	/**
+	 * Creates a vector network with another's weights
+	 * @param network the network
+	 */
+	VectorNnueNetwork(NnueNetwork network) {
+		super(network);
+		vectorBound = SHORTS.loopBound(hidden);
+	}
+
+	@Override
+	int output(short[] us, short[] them) {
+		IntVector sum = IntVector.zero(INTS);
+		for (int i = 0; i < vectorBound; i += SHORTS.length()) {
+			sum = multiply(sum, us, i, i);
+			sum = multiply(sum, them, i, hidden + i);
+		}
+		int total = outputBias + sum.reduceLanes(VectorOperators.ADD);
+		for (int i = vectorBound; i < hidden; i++) {
+			total += Math.min(Math.max(us[i], 0), ACTIVATION_LIMIT) * outputWeights[i];
+			total += Math.min(Math.max(them[i], 0), ACTIVATION_LIMIT) * outputWeights[hidden + i];
+		}
+		return total;
+	}
+
+	/**
+	 * Add one vector of clipped accumulator values times their output weights to a sum
+	 * @param sum the sum so far
+	 * @param accumulator the accumulator
+	 * @param offset where in the accumulator to start
+	 * @param weightOffset where in the output weights to start
+	 * @return the new sum
+	 */
+	private IntVector multiply(IntVector sum, short[] accumulator, int offset, int weightOffset) {
+		ShortVector values = ShortVector.fromArray(SHORTS, accumulator, offset).max((short) 0).min((short) ACTIVATION_LIMIT);
+		ShortVector weights = ShortVector.fromArray(SHORTS, outputWeights, weightOffset);
+		for (int part = 0; part < 2; part++) {
+			IntVector wideValues = (IntVector) values.convertShape(VectorOperators.S2I, INTS, part);
+			IntVector wideWeights = (IntVector) weights.convertShape(VectorOperators.S2I, INTS, part);
+			sum = sum.add(wideValues.mul(wideWeights));
+		}
+		return sum;
+	}
+
+	@Override
+	String describe() {
+		return "vector, " + hidden + " hidden";
+	}
+}
@@ -0,0 +1,38 @@
+package org.j3lsmp.chessengine;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.socket.config.annotation.EnableWebSocket;
+import org.springframework.web.socket.config.annotation.WebSocketConfigurer;
+import org.springframework.web.socket.config.annotation.WebSocketHandlerRegistry;
+
+/**
+ * Registers the WebSocket endpoints
+ * 
+ * @author Jaden
+ * @since 0.0.1
+ */
+@Configuration
+@EnableWebSocket
+class WebSocketConfig implements WebSocketConfigurer {
+	/**
+	 * Pushes board updates
+	 */
+	private final BoardSocketHandler boardSocketHandler;
+
+	/**
+	 * Created by Spring
+	 * @param boardSocketHandler pushes board updates
+	 */
+	WebSocketConfig(BoardSocketHandler boardSocketHandler) {
+		this.boardSocketHandler = boardSocketHandler;
+	}
+
+	/**
+	 * Serve {@link BoardSocketHandler} at `/ws/board`
+	 * @param registry the registry provided by Spring
+	 */
+	@Override
+	public void registerWebSocketHandlers(WebSocketHandlerRegistry registry) {
+		registry.addHandler(boardSocketHandler, "/ws/board");
+	}
+}
@@ -0,0 +1,88 @@
+package org.j3lsmp.chessengine;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks a distributed search over workers running on threads, connected over loopback, agrees with a search in one
+ * process, and still finishes when a worker is lost partway through
+ */
+class DistributedSearchTests {
+	private static final String FEN = "r1bqkbnr/pppp1ppp/2n5/4p3/3PP3/5N2/PPP2PPP/RNBQKB1R b KQkq - 0 3";
+
+	@Test
+	void matchesSingleProcessSearch() throws Exception {
+		List<Socket> sockets = Collections.synchronizedList(new ArrayList<>());
+		try (DistributedSearch coordinator = startWorkers(3, sockets)) {
+			MultiPvResult result = coordinator.search(new ChessBoard(FEN), new SearchLimits(4, 0, 0));
+			SearchResult expected = new MoveSearcher(false).search(new ChessBoard(FEN), new SearchLimits(4, 0, 0));
+			assertEquals(4, result.depths().size());
+			PvLine best = result.depths().get(3).get(0);
+			assertEquals(ChessUtilities.moveToUci(expected.bestMove()), ChessUtilities.moveToUci(best.move()));
+			assertEquals(expected.score(), best.score());
+		}
+	}
+
+	@Test
+	void survivesLosingAWorker() throws Exception {
+		List<Socket> sockets = Collections.synchronizedList(new ArrayList<>());
+		try (DistributedSearch coordinator = startWorkers(3, sockets)) {
+			AtomicBoolean killed = new AtomicBoolean();
+			coordinator.depthListener = (depth, lines) -> {
+				if (killed.compareAndSet(false, true)) {
+					try {
+						sockets.get(0).close();
+					} catch (IOException e) {
+						throw new RuntimeException(e);
+					}
+				}
+			};
+			ChessBoard board = new ChessBoard(FEN);
+			MultiPvResult result = coordinator.search(board, new SearchLimits(5, 0, 0));
+			assertTrue(killed.get());
+			assertEquals(5, result.depths().size());
+			assertEquals(board.generateMoves().size(), result.depths().get(4).size());
+			assertTrue(board.isLegal(result.depths().get(4).get(0).move()));
+		}
+	}
+
+	private static DistributedSearch startWorkers(int count, List<Socket> sockets) throws IOException {
+		int port;
+		try (ServerSocket free = new ServerSocket(0)) {
+			port = free.getLocalPort();
+		}
+		for (int i = 0; i < count; i++) {
+			Thread worker = new Thread(() -> {
+				try {
+					Socket socket = null;
+					while (socket == null) {
+						try {
+							socket = new Socket(InetAddress.getLoopbackAddress(), port);
+						} catch (ConnectException e) {
+							Thread.sleep(20); // The coordinator isn't listening yet
+						}
+					}
+					sockets.add(socket);
+					new SearchWorker(socket, DistributedSearch.DEFAULT_SHARE_DEPTH).run();
+				} catch (IOException | InterruptedException e) {
+					// Killed by the test, or the coordinator closed
+				}
+			});
+			worker.setDaemon(true);
+			worker.start();
+		}
+		return new DistributedSearch(0, count, port, DistributedSearch.DEFAULT_SHARE_DEPTH);
+	}
+}
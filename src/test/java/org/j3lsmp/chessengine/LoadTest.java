@@ -0,0 +1,291 @@
+package org.j3lsmp.chessengine;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Load generator for the api, run against a server started separately on this machine. Each simulated player plays
+ * the way the page does: it fetches the board and whose turn it is, thinks for a while, asks which moves its pieces
+ * have and plays one at random, then asks the computer to reply, starting a new game when it has no moves left. The
+ * server holds one game, which every player shares and which the server lets one request at a time read or change, so
+ * this measures the api under concurrent requests for the same board rather than many independent games. Latency is
+ * timed per endpoint, and the successful requests per second and their 50th, 99th and 99.9th percentile latencies are
+ * printed at the end, with the failed requests counted apart so quick failures can't flatter the latencies
+ *
+ * <p>To tell the web layer's overhead apart from the engine's, start the server with
+ * <code>--chess.engine.stub=true</code>, which plays any legal move instead of searching, and compare the two runs. For
+ * example, with the server on port 8080:
+ * <code>java -cp target/classes:target/test-classes:... org.j3lsmp.chessengine.LoadTest --players 50 --seconds 60</code>
+ *
+ * <p>Options, all optional:
+ * <ul>
+ * <li><code>--url</code> the server. Default http://localhost:8080</li>
+ * <li><code>--players</code> players at once. Default 10</li>
+ * <li><code>--seconds</code> how long to run for, after which players finish their current request. Default 30</li>
+ * <li><code>--thinkMs</code> the players' average time to move, drawn from an exponential distribution. Default 1000</li>
+ * <li><code>--computerMs</code> the time each player gives the computer to move. Default 100</li>
+ * <li><code>--engine</code> the computer's search, <code>alphabeta</code> or <code>mcts</code>. Default alphabeta</li>
+ * </ul>
+ *
+ * @author Jaden
+ * @since 0.0.1
+ */
+class LoadTest {
+	/**
+	 * Longest a request may take before it's counted as an error
+	 */
+	private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(60);
+
+	/**
+	 * Think times are capped at this many times their average, so one unlucky draw doesn't idle a player for the run
+	 */
+	private static final int MAX_THINK_FACTOR = 5;
+
+	/**
+	 * Reads the boards and move lists the api responds with
+	 */
+	private static final ObjectMapper MAPPER = new ObjectMapper();
+
+	/**
+	 * Latencies of one endpoint's successful requests, in nanoseconds, and how many failed
+	 */
+	private static class Timings {
+		private long[] latencies = new long[1024];
+		private int count, errors;
+
+		/**
+		 * Record a request
+		 * @param nanos how long it took
+		 * @param error whether it failed, in which case only the failure is counted
+		 */
+		synchronized void add(long nanos, boolean error) {
+			if (error) {
+				errors++;
+				return;
+			}
+			if (count == latencies.length)
+				latencies = Arrays.copyOf(latencies, count * 2);
+			latencies[count++] = nanos;
+		}
+
+		/**
+		 * The successful requests' latencies recorded so far
+		 * @return a copy, smallest first
+		 */
+		synchronized long[] sorted() {
+			long[] copy = Arrays.copyOf(latencies, count);
+			Arrays.sort(copy);
+			return copy;
+		}
+	}
+
+	/**
+	 * Sends every player's requests, over as many connections as there are players waiting
+	 */
+	private final HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1)
+			.connectTimeout(Duration.ofSeconds(5)).build();
+
+	/**
+	 * Timings of each endpoint, by name
+	 */
+	private final Map<String, Timings> timings = new ConcurrentHashMap<>();
+
+	/**
+	 * Moves the players made, moves they asked the computer for, and games they started
+	 */
+	private final AtomicInteger moves = new AtomicInteger(), computerMoves = new AtomicInteger(), games = new AtomicInteger();
+
+	/**
+	 * Run settings, see {@link LoadTest}
+	 */
+	private final String url, engine;
+	private final int players, thinkMs, computerMs;
+	private final long seconds;
+
+	/**
+	 * Sets up a run from command line options
+	 * @param options option names without the leading dashes, mapped to values
+	 */
+	LoadTest(HashMap<String, String> options) {
+		url = options.getOrDefault("url", "http://localhost:8080");
+		players = Integer.parseInt(options.getOrDefault("players", "10"));
+		seconds = Long.parseLong(options.getOrDefault("seconds", "30"));
+		thinkMs = Integer.parseInt(options.getOrDefault("thinkMs", "1000"));
+		computerMs = Integer.parseInt(options.getOrDefault("computerMs", "100"));
+		engine = options.getOrDefault("engine", "alphabeta");
+	}
+
+	/**
+	 * Entry method for the load test
+	 * @param args options, see {@link LoadTest}
+	 * @throws InterruptedException if interrupted while the players run
+	 */
+	public static void main(String[] args) throws InterruptedException {
+		new LoadTest(SelfPlayMatch.parseOptions(args)).run();
+		System.exit(0);
+	}
+
+	/**
+	 * Run the players for the set time, then print the results
+	 * @throws InterruptedException if interrupted while the players run
+	 */
+	void run() throws InterruptedException {
+		System.out.printf("%d players against %s for %d s, thinking %d ms and giving the computer %d ms%n", players, url,
+				seconds, thinkMs, computerMs);
+		long start = System.nanoTime(), end = start + TimeUnit.SECONDS.toNanos(seconds);
+		ExecutorService executor = Executors.newFixedThreadPool(players);
+		for (int player = 0; player < players; player++)
+			executor.execute(() -> play(end));
+		executor.shutdown();
+		executor.awaitTermination(seconds + REQUEST_TIMEOUT.toSeconds() + 10, TimeUnit.SECONDS);
+		report((System.nanoTime() - start) / 1e9);
+	}
+
+	/**
+	 * Play as one player until the time is up
+	 * @param end when to stop, by {@link System#nanoTime()}
+	 */
+	private void play(long end) {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		while (System.nanoTime() < end) {
+			try {
+				int[][] board = MAPPER.readValue(get("/api/getBoard", "getBoard"), int[][].class);
+				if (Boolean.parseBoolean(get("/api/isComputerTurn", "isComputerTurn").strip())) {
+					post("/api/computerMove?engine=" + engine, "" + computerMs, "computerMove");
+					computerMoves.incrementAndGet();
+					continue;
+				}
+
+				double think = -Math.log(1 - random.nextDouble()) * thinkMs;
+				Thread.sleep((long) Math.min(think, (double) thinkMs * MAX_THINK_FACTOR));
+
+				// The board comes eighth rank first, squares count from a1
+				List<Integer> squares = new ArrayList<>();
+				for (int square = 0; square < 64; square++)
+					if (board[7 - square / 8][square % 8] > 0)
+						squares.add(square);
+				Collections.shuffle(squares, random);
+				boolean moved = false;
+				for (int square : squares) {
+					int[] destinations = MAPPER.readValue(get("/api/getMoves/" + square, "getMoves"), int[].class);
+					if (destinations.length == 0)
+						continue;
+					int to = destinations[random.nextInt(destinations.length)];
+					post("/api/makeMove", String.format("{\"from\":%d,\"to\":%d,\"piece\":%d}", square, to,
+							board[7 - square / 8][square % 8]), "makeMove");
+					moves.incrementAndGet();
+					moved = true;
+					break;
+				}
+				if (!moved) {
+					post("/api/newGame", "", "newGame");
+					games.incrementAndGet();
+				}
+			} catch (InterruptedException e) {
+				return;
+			} catch (Exception e) {
+				// Already counted as an error, start again from the board
+			}
+		}
+	}
+
+	/**
+	 * Send a get request, timing it
+	 * @param path the path
+	 * @param endpoint the name the timing is recorded under
+	 * @return the response body
+	 * @throws Exception if the request fails or doesn't succeed
+	 */
+	private String get(String path, String endpoint) throws Exception {
+		return send(HttpRequest.newBuilder(URI.create(url + path)).timeout(REQUEST_TIMEOUT).GET().build(), endpoint);
+	}
+
+	/**
+	 * Send a post request with a JSON body, timing it
+	 * @param path the path
+	 * @param body the body
+	 * @param endpoint the name the timing is recorded under
+	 * @return the response body
+	 * @throws Exception if the request fails or doesn't succeed
+	 */
+	private String post(String path, String body, String endpoint) throws Exception {
+		return send(HttpRequest.newBuilder(URI.create(url + path)).timeout(REQUEST_TIMEOUT)
+				.header("Content-Type", "application/json").POST(HttpRequest.BodyPublishers.ofString(body)).build(), endpoint);
+	}
+
+	/**
+	 * Send a request and record how long it took, and whether it failed
+	 * @param request the request
+	 * @param endpoint the name the timing is recorded under
+	 * @return the response body
+	 * @throws Exception if the request fails or doesn't succeed
+	 */
+	private String send(HttpRequest request, String endpoint) throws Exception {
+		long start = System.nanoTime();
+		boolean error = true;
+		try {
+			HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+			if (response.statusCode() >= 400)
+				throw new IllegalStateException(endpoint + " returned " + response.statusCode());
+			error = false;
+			return response.body();
+		} finally {
+			timings.computeIfAbsent(endpoint, name -> new Timings()).add(System.nanoTime() - start, error);
+		}
+	}
+
+	/**
+	 * Print the successful requests per second and their latency percentiles, and the failed requests, of each
+	 * endpoint
+	 * @param elapsedSeconds how long the run took
+	 */
+	private void report(double elapsedSeconds) {
+		System.out.printf("%nPlayer moves: %d, computer moves: %d, new games: %d in %.1f s%n", moves.get(),
+				computerMoves.get(), games.get(), elapsedSeconds);
+		System.out.printf("%-16s %9s %7s %9s %9s %9s %9s %9s%n", "endpoint", "ok", "errors", "ok/s", "p50 ms",
+				"p99 ms", "p99.9 ms", "max ms");
+		for (Map.Entry<String, Timings> entry : new TreeMap<>(timings).entrySet()) {
+			long[] latencies = entry.getValue().sorted();
+			int errors;
+			synchronized (entry.getValue()) {
+				errors = entry.getValue().errors;
+			}
+			if (latencies.length == 0) {
+				System.out.printf("%-16s %9d %7d%n", entry.getKey(), 0, errors);
+				continue;
+			}
+			System.out.printf("%-16s %9d %7d %9.1f %9.2f %9.2f %9.2f %9.2f%n", entry.getKey(), latencies.length,
+					errors, latencies.length / elapsedSeconds, percentile(latencies, 0.5), percentile(latencies, 0.99),
+					percentile(latencies, 0.999), latencies[latencies.length - 1] / 1e6);
+		}
+	}
+
+	/**
+	 * A percentile of some latencies, by the nearest rank
+	 * @param sorted the latencies in nanoseconds, smallest first
+	 * @param fraction the percentile, from 0 to 1
+	 * @return the latency in milliseconds
+	 */
+	private static double percentile(long[] sorted, double fraction) {
+		int rank = (int) Math.ceil(fraction * sorted.length) - 1;
+		return sorted[Math.max(0, Math.min(sorted.length - 1, rank))] / 1e6;
+	}
+}
@@ -0,0 +1,54 @@
+package org.j3lsmp.chessengine;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks the mate solver finds the shortest mate of some puzzles, and that the line it gives does mate
+ */
+class MateSolverTests {
+
+	@Test
+	void backRankMateInOne() {
+		assertMate("6k1/5ppp/8/8/8/8/5PPP/3R2K1 w - - 0 1", 1);
+	}
+
+	@Test
+	void queenSacrificeMateInTwo() {
+		assertMate("r1b2k1r/ppp1bppp/8/1B1Q4/5q2/2P5/PPP2PPP/R3R1K1 w - - 1 0", 2);
+	}
+
+	@Test
+	void blackMatesInThree() {
+		assertMate("2r3k1/p4p2/3Rp2p/1p2P1pK/8/1P4P1/P3Q2P/1q6 b - - 0 1", 3);
+	}
+
+	@Test
+	void rookEndingMateInThree() {
+		assertMate("8/8/8/8/8/8/8/k1K4R w - - 0 1", 3);
+	}
+
+	@Test
+	void noMateWithBareKings() {
+		MateSolver.MateResult result = new MateSolver(1 << 16).solve(new ChessBoard("4k3/8/8/8/8/8/8/4K3 w - - 0 1"), 3,
+				SearchLimits.ofTime(10000));
+		assertFalse(result.found());
+		assertTrue(result.proven());
+	}
+
+	private static void assertMate(String fen, int moves) {
+		MateSolver.MateResult result = new MateSolver(1 << 16).solve(new ChessBoard(fen), moves + 1,
+				SearchLimits.ofTime(10000));
+		assertEquals(moves, result.mateIn());
+		ChessBoard board = new ChessBoard(fen);
+		for (Move move : result.line()) {
+			assertTrue(board.isLegal(move), ChessUtilities.moveToUci(move) + " should be legal");
+			board = new ChessBoard(board, move);
+		}
+		assertEquals(2 * moves - 1, result.line().size());
+		assertTrue(board.isInCheck() && board.generateMoves().isEmpty(), "the line should end in mate");
+	}
+}
@@ -0,0 +1,55 @@
+package org.j3lsmp.chessengine;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks legal move generation against published perft results, which exercise checks, pins, castling, en passant and
+ * promotion
+ * 
+ * @see <a href="https://www.chessprogramming.org/Perft_Results">Reference</a>
+ */
+class MoveGenerationTests {
+
+	@Test
+	void startingPosition() {
+		ChessBoard board = new ChessBoard();
+		board.resetBoard();
+		assertEquals(20, board.perft(1));
+		assertEquals(400, board.perft(2));
+		assertEquals(8902, board.perft(3));
+		assertEquals(197281, board.perft(4));
+	}
+
+	@Test
+	void kiwipete() {
+		ChessBoard board = new ChessBoard("r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1");
+		assertEquals(48, board.perft(1));
+		assertEquals(2039, board.perft(2));
+		assertEquals(97862, board.perft(3));
+	}
+
+	@Test
+	void enPassantPins() {
+		ChessBoard board = new ChessBoard("8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - 0 1");
+		assertEquals(14, board.perft(1));
+		assertEquals(191, board.perft(2));
+		assertEquals(2812, board.perft(3));
+		assertEquals(43238, board.perft(4));
+	}
+
+	@Test
+	void promotions() {
+		ChessBoard board = new ChessBoard("r3k2r/Pppp1ppp/1b3nbN/nP6/BBP1P3/q4N2/Pp1P2PP/R2Q1RK1 w kq - 0 1");
+		assertEquals(6, board.perft(1));
+		assertEquals(264, board.perft(2));
+		assertEquals(9467, board.perft(3));
+	}
+
+	@Test
+	void fenRoundTrip() {
+		String fen = "rnbq1k1r/pp1Pbppp/2p5/8/2B5/8/PPP1NnPP/RNBQK2R w KQ - 0 1";
+		assertEquals(fen, new ChessBoard(fen).toFen());
+	}
+}
@@ -0,0 +1,110 @@
+package org.j3lsmp.chessengine;
+
+/**
+ * Compares evaluations per second of the hand-written evaluation and the bundled network, walking every position a
+ * few plies below some test positions and evaluating each, as a search's leaves would be. The network's time includes
+ * updating accumulators move by move. Every incrementally updated evaluation is checked against one computed from
+ * scratch. Run with <code>--add-modules jdk.incubator.vector</code> to time the vector output layer
+ *
+ * @author Jaden
+ * @since 0.0.1
+ */
+class NnueBenchmark {
+	/**
+	 * Positions to walk below: the start, an open middlegame and a sparse endgame
+	 */
+	private static final String[] FENS = {
+		"rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1",
+		"r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1",
+		"8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - 0 1",
+	};
+
+	/**
+	 * Plies to walk below each position
+	 */
+	private static final int DEPTH = 4;
+
+	/**
+	 * How many timed walks, after as many warm-up walks
+	 */
+	private static final int ROUNDS = 5;
+
+	/**
+	 * Evaluations made and their total, so the walk can't be optimised away
+	 */
+	private static long evaluations, checksum;
+
+	/**
+	 * Entry method for the benchmark
+	 * @param args ignored
+	 * @throws Exception if the bundled network can't be loaded
+	 */
+	public static void main(String[] args) throws Exception {
+		NnueNetwork network = NnueNetwork.loadBundled();
+		ChessBoard[] roots = new ChessBoard[FENS.length];
+		for (int i = 0; i < FENS.length; i++)
+			roots[i] = new ChessBoard(FENS[i]);
+
+		for (ChessBoard root : roots) {
+			root.accumulator = new NnueAccumulator(network, root);
+			verify(root, 3);
+		}
+		System.out.println("Incremental evaluations match evaluations from scratch");
+
+		double handWritten = time(roots, null);
+		double nnue = time(roots, network);
+		System.out.printf("%-24s %10.0f evaluations/s%n", "hand-written", handWritten);
+		System.out.printf("%-24s %10.0f evaluations/s (%.2fx)%n", "nnue, " + network.describe(), nnue, nnue / handWritten);
+	}
+
+	/**
+	 * Time walks below every root
+	 * @param roots the roots
+	 * @param network the network to evaluate with, or null for the hand-written evaluation
+	 * @return evaluations per second, the best of the timed rounds
+	 */
+	private static double time(ChessBoard[] roots, NnueNetwork network) {
+		for (ChessBoard root : roots)
+			root.accumulator = network != null ? new NnueAccumulator(network, root) : null;
+		double best = 0;
+		for (int round = 0; round < 2 * ROUNDS; round++) {
+			evaluations = 0;
+			long start = System.nanoTime();
+			for (ChessBoard root : roots)
+				walk(root, DEPTH);
+			double rate = evaluations * 1e9 / (System.nanoTime() - start);
+			if (round >= ROUNDS)
+				best = Math.max(best, rate);
+		}
+		return best;
+	}
+
+	/**
+	 * Evaluate every board on the way down to some depth below a board
+	 * @param board the board
+	 * @param depth the plies left
+	 */
+	private static void walk(ChessBoard board, int depth) {
+		checksum += board.calculateBoardValue();
+		evaluations++;
+		if (depth == 0)
+			return;
+		for (Move move : board.generateMoves())
+			walk(new ChessBoard(board, move), depth - 1);
+	}
+
+	/**
+	 * Check the accumulators of every board some depth below a board against accumulators computed from scratch
+	 * @param board the board, with accumulators
+	 * @param depth the plies left
+	 */
+	private static void verify(ChessBoard board, int depth) {
+		int fromScratch = new NnueAccumulator(board.accumulator.network, board).evaluate(board.isWhiteTurn);
+		if (board.calculateBoardValue() != fromScratch)
+			throw new AssertionError(board.toFen() + ": " + board.calculateBoardValue() + " != " + fromScratch);
+		if (depth == 0)
+			return;
+		for (Move move : board.generateMoves())
+			verify(new ChessBoard(board, move), depth - 1);
+	}
+}
@@ -0,0 +1,60 @@
+package org.j3lsmp.chessengine;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks positions come back from their compact form unchanged, including castling rights, en passant files and
+ * promoted pieces, and never take more than {@link PositionCodec#MAX_BYTES}
+ */
+class PositionCodecTests {
+
+	@Test
+	void castlingRightsRoundTrip() {
+		for (String rights : new String[] {"KQkq", "Kq", "Qk", "K", "q", "-"})
+			assertRoundTrip(new ChessBoard("r3k2r/pppppppp/8/8/8/8/PPPPPPPP/R3K2R w " + rights + " - 0 1"));
+	}
+
+	@Test
+	void enPassantRoundTrips() {
+		ChessBoard white = new ChessBoard("rnbqkbnr/ppp1p1pp/8/3pPp2/8/8/PPPP1PPP/RNBQKBNR w KQkq f6 0 3");
+		ChessBoard black = new ChessBoard("rnbqkbnr/pppp1ppp/8/8/3PpP2/8/PPP1P1PP/RNBQKBNR b KQkq d3 0 3");
+		assertEquals(5, PositionCodec.decode(PositionCodec.encode(white)).enPassantFile);
+		assertEquals(3, PositionCodec.decode(PositionCodec.encode(black)).enPassantFile);
+		assertRoundTrip(white);
+		assertRoundTrip(black);
+	}
+
+	@Test
+	void promotionsRoundTrip() {
+		// Both sides have pawns about to promote, and every underpromotion is among the moves below
+		assertEverythingBelow(new ChessBoard("r3k2r/Pppp1ppp/1b3nbN/nP6/BBP1P3/q4N2/Pp1P2PP/R2Q1RK1 w kq - 0 1"), 2);
+		assertEverythingBelow(new ChessBoard("rnbq1k1r/pp1Pbppp/2p5/8/2B5/8/PPP1NnPP/RNBQK2R w KQ - 1 8"), 2);
+	}
+
+	@Test
+	void middlegameRoundTrips() {
+		assertEverythingBelow(new ChessBoard("r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1"), 2);
+	}
+
+	private static void assertEverythingBelow(ChessBoard board, int depth) {
+		assertRoundTrip(board);
+		if (depth > 0)
+			for (Move move : board.generateMoves())
+				assertEverythingBelow(new ChessBoard(board, move), depth - 1);
+	}
+
+	private static void assertRoundTrip(ChessBoard board) {
+		byte[] bytes = PositionCodec.encode(board);
+		assertTrue(bytes.length <= 26, board.toFen() + " took " + bytes.length + " bytes");
+		ChessBoard decoded = PositionCodec.decode(bytes);
+		assertEquals(board.toFen(), decoded.toFen());
+		assertEquals(board.castlingRights, decoded.castlingRights);
+		assertEquals(board.enPassantFile, decoded.enPassantFile);
+		assertEquals(board.computeZobristHash(), decoded.computeZobristHash());
+		assertArrayEquals(bytes, PositionCodec.encode(decoded));
+	}
+}
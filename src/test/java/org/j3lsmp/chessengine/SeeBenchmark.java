@@ -0,0 +1,89 @@
+package org.j3lsmp.chessengine;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Times static exchange evaluation of every capture a few plies below some test positions, against sorting the same
+ * captures by most valuable victim alone, which is what capture ordering cost before. Run with
+ * <code>-verbose:gc</code> to see that evaluating exchanges allocates nothing
+ *
+ * @author Jaden
+ * @since 0.0.1
+ */
+class SeeBenchmark {
+	/**
+	 * Positions to collect captures below: a tactical middlegame, a position full of promotions and an endgame
+	 */
+	private static final String[] FENS = {
+		"r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1",
+		"r3k2r/Pppp1ppp/1b3nbN/nP6/BBP1P3/q4N2/Pp1P2PP/R2Q1RK1 w kq - 0 1",
+		"8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - 0 1",
+	};
+
+	/**
+	 * Plies to collect captures below each position
+	 */
+	private static final int DEPTH = 3;
+
+	/**
+	 * How many timed rounds, after as many warm-up rounds
+	 */
+	private static final int ROUNDS = 10;
+
+	/**
+	 * Entry method for the benchmark
+	 * @param args ignored
+	 */
+	public static void main(String[] args) {
+		List<ChessBoard> boards = new ArrayList<>();
+		List<Move> captures = new ArrayList<>();
+		for (String fen : FENS)
+			collect(new ChessBoard(fen), DEPTH, boards, captures);
+		ChessBoard[] boardArray = boards.toArray(new ChessBoard[0]);
+		Move[] moveArray = captures.toArray(new Move[0]);
+
+		long winning = 0;
+		for (int i = 0; i < moveArray.length; i++)
+			if (boardArray[i].staticExchangeAtLeast(moveArray[i], 0))
+				winning++;
+		System.out.printf("%d captures, %d not losing material%n", moveArray.length, winning);
+
+		double see = 0, victim = 0;
+		long checksum = 0;
+		for (int round = 0; round < 2 * ROUNDS; round++) {
+			long start = System.nanoTime();
+			for (int i = 0; i < moveArray.length; i++)
+				if (boardArray[i].staticExchangeAtLeast(moveArray[i], 0))
+					checksum++;
+			long middle = System.nanoTime();
+			for (int i = 0; i < moveArray.length; i++)
+				checksum += boardArray[i].pieceAt(Long.numberOfTrailingZeros(moveArray[i].to()));
+			long end = System.nanoTime();
+			if (round >= ROUNDS) {
+				see += (middle - start) / (double) moveArray.length / ROUNDS;
+				victim += (end - middle) / (double) moveArray.length / ROUNDS;
+			}
+		}
+		System.out.printf("%-24s %8.1f ns/capture%n", "static exchange", see);
+		System.out.printf("%-24s %8.1f ns/capture (checksum %d)%n", "victim lookup", victim, checksum);
+	}
+
+	/**
+	 * Collect every capture on the way down to some depth below a board, with the board it's made on
+	 * @param board the board
+	 * @param depth the plies left
+	 * @param boards where to add the board of each capture
+	 * @param captures where to add the captures
+	 */
+	private static void collect(ChessBoard board, int depth, List<ChessBoard> boards, List<Move> captures) {
+		for (Move move : board.generateMoves()) {
+			if (board.isCapture(move)) {
+				boards.add(board);
+				captures.add(move);
+			}
+			if (depth > 1)
+				collect(new ChessBoard(board, move), depth - 1, boards, captures);
+		}
+	}
+}
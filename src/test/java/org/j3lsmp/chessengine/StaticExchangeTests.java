@@ -0,0 +1,43 @@
+package org.j3lsmp.chessengine;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks static exchange evaluation finds the exact gain of some exchanges, by accepting it as a threshold and
+ * rejecting one centipawn more
+ * 
+ * @see <a href="https://www.chessprogramming.org/SEE_-_The_Swap_Algorithm">Reference</a>
+ */
+class StaticExchangeTests {
+
+	@Test
+	void undefendedPawn() {
+		assertGain("1k1r4/1pp4p/p7/4p3/8/P5P1/1PP4P/2K1R3 w - - 0 1", "e1e5", 100);
+	}
+
+	@Test
+	void longExchangeWithXRays() {
+		assertGain("1k1r3q/1ppn3p/p4b2/4p3/8/P2N2P1/1PP1R1BP/2K1Q3 w - - 0 1", "d3e5", 100 - 320);
+	}
+
+	@Test
+	void rookBehindRook() {
+		assertGain("4k3/4r3/8/4p3/8/8/4R3/4R2K w - - 0 1", "e2e5", 100);
+	}
+
+	@Test
+	void enPassant() {
+		assertGain("4k3/8/8/3pP3/8/8/8/4K3 w - d6 0 1", "e5d6", 100);
+	}
+
+	private static void assertGain(String fen, String uci, int gain) {
+		ChessBoard board = new ChessBoard(fen);
+		Move move = board.generateMoves().stream().filter(m -> ChessUtilities.moveToUci(m).equals(uci)).findFirst()
+				.orElseThrow();
+		assertTrue(board.staticExchangeAtLeast(move, gain), uci + " should gain " + gain);
+		assertFalse(board.staticExchangeAtLeast(move, gain + 1), uci + " should gain only " + gain);
+	}
+}
@@ -0,0 +1,41 @@
+package org.j3lsmp.chessengine;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.ByteBuffer;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks training data records read back as they were written, and take exactly their fixed size
+ */
+class TrainingDataTests {
+
+	@Test
+	void recordsRoundTrip() {
+		String[] fens = {
+				"rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1",
+				"r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1",
+				"rnbqkbnr/ppp1p1pp/8/3pPp2/8/8/PPPP1PPP/RNBQKBNR w KQkq f6 0 3",
+				"r3k2r/Pppp1ppp/1b3nbN/nP6/BBP1P3/q4N2/Pp1P2PP/R2Q1RK1 b kq - 0 1",
+		};
+		int[] scores = {0, 35, -120, 1_000_000};
+		for (int i = 0; i < fens.length; i++) {
+			ChessBoard board = new ChessBoard(fens[i]);
+			for (Move move : board.generateMoves()) {
+				ByteBuffer buffer = ByteBuffer.allocate(2 * TrainingDataGenerator.RECORD_BYTES);
+				TrainingDataGenerator.write(buffer, board, scores[i], i % 3, move);
+				assertEquals(TrainingDataGenerator.RECORD_BYTES, buffer.position());
+
+				buffer.flip();
+				TrainingDataGenerator.Sample sample = TrainingDataGenerator.read(buffer);
+				assertEquals(TrainingDataGenerator.RECORD_BYTES, buffer.position());
+				assertEquals(board.toFen(), sample.board().toFen());
+				assertEquals(Math.max(-TrainingDataGenerator.MATE_SCORE, Math.min(TrainingDataGenerator.MATE_SCORE, scores[i])),
+						sample.score());
+				assertEquals(i % 3, sample.result());
+				assertEquals(move, sample.move());
+			}
+		}
+	}
+}